@@ -0,0 +1,260 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.apache.commons.codec.binary.Base64;
+import org.fcrepo.migration.DatastreamInfo;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.DefaultObjectInfo;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.fcrepo.migration.foxml11.CachedContent;
+import org.fcrepo.migration.foxml11.InternalIDResolver;
+import org.fcrepo.migration.foxml11.URLFetcher;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Generates the synthetic inputs shared by the benchmarks.
+ */
+public class BenchmarkData {
+
+    private static final String FOXML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<foxml:digitalObject VERSION=\"1.1\" PID=\"%s\" xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+            + " xsi:schemaLocation=\"info:fedora/fedora-system:def/foxml# http://www.fedora.info/definitions/1/0/foxml1-1.xsd\">\n"
+            + "<foxml:objectProperties>\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"Active\"/>\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"Benchmark object\"/>\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/model#ownerId\" VALUE=\"benchmark\"/>\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/model#createdDate\" VALUE=\"2015-01-27T19:07:33.120Z\"/>\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/view#lastModifiedDate\" VALUE=\"2015-01-27T20:26:16.998Z\"/>\n"
+            + "</foxml:objectProperties>\n";
+
+    private static final String FOXML_FOOTER = "</foxml:digitalObject>\n";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Gets the FOXML of an object with one inline XML datastream that has the
+     * given number of small versions.
+     */
+    public static byte[] foxmlWithSmallVersions(final int versions) throws IOException {
+        final StringBuilder sb = new StringBuilder(String.format(FOXML_HEADER, "benchmark:versions"));
+        sb.append("<foxml:datastream ID=\"DS1\" STATE=\"A\" CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">\n");
+        for (int i = 0; i < versions; i ++) {
+            sb.append("<foxml:datastreamVersion ID=\"DS1.").append(i)
+                    .append("\" LABEL=\"Inline XML\" CREATED=\"2015-01-27T19:08:43.701Z\" MIMETYPE=\"text/xml\">\n")
+                    .append("<foxml:xmlContent>\n<test xmlns:ex=\"http://example.org/\">\n")
+                    .append("  <ex:value n=\"").append(i).append("\">Version ").append(i).append(" of the content.</ex:value>\n")
+                    .append("</test>\n</foxml:xmlContent>\n</foxml:datastreamVersion>\n");
+        }
+        sb.append("</foxml:datastream>\n").append(FOXML_FOOTER);
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Gets the FOXML of an object with one managed datastream whose content,
+     * of the given size, is inline as base64-encoded binaryContent.
+     */
+    public static byte[] foxmlWithBinaryContent(final int contentBytes) throws IOException {
+        final byte[] content = new byte[contentBytes];
+        new Random(42).nextBytes(content);
+        final StringBuilder sb = new StringBuilder(String.format(FOXML_HEADER, "benchmark:binary"));
+        sb.append("<foxml:datastream ID=\"DS2\" STATE=\"A\" CONTROL_GROUP=\"M\" VERSIONABLE=\"true\">\n")
+                .append("<foxml:datastreamVersion ID=\"DS2.0\" LABEL=\"Binary\" CREATED=\"2015-01-27T19:08:43.701Z\"")
+                .append(" MIMETYPE=\"application/octet-stream\" SIZE=\"").append(contentBytes).append("\">\n")
+                .append("<foxml:binaryContent>\n")
+                .append(new String(Base64.encodeBase64Chunked(content), "US-ASCII"))
+                .append("</foxml:binaryContent>\n</foxml:datastreamVersion>\n</foxml:datastream>\n")
+                .append(FOXML_FOOTER);
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Gets the FOXML of a typical object: inline DC and RELS-EXT and three
+     * versions of a small managed datastream.
+     */
+    public static byte[] typicalFoxml() throws IOException {
+        final String pid = "benchmark:typical";
+        final StringBuilder sb = new StringBuilder(String.format(FOXML_HEADER, pid));
+        sb.append("<foxml:datastream ID=\"DC\" STATE=\"A\" CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">\n")
+                .append("<foxml:datastreamVersion ID=\"DC1.0\" LABEL=\"Dublin Core Record\"")
+                .append(" CREATED=\"2015-01-27T19:07:33.120Z\" MIMETYPE=\"text/xml\"")
+                .append(" FORMAT_URI=\"http://www.openarchives.org/OAI/2.0/oai_dc/\">\n<foxml:xmlContent>\n")
+                .append(new String(dc(), "UTF-8"))
+                .append("</foxml:xmlContent>\n</foxml:datastreamVersion>\n</foxml:datastream>\n")
+                .append("<foxml:datastream ID=\"RELS-EXT\" STATE=\"A\" CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">\n")
+                .append("<foxml:datastreamVersion ID=\"RELS-EXT.0\" LABEL=\"Relationships\"")
+                .append(" CREATED=\"2015-01-27T19:07:33.120Z\" MIMETYPE=\"application/rdf+xml\">\n")
+                .append("<foxml:xmlContent>\n").append(new String(relsExt(pid, 5), "UTF-8"))
+                .append("</foxml:xmlContent>\n</foxml:datastreamVersion>\n</foxml:datastream>\n")
+                .append("<foxml:datastream ID=\"OBJ\" STATE=\"A\" CONTROL_GROUP=\"M\" VERSIONABLE=\"true\">\n");
+        final Random random = new Random(42);
+        for (int i = 0; i < 3; i ++) {
+            final byte[] content = new byte[16 * 1024];
+            random.nextBytes(content);
+            sb.append("<foxml:datastreamVersion ID=\"OBJ.").append(i).append("\" LABEL=\"Binary\"")
+                    .append(" CREATED=\"2015-01-27T19:08:43.701Z\" MIMETYPE=\"application/octet-stream\"")
+                    .append(" SIZE=\"").append(content.length).append("\">\n<foxml:binaryContent>\n")
+                    .append(new String(Base64.encodeBase64Chunked(content), "US-ASCII"))
+                    .append("</foxml:binaryContent>\n</foxml:datastreamVersion>\n");
+        }
+        sb.append("</foxml:datastream>\n").append(FOXML_FOOTER);
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Gets a DC record with two values for each of the fifteen elements.
+     */
+    public static byte[] dc() throws IOException {
+        final String[] elements = new String[] { "contributor", "coverage", "creator", "date", "description",
+                "format", "identifier", "language", "publisher", "relation", "rights", "source", "subject",
+                "title", "type" };
+        final StringBuilder sb = new StringBuilder("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+        for (final String e : elements) {
+            for (int i = 1; i <= 2; i ++) {
+                sb.append("  <dc:").append(e).append('>').append(e).append(' ').append(i)
+                        .append("</dc:").append(e).append(">\n");
+            }
+        }
+        sb.append("</oai_dc:dc>\n");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Gets a RELS-EXT record with the given number of relationships.
+     */
+    public static byte[] relsExt(final String pid, final int relationships) throws IOException {
+        final StringBuilder sb = new StringBuilder("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns:fedora=\"info:fedora/fedora-system:def/relations-external#\""
+                + " xmlns:fedora-model=\"info:fedora/fedora-system:def/model#\">\n")
+                .append("  <rdf:Description rdf:about=\"info:fedora/").append(pid).append("\">\n")
+                .append("    <fedora-model:hasModel rdf:resource=\"info:fedora/example:model\"/>\n");
+        for (int i = 0; i < relationships; i ++) {
+            sb.append("    <fedora:isMemberOf rdf:resource=\"info:fedora/example:collection").append(i).append("\"/>\n");
+        }
+        sb.append("  </rdf:Description>\n</rdf:RDF>\n");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Gets an ObjectInfo for the given PID.
+     */
+    public static ObjectInfo objectInfo(final String pid) {
+        return new DefaultObjectInfo(pid, "info:fedora/" + pid);
+    }
+
+    /**
+     * Gets a DatastreamInfo for the given datastream of the given object.
+     */
+    public static DatastreamInfo datastreamInfo(final String pid, final String dsid) {
+        final ObjectInfo objectInfo = objectInfo(pid);
+        return new DatastreamInfo() {
+            @Override
+            public ObjectInfo getObjectInfo() {
+                return objectInfo;
+            }
+
+            @Override
+            public String getDatastreamId() {
+                return dsid;
+            }
+
+            @Override
+            public String getControlGroup() {
+                return "M";
+            }
+
+            @Override
+            public String getFedoraURI() {
+                return "info:fedora/" + pid + "/" + dsid;
+            }
+
+            @Override
+            public String getState() {
+                return "A";
+            }
+
+            @Override
+            public boolean getVersionable() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * A URLFetcher that returns a small fixed response without any I/O.
+     */
+    public static class NullURLFetcher implements URLFetcher {
+        @Override
+        public InputStream getContentAtUrl(final URL url) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    /**
+     * An InternalIDResolver that resolves nothing.
+     */
+    public static class NullIDResolver implements InternalIDResolver {
+        @Override
+        public CachedContent resolveInternalID(final String id) {
+            return null;
+        }
+    }
+
+    /**
+     * A StreamingFedoraObjectHandler that reads the content of every
+     * datastream version into a Blackhole, as a real handler would.
+     */
+    public static class ConsumingHandler implements StreamingFedoraObjectHandler {
+
+        private final Blackhole blackhole;
+
+        private final byte[] buffer = new byte[8192];
+
+        public ConsumingHandler(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void beginObject(final ObjectInfo object) {
+            blackhole.consume(object);
+        }
+
+        @Override
+        public void processObjectProperties(final ObjectProperties properties) {
+            blackhole.consume(properties);
+        }
+
+        @Override
+        public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+            try (final InputStream is = dsVersion.getContent()) {
+                if (is != null) {
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        blackhole.consume(read);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void completeObject(final ObjectInfo object) {
+            blackhole.consume(object);
+        }
+
+        @Override
+        public void abortObject(final ObjectInfo object) {
+            throw new IllegalStateException("Benchmark object aborted.");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks in throughput mode with the GC profiler, so that each
+ * result reports ops/sec alongside the allocation rate.  The optional
+ * argument is a regular expression selecting the benchmarks to run.
+ */
+public class BenchmarkRunner {
+
+    public static void main(final String[] args) throws RunnerException {
+        final ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*")
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .warmupIterations(5)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .forks(1)
+                .addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,40 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.fcrepo.migration.foxml11.DC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures the parsing of DC records and the reflection-based listing of
+ * the elements they contain.
+ */
+@State(Scope.Thread)
+public class DCBenchmark {
+
+    private byte[] dcBytes;
+
+    private DC dc;
+
+    @Setup
+    public void setUp() throws IOException, JAXBException {
+        dcBytes = BenchmarkData.dc();
+        dc = DC.parseDC(new ByteArrayInputStream(dcBytes));
+    }
+
+    @Benchmark
+    public DC parseDC() throws JAXBException {
+        return DC.parseDC(new ByteArrayInputStream(dcBytes));
+    }
+
+    @Benchmark
+    public List<String> getRepresentedElementURIs() {
+        return dc.getRepresentedElementURIs();
+    }
+}
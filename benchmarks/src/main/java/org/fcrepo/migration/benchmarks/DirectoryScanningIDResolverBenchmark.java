@@ -0,0 +1,60 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.migration.foxml11.CachedContent;
+import org.fcrepo.migration.foxml11.DirectoryScanningIDResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+
+/**
+ * Measures lookups of internal ids by DirectoryScanningIDResolver over a
+ * generated datastreamStore of empty files.
+ */
+@State(Scope.Benchmark)
+public class DirectoryScanningIDResolverBenchmark {
+
+    @Param({ "10000" })
+    public int datastreams;
+
+    private File root;
+
+    private DirectoryScanningIDResolver resolver;
+
+    private String[] ids;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = File.createTempFile("resolver-benchmark", "");
+        root.delete();
+        final File dsRoot = new File(root, "datastreamStore");
+        ids = new String[datastreams];
+        for (int i = 0; i < datastreams; i ++) {
+            ids[i] = "example:" + i + "+DS1+DS1.0";
+            final File dir = new File(dsRoot, String.format("%02x", i % 256));
+            dir.mkdirs();
+            new File(dir, URLEncoder.encode("info:fedora/" + ids[i].replace('+', '/'), "UTF-8")).createNewFile();
+        }
+        resolver = new DirectoryScanningIDResolver(new File(root, "index"), dsRoot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public CachedContent resolveInternalID() {
+        next = (next + 1) % ids.length;
+        return resolver.resolveInternalID(ids[next]);
+    }
+}
@@ -0,0 +1,53 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Measures the parsing of FOXML by Foxml11InputStreamFedoraObjectProcessor,
+ * with a handler that reads every datastream version's content.
+ */
+@State(Scope.Thread)
+public class FoxmlParseBenchmark {
+
+    @Param({ "200" })
+    public int versions;
+
+    @Param({ "4194304" })
+    public int binaryBytes;
+
+    private byte[] smallVersions;
+
+    private byte[] binaryContent;
+
+    @Setup
+    public void setUp() throws IOException {
+        smallVersions = BenchmarkData.foxmlWithSmallVersions(versions);
+        binaryContent = BenchmarkData.foxmlWithBinaryContent(binaryBytes);
+    }
+
+    @Benchmark
+    public void parseManySmallVersions(final Blackhole blackhole) throws XMLStreamException {
+        parse(smallVersions, blackhole);
+    }
+
+    @Benchmark
+    public void parseLargeBinaryContent(final Blackhole blackhole) throws XMLStreamException {
+        parse(binaryContent, blackhole);
+    }
+
+    private static void parse(final byte[] foxml, final Blackhole blackhole) throws XMLStreamException {
+        new Foxml11InputStreamFedoraObjectProcessor(new ByteArrayInputStream(foxml),
+                new BenchmarkData.NullURLFetcher(), new BenchmarkData.NullIDResolver())
+                .processObject(new BenchmarkData.ConsumingHandler(blackhole));
+    }
+}
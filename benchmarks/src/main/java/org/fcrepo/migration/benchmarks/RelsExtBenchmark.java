@@ -0,0 +1,37 @@
+package org.fcrepo.migration.benchmarks;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Measures the reading of RELS-EXT into a Jena model, as done by
+ * BasicObjectVersionHandler.
+ */
+@State(Scope.Thread)
+public class RelsExtBenchmark {
+
+    @Param({ "10" })
+    public int relationships;
+
+    private byte[] relsExt;
+
+    @Setup
+    public void setUp() throws IOException {
+        relsExt = BenchmarkData.relsExt("example:1", relationships);
+    }
+
+    @Benchmark
+    public Model readModel() {
+        final Model m = ModelFactory.createDefaultModel();
+        m.read(new ByteArrayInputStream(relsExt), null);
+        return m;
+    }
+}
@@ -0,0 +1,31 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.fcrepo.migration.DatastreamInfo;
+import org.fcrepo.migration.idmapers.SimpleIDMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the mapping of PIDs to Fedora 4 paths by SimpleIDMapper (its
+ * pidToPath method, reached through mapDatastreamPath).
+ */
+@State(Scope.Thread)
+public class SimpleIDMapperBenchmark {
+
+    private SimpleIDMapper mapper;
+
+    private DatastreamInfo dsInfo;
+
+    @Setup
+    public void setUp() {
+        mapper = new SimpleIDMapper("http://localhost:8080/rest/migrated");
+        dsInfo = BenchmarkData.datastreamInfo("example:123456789", "DS1");
+    }
+
+    @Benchmark
+    public String mapDatastreamPath() {
+        return mapper.mapDatastreamPath(dsInfo);
+    }
+}
@@ -0,0 +1,59 @@
+package org.fcrepo.migration.benchmarks;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.modify.request.QuadAcc;
+import com.hp.hpl.jena.sparql.modify.request.QuadDataAcc;
+import com.hp.hpl.jena.sparql.modify.request.UpdateDataInsert;
+import com.hp.hpl.jena.sparql.modify.request.UpdateDeleteWhere;
+import com.hp.hpl.jena.update.UpdateFactory;
+import com.hp.hpl.jena.update.UpdateRequest;
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Measures the building and serialization of the SPARQL updates that
+ * BasicObjectVersionHandler sends for each object version.
+ */
+@State(Scope.Thread)
+public class SparqlUpdateBenchmark {
+
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    @Param({ "30" })
+    public int triples;
+
+    @Benchmark
+    public UpdateRequest build() {
+        final QuadDataAcc triplesToInsert = new QuadDataAcc();
+        final QuadAcc triplesToRemove = new QuadAcc();
+        for (int i = 0; i < triples; i ++) {
+            final String uri = DC_NS + "element" + (i % 15);
+            triplesToRemove.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(uri),
+                    NodeFactory.createVariable("o")));
+            triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(uri),
+                    NodeFactory.createLiteral("Value " + i)));
+        }
+        triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""),
+                NodeFactory.createURI("http://www.loc.gov/premis/rdf/v1#hasDateCreatedByApplication"),
+                NodeFactory.createLiteral("2015-01-27T19:07:33.120Z", XSDDatatype.XSDdateTime)));
+        final UpdateRequest request = UpdateFactory.create();
+        request.add(new UpdateDeleteWhere(triplesToRemove));
+        request.add(new UpdateDataInsert(triplesToInsert));
+        return request;
+    }
+
+    @Benchmark
+    public String buildAndSerialize() throws UnsupportedEncodingException {
+        final ByteArrayOutputStream sparqlUpdate = new ByteArrayOutputStream();
+        build().output(new IndentedWriter(sparqlUpdate));
+        return sparqlUpdate.toString("UTF-8");
+    }
+}
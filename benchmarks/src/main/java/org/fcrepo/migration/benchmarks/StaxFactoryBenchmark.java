@@ -0,0 +1,57 @@
+package org.fcrepo.migration.benchmarks;
+
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.fcrepo.migration.foxml11.StaxFactoryProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Compares the StAX implementations with which FOXML may be read, processing
+ * a typical object per operation, and measures the factory lookup that each
+ * object once paid for.
+ *
+ * The benchmark jar leaves out the implementations' service registrations, so
+ * the "default" implementation is the JDK's.
+ */
+@State(Scope.Thread)
+public class StaxFactoryBenchmark {
+
+    @Param({ "default", "com.ctc.wstx.stax.WstxInputFactory", "com.fasterxml.aalto.stax.InputFactoryImpl" })
+    public String inputFactoryClass;
+
+    private byte[] foxml;
+
+    @Setup
+    public void setUp() throws IOException {
+        foxml = BenchmarkData.typicalFoxml();
+        StaxFactoryProvider.getDefault().setInputFactoryClass(
+                "default".equals(inputFactoryClass) ? null : inputFactoryClass);
+    }
+
+    @TearDown
+    public void tearDown() {
+        StaxFactoryProvider.getDefault().setInputFactoryClass(null);
+    }
+
+    @Benchmark
+    public void parseTypicalObject(final Blackhole blackhole) throws XMLStreamException {
+        new Foxml11InputStreamFedoraObjectProcessor(new ByteArrayInputStream(foxml),
+                new BenchmarkData.NullURLFetcher(), new BenchmarkData.NullIDResolver())
+                .processObject(new BenchmarkData.ConsumingHandler(blackhole));
+    }
+
+    @Benchmark
+    public XMLInputFactory lookUpFactory() {
+        return XMLInputFactory.newFactory();
+    }
+}
@@ -0,0 +1,16 @@
+package org.fcrepo.migration;
+
+/**
+ * An interface for a class that creates FedoraObjectHandler instances
+ * so that threads which process objects concurrently may each work with
+ * an isolated handler (and chain of downstream handlers).
+ */
+public interface FedoraObjectHandlerFactory {
+
+    /**
+     * Creates a new FedoraObjectHandler that is not shared with any
+     * other caller.
+     * @return a handler suitable for use by a single thread
+     */
+    public FedoraObjectHandler createHandler();
+}
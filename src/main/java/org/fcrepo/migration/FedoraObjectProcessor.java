@@ -12,4 +12,11 @@ public interface FedoraObjectProcessor {
     public ObjectInfo getObjectInfo();
 
     public void processObject(StreamingFedoraObjectHandler handler) throws XMLStreamException;
+
+    /**
+     * Releases the resources held for an object that will not be processed,
+     * such as the stream from which it is read.  Processing an object
+     * releases them itself.
+     */
+    public void close();
 }
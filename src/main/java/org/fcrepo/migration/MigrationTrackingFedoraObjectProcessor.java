@@ -0,0 +1,23 @@
+package org.fcrepo.migration;
+
+/**
+ * A FedoraObjectProcessor whose source must learn whether its object was
+ * migrated.  That processObject returned doesn't establish it, as the handler
+ * may hand the object to another thread to be ingested.  Whatever ingests the
+ * object calls {@link #migrated} once it has been ingested, or once it is
+ * skipped as having been migrated by an earlier run, and {@link #notMigrated}
+ * if its ingest fails.  An object closed without having been migrated is
+ * taken not to have been.
+ */
+public interface MigrationTrackingFedoraObjectProcessor extends FedoraObjectProcessor {
+
+    /**
+     * Records that the object has been migrated.
+     */
+    public void migrated();
+
+    /**
+     * Records that the object was processed but could not be migrated.
+     */
+    public void notMigrated();
+}
@@ -1,11 +1,32 @@
 package org.fcrepo.migration;
 
+import org.fcrepo.migration.catalog.CatalogEntry;
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+import org.fcrepo.migration.checkpoint.CheckpointingStreamingFedoraObjectHandler;
+import org.fcrepo.migration.checkpoint.CompletedObjectJournal;
+import org.fcrepo.migration.foxml11.NativeFoxmlDirectoryObjectSource;
+import org.fcrepo.migration.metrics.MetricsReporter;
+import org.fcrepo.migration.partition.Shard;
+import org.fcrepo.migration.partition.ShardFileFilter;
+import org.fcrepo.migration.partition.ShardedObjectSource;
+import org.fcrepo.migration.pipeline.MigrationPipeline;
 import org.slf4j.Logger;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -16,7 +37,30 @@ import static org.slf4j.LoggerFactory.getLogger;
  * There are two main configuration options: the source and the handler.
  *
  * The source is responsible for exposing objects from a fedora repository,
- * while the handler is responsible for processing each one.
+ * while the handler is responsible for processing each one.  Rather than a
+ * single handler, a handler factory may be configured, in which case a handler
+ * is created for each thread that processes objects.
+ *
+ * By default objects are processed one at a time on the calling thread.  When
+ * the worker count is set to a value greater than one, the objects exposed by
+ * the source are instead handed off through a bounded queue to a pool of
+ * worker threads that process them concurrently.
+ *
+ * Alternatively, a MigrationPipeline may be configured, in which case the
+ * parsing and ingest of objects are performed by separate pools of threads
+ * connected by a bounded queue, and the handler settings are not used.
+ *
+ * When a CompletedObjectJournal is configured, every object that is completed
+ * or aborted is recorded in it, and objects recorded as completed by an
+ * earlier run are skipped.
+ *
+ * Several Migrator processes may split the objects of one source between them
+ * by each being started with a different "--shard i/N" argument, in which case
+ * each processes only the objects whose PIDs hash to its shard.  Given the
+ * same "--catalog file" argument, written by a FoxmlCatalogScanner, they
+ * instead split the cataloged objects into shards of nearly equal weight.  A
+ * catalog also lets the configured MetricsReporter estimate the time
+ * remaining.
  */
 public class Migrator {
 
@@ -24,20 +68,99 @@ public class Migrator {
     
     public static void main(final String [] args) throws IOException, XMLStreamException {
 
+        Shard shard = null;
+        File catalogFile = null;
+        for (int i = 0; i < args.length; i ++) {
+            if (args[i].equals("--shard") && i + 1 < args.length) {
+                shard = Shard.parse(args[++ i]);
+            } else if (args[i].startsWith("--shard=")) {
+                shard = Shard.parse(args[i].substring("--shard=".length()));
+            } else if (args[i].equals("--catalog") && i + 1 < args.length) {
+                catalogFile = new File(args[++ i]);
+            } else if (args[i].startsWith("--catalog=")) {
+                catalogFile = new File(args[i].substring("--catalog=".length()));
+            } else {
+                throw new IllegalArgumentException("Unrecognized argument \"" + args[i]
+                        + "\".  Usage: Migrator [--shard i/N] [--catalog file]");
+            }
+        }
+        final FoxmlCatalog catalog = catalogFile == null ? null : FoxmlCatalog.read(catalogFile);
+        if (shard != null && catalog != null) {
+            shard = shard.balance(catalog);
+        }
+
         final ConfigurableApplicationContext context = new ClassPathXmlApplicationContext("spring/migration-bean.xml");
         final Migrator m = context.getBean("migrator", Migrator.class);
+        if (shard != null) {
+            LOGGER.info("Processing only the objects in " + (catalog != null ? "balanced " : "") + "shard "
+                    + shard + ".");
+            if (m.getSource() instanceof NativeFoxmlDirectoryObjectSource) {
+                // skip opening the FOXML of objects in other shards
+                final NativeFoxmlDirectoryObjectSource nativeSource = (NativeFoxmlDirectoryObjectSource) m.getSource();
+                nativeSource.setFileFilter(new ShardFileFilter(shard, nativeSource.getFileFilter()));
+            }
+            m.setSource(new ShardedObjectSource(m.getSource(), shard));
+        }
+        if (catalog != null && m.getMetricsReporter() != null) {
+            m.getMetricsReporter().setCatalog(shard == null ? catalog : catalogOf(catalog, shard));
+        }
         m.run();
         context.close();
     }
 
+    /**
+     * Gets the part of a catalog that lists the objects of the given shard,
+     * so that the time remaining is estimated for this process's objects.
+     */
+    private static FoxmlCatalog catalogOf(final FoxmlCatalog catalog, final Shard shard) {
+        final List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+        for (final CatalogEntry e : catalog.getEntries()) {
+            if (shard.contains(e.getPid())) {
+                entries.add(e);
+            }
+        }
+        return new FoxmlCatalog(entries);
+    }
+
+    /**
+     * A sentinel placed on the work queue to tell a worker that no more
+     * objects will be made available.
+     */
+    private static final FedoraObjectProcessor END_OF_QUEUE = new FedoraObjectProcessor() {
+        @Override
+        public ObjectInfo getObjectInfo() {
+            return null;
+        }
+
+        @Override
+        public void processObject(final StreamingFedoraObjectHandler handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
     private ObjectSource source;
 
     private StreamingFedoraObjectHandler handler;
 
+    private StreamingFedoraObjectHandlerFactory handlerFactory;
+
     private int limit;
 
+    private int workerCount;
+
+    private MigrationPipeline pipeline;
+
+    private CompletedObjectJournal journal;
+
+    private MetricsReporter metricsReporter;
+
     public Migrator() {
         limit = -1;
+        workerCount = 1;
     }
 
     public void setLimit(int limit) {
@@ -49,24 +172,367 @@ public class Migrator {
     }
 
 
+    public ObjectSource getSource() {
+        return source;
+    }
+
     public void setHandler(final StreamingFedoraObjectHandler handler) {
         this.handler = handler;
     }
 
+    /**
+     * Sets a factory from which a separate handler is obtained for each thread
+     * that processes objects.  When set, this takes precedence over any handler
+     * set using {@link #setHandler}.
+     */
+    public void setHandlerFactory(final StreamingFedoraObjectHandlerFactory handlerFactory) {
+        this.handlerFactory = handlerFactory;
+    }
+
+    /**
+     * Sets the number of worker threads used to process objects.  The default
+     * value of 1 processes every object serially on the thread that invokes
+     * {@link #run}.  When greater than 1, each worker obtains its own handler
+     * from the handler factory; if only a handler was set, that one instance
+     * is shared by every worker and must therefore be safe for concurrent use.
+     * @param workerCount the number of objects that may be processed at once
+     */
+    public void setWorkerCount(final int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1.");
+        }
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Sets a pipeline to be used to parse and ingest objects in separate
+     * stages.  When set, the handler, handler factory and worker count are
+     * ignored.
+     */
+    public void setPipeline(final MigrationPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Sets a journal in which completed objects are recorded and from which
+     * the objects completed by earlier runs are identified so that they may
+     * be skipped.
+     */
+    public void setJournal(final CompletedObjectJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets a reporter to be told of each object completed, from which it
+     * estimates the time remaining when it has a catalog of the objects.
+     */
+    public void setMetricsReporter(final MetricsReporter metricsReporter) {
+        this.metricsReporter = metricsReporter;
+    }
+
+    public MetricsReporter getMetricsReporter() {
+        return metricsReporter;
+    }
+
+    /**
+     * Gets the number of worker threads used to process objects.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
     public Migrator(final ObjectSource source, final StreamingFedoraObjectHandler handler) {
         this();
         this.source = source;
         this.handler = handler;
     }
 
+    public Migrator(final ObjectSource source, final StreamingFedoraObjectHandlerFactory handlerFactory) {
+        this();
+        this.source = source;
+        this.handlerFactory = handlerFactory;
+    }
+
     public void run() throws XMLStreamException {
+        excludePreviouslyCompleted();
+        try {
+            if (pipeline != null) {
+                if (metricsReporter != null) {
+                    pipeline.setMetricsReporter(metricsReporter);
+                }
+                pipeline.run(source, limit, journal);
+            } else if (handler == null && handlerFactory == null) {
+                throw new IllegalStateException("Either a handler or a handlerFactory must be configured.");
+            } else if (workerCount > 1) {
+                runConcurrently();
+            } else {
+                runSerially();
+            }
+        } finally {
+            if (journal != null) {
+                LOGGER.info(journal.getSkippedCount() + " objects completed in an earlier run were skipped.");
+                try {
+                    journal.sync();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to sync journal.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the objects completed by an earlier run from the catalog from
+     * which the metrics reporter estimates the time remaining, as they will
+     * be skipped.
+     */
+    private void excludePreviouslyCompleted() {
+        final FoxmlCatalog catalog = metricsReporter == null ? null : metricsReporter.getCatalog();
+        if (catalog == null || journal == null || journal.getPreviouslyCompletedCount() == 0) {
+            return;
+        }
+        final List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+        for (final CatalogEntry e : catalog.getEntries()) {
+            if (!journal.wasCompleted(e.getPid())) {
+                entries.add(e);
+            }
+        }
+        LOGGER.info((catalog.getObjectCount() - entries.size()) + " objects of the catalog were completed in an "
+                + "earlier run and are left out of the estimate of the time remaining.");
+        metricsReporter.setCatalog(new FoxmlCatalog(entries));
+    }
+
+    /**
+     * Records that the given object was completed by this run.
+     */
+    private void recordCompleted(final FedoraObjectProcessor o) {
+        markMigrated(o);
+        if (metricsReporter != null) {
+            metricsReporter.recordCompleted(o.getObjectInfo().getPid());
+        }
+    }
+
+    /**
+     * Determines whether the given object was completed in an earlier run
+     * and should therefore be skipped.
+     */
+    private boolean isCompleted(final FedoraObjectProcessor o) {
+        return journal != null && journal.isCompleted(o.getObjectInfo().getPid());
+    }
+
+    /**
+     * Tells an object that tracks it that it has been migrated, whether by
+     * this run or an earlier one.
+     */
+    private static void markMigrated(final FedoraObjectProcessor o) {
+        if (o instanceof MigrationTrackingFedoraObjectProcessor) {
+            ((MigrationTrackingFedoraObjectProcessor) o).migrated();
+        }
+    }
+
+    /**
+     * Gets the handler to be used by the current thread: a new one from the
+     * handler factory when configured, otherwise the single configured handler.
+     */
+    private StreamingFedoraObjectHandler createHandler() {
+        final StreamingFedoraObjectHandler h = handlerFactory != null ? handlerFactory.createHandler() : handler;
+        return journal != null ? new CheckpointingStreamingFedoraObjectHandler(h, journal) : h;
+    }
+
+    private void runSerially() throws XMLStreamException {
+        final StreamingFedoraObjectHandler handler = createHandler();
         int index = 0;
         for (final FedoraObjectProcessor o : source) {
+            if (isCompleted(o)) {
+                markMigrated(o);
+                o.close();
+                continue;
+            }
             if (limit >= 0 && index ++ >= limit) {
+                o.close();
                 break;
             }
             LOGGER.info("Processing \"" + o.getObjectInfo().getPid() + "\"...");
             o.processObject(handler);
+            recordCompleted(o);
+        }
+    }
+
+    /**
+     * Iterates over the source on the calling thread and hands each object to
+     * the worker pool.  The queue between the two holds at most two objects per
+     * worker so that the source is never read far ahead of the workers.  The
+     * first failure reported by any worker stops the hand-off and is rethrown
+     * once all of the workers have finished.
+     */
+    private void runConcurrently() {
+        if (handlerFactory == null) {
+            LOGGER.warn("No handlerFactory is configured, so a single handler will be shared by "
+                    + workerCount + " workers.");
+        }
+        final BlockingQueue<FedoraObjectProcessor> queue
+                = new ArrayBlockingQueue<FedoraObjectProcessor>(workerCount * 2);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Worker> workers = new ArrayList<Worker>();
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+        for (int i = 0; i < workerCount; i ++) {
+            final Worker w = new Worker(i, queue, failure);
+            workers.add(w);
+            executor.execute(w);
+        }
+        final long start = System.currentTimeMillis();
+        int index = 0;
+        try {
+            for (final FedoraObjectProcessor o : source) {
+                if (isCompleted(o)) {
+                    markMigrated(o);
+                    o.close();
+                    continue;
+                }
+                if (failure.get() != null || (limit >= 0 && index ++ >= limit)) {
+                    o.close();
+                    break;
+                }
+                try {
+                    queue.put(o);
+                } catch (InterruptedException e) {
+                    o.close();
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            try {
+                for (int i = 0; i < workerCount; i ++) {
+                    queue.put(END_OF_QUEUE);
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.info("Waiting for " + workerCount + " workers to finish...");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        final long elapsed = System.currentTimeMillis() - start;
+        int total = 0;
+        for (final Worker w : workers) {
+            LOGGER.info(w.describeThroughput(elapsed));
+            total += w.processed;
+        }
+        LOGGER.info(total + " objects processed by " + workerCount + " workers in " + elapsed + "ms ("
+                + formatRate(total, elapsed) + " objects/s).");
+
+        if (failure.get() != null) {
+            throw new RuntimeException("Migration stopped due to a failure processing an object.", failure.get());
+        }
+    }
+
+    private static String formatRate(final int count, final long millis) {
+        return String.format("%.2f", millis == 0 ? 0d : (count * 1000d) / millis);
+    }
+
+    /**
+     * A Runnable that processes objects from the shared work queue until it
+     * encounters the END_OF_QUEUE sentinel.  Once any worker has failed, the
+     * remaining workers drain the queue without processing the objects so that
+     * the thread feeding the queue is never left blocked.
+     */
+    private class Worker implements Runnable {
+
+        private final int id;
+
+        private final BlockingQueue<FedoraObjectProcessor> queue;
+
+        private final AtomicReference<Throwable> failure;
+
+        private volatile int processed;
+
+        private volatile long busyMillis;
+
+        public Worker(final int id, final BlockingQueue<FedoraObjectProcessor> queue,
+                      final AtomicReference<Throwable> failure) {
+            this.id = id;
+            this.queue = queue;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            final StreamingFedoraObjectHandler handler;
+            try {
+                handler = createHandler();
+            } catch (Throwable e) {
+                LOGGER.error("Worker " + id + " was unable to create a handler.", e);
+                failure.compareAndSet(null, e);
+                drain();
+                return;
+            }
+            try {
+                FedoraObjectProcessor o;
+                while ((o = queue.take()) != END_OF_QUEUE) {
+                    if (failure.get() != null) {
+                        o.close();
+                        continue;
+                    }
+                    final long start = System.currentTimeMillis();
+                    try {
+                        LOGGER.info("Processing \"" + o.getObjectInfo().getPid() + "\"...");
+                        o.processObject(handler);
+                        processed ++;
+                        recordCompleted(o);
+                    } catch (Throwable e) {
+                        // an Error too is recorded rather than ending the worker, which
+                        // would leave the feeding thread blocked on a full queue
+                        LOGGER.error("Worker " + id + " failed to process \"" + o.getObjectInfo().getPid() + "\".", e);
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        busyMillis += System.currentTimeMillis() - start;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        /**
+         * Takes objects from the queue without processing them until the
+         * END_OF_QUEUE sentinel is reached.
+         */
+        private void drain() {
+            try {
+                FedoraObjectProcessor o;
+                while ((o = queue.take()) != END_OF_QUEUE) {
+                    o.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public String describeThroughput(final long elapsedMillis) {
+            return "Worker " + id + " processed " + processed + " objects in " + busyMillis + "ms ("
+                    + formatRate(processed, elapsedMillis) + " objects/s, "
+                    + (elapsedMillis == 0 ? 0 : (busyMillis * 100 / elapsedMillis)) + "% busy).";
+        }
+    }
+
+    /**
+     * A ThreadFactory that gives worker threads recognizable names in logs and
+     * thread dumps.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(r, "migration-worker-" + count.getAndIncrement());
         }
     }
 }
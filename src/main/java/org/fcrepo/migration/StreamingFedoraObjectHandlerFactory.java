@@ -0,0 +1,20 @@
+package org.fcrepo.migration;
+
+/**
+ * An interface for a class that creates StreamingFedoraObjectHandler
+ * instances.  Because a StreamingFedoraObjectHandler may hold state about
+ * the object it is currently processing, a single instance cannot be safely
+ * shared between threads that process objects concurrently.  Implementations
+ * of this interface allow each thread to work with its own isolated handler
+ * (and chain of downstream handlers) while sharing only the pieces that are
+ * known to be thread-safe.
+ */
+public interface StreamingFedoraObjectHandlerFactory {
+
+    /**
+     * Creates a new StreamingFedoraObjectHandler that is not shared with any
+     * other caller.
+     * @return a handler suitable for use by a single thread
+     */
+    public StreamingFedoraObjectHandler createHandler();
+}
@@ -0,0 +1,134 @@
+package org.fcrepo.migration.catalog;
+
+/**
+ * What a FoxmlCatalogScanner learned about one object: its PID and FOXML
+ * file, how many datastreams of each control group and how many versions it
+ * has, and the number of bytes of content those versions hold.
+ *
+ * Content sizes are those declared by the versions' SIZE attributes.  For
+ * inline content without one, the size is estimated from the length of the
+ * inline text; for referenced content without one, it is unknown and counted
+ * as zero.
+ */
+public class CatalogEntry {
+
+    /**
+     * The control groups counted, in the order in which they are written.
+     */
+    static final String CONTROL_GROUPS = "XMER";
+
+    private final String pid;
+
+    private final String path;
+
+    private final long fileBytes;
+
+    private final int[] datastreams;
+
+    private final int versions;
+
+    private final long contentBytes;
+
+    /**
+     * @param datastreams the number of datastreams in each of the control
+     *                    groups X, M, E and R
+     */
+    public CatalogEntry(final String pid, final String path, final long fileBytes, final int[] datastreams,
+                        final int versions, final long contentBytes) {
+        this.pid = pid;
+        this.path = path;
+        this.fileBytes = fileBytes;
+        this.datastreams = datastreams.clone();
+        this.versions = versions;
+        this.contentBytes = contentBytes;
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    /**
+     * Gets the path of the object's FOXML file.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the size of the object's FOXML file.
+     */
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * Gets the number of the object's datastreams in the given control group
+     * ('X', 'M', 'E' or 'R').
+     */
+    public int getDatastreamCount(final char controlGroup) {
+        final int i = CONTROL_GROUPS.indexOf(controlGroup);
+        return i < 0 ? 0 : datastreams[i];
+    }
+
+    public int getDatastreamCount() {
+        int count = 0;
+        for (final int d : datastreams) {
+            count += d;
+        }
+        return count;
+    }
+
+    public int getVersionCount() {
+        return versions;
+    }
+
+    /**
+     * Gets the number of bytes of content held by all of the object's
+     * datastream versions.
+     */
+    public long getContentBytes() {
+        return contentBytes;
+    }
+
+    /**
+     * Gets the number of bytes that migrating the object is expected to
+     * read: its content, or, if that is smaller, its FOXML file.
+     */
+    public long getWeight() {
+        return Math.max(contentBytes, fileBytes);
+    }
+
+    /**
+     * Formats the entry as a line of a catalog file, without the line break.
+     */
+    String toLine() {
+        final StringBuilder sb = new StringBuilder(pid);
+        for (final int d : datastreams) {
+            sb.append('\t').append(d);
+        }
+        return sb.append('\t').append(versions).append('\t').append(contentBytes).append('\t').append(fileBytes)
+                .append('\t').append(path).toString();
+    }
+
+    /**
+     * Parses a line written by {@link #toLine}.
+     */
+    static CatalogEntry parse(final String line) {
+        final String[] fields = line.split("\t", 9);
+        if (fields.length != 9) {
+            throw new IllegalArgumentException("Invalid catalog entry \"" + line + "\".");
+        }
+        final int[] datastreams = new int[CONTROL_GROUPS.length()];
+        for (int i = 0; i < datastreams.length; i ++) {
+            datastreams[i] = Integer.parseInt(fields[1 + i]);
+        }
+        return new CatalogEntry(fields[0], fields[8], Long.parseLong(fields[7]), datastreams,
+                Integer.parseInt(fields[5]), Long.parseLong(fields[6]));
+    }
+
+    @Override
+    public String toString() {
+        return pid + " (" + getDatastreamCount() + " datastreams, " + versions + " versions, " + contentBytes
+                + " bytes)";
+    }
+}
@@ -0,0 +1,206 @@
+package org.fcrepo.migration.catalog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A catalog of the objects to be migrated, as written by a
+ * FoxmlCatalogScanner, from which the size of a migration may be known before
+ * it begins and its work planned.
+ *
+ * The catalog file has one line per object, of tab-separated fields: the
+ * PID; the numbers of X, M, E and R datastreams; the number of versions; the
+ * bytes of content; the bytes of FOXML; and the path of the FOXML file.
+ */
+public class FoxmlCatalog {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Orders entries from the heaviest to the lightest.
+     */
+    private static final Comparator<CatalogEntry> HEAVIEST_FIRST = new Comparator<CatalogEntry>() {
+        @Override
+        public int compare(final CatalogEntry a, final CatalogEntry b) {
+            final int c = Long.compare(b.getWeight(), a.getWeight());
+            return c != 0 ? c : a.getPid().compareTo(b.getPid());
+        }
+    };
+
+    private final List<CatalogEntry> entries;
+
+    private final Map<String, CatalogEntry> byPid;
+
+    public FoxmlCatalog(final List<CatalogEntry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<CatalogEntry>(entries));
+        this.byPid = new HashMap<String, CatalogEntry>();
+        for (final CatalogEntry e : entries) {
+            byPid.put(e.getPid(), e);
+        }
+    }
+
+    /**
+     * Reads a catalog file.
+     */
+    public static FoxmlCatalog read(final File file) throws IOException {
+        final List<CatalogEntry> entries = new ArrayList<CatalogEntry>();
+        try (final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.length() > 0) {
+                    entries.add(CatalogEntry.parse(line));
+                }
+            }
+        }
+        return new FoxmlCatalog(entries);
+    }
+
+    /**
+     * Gets the entries in the order in which the objects were scanned.
+     */
+    public List<CatalogEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the entry for the object with the given PID, or null if it isn't
+     * in the catalog.
+     */
+    public CatalogEntry getEntry(final String pid) {
+        return byPid.get(pid);
+    }
+
+    public int getObjectCount() {
+        return entries.size();
+    }
+
+    public long getVersionCount() {
+        long count = 0;
+        for (final CatalogEntry e : entries) {
+            count += e.getVersionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of datastreams, across all objects, in the given
+     * control group.
+     */
+    public long getDatastreamCount(final char controlGroup) {
+        long count = 0;
+        for (final CatalogEntry e : entries) {
+            count += e.getDatastreamCount(controlGroup);
+        }
+        return count;
+    }
+
+    public long getContentBytes() {
+        long bytes = 0;
+        for (final CatalogEntry e : entries) {
+            bytes += e.getContentBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the total weight (see {@link CatalogEntry#getWeight}) of all
+     * objects.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (final CatalogEntry e : entries) {
+            weight += e.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Gets the given number of heaviest objects, heaviest first.
+     */
+    public List<CatalogEntry> getLargest(final int count) {
+        return getHeaviestFirst().subList(0, Math.min(count, entries.size()));
+    }
+
+    /**
+     * Gets all of the entries, heaviest first, which is the order in which to
+     * start objects so that a long one doesn't begin last and delay the end
+     * of the migration.
+     */
+    public List<CatalogEntry> getHeaviestFirst() {
+        final List<CatalogEntry> sorted = new ArrayList<CatalogEntry>(entries);
+        Collections.sort(sorted, HEAVIEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Divides the objects into the given number of shards of as nearly equal
+     * weight as possible, by assigning each object, heaviest first, to the
+     * lightest shard so far.
+     * @return a map from each object's PID to the index of its shard
+     */
+    public Map<String, Integer> balance(final int shardCount) {
+        final long[] weights = new long[shardCount];
+        final PriorityQueue<Integer> lightest = new PriorityQueue<Integer>(shardCount, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                final int c = Long.compare(weights[a], weights[b]);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+        for (int i = 0; i < shardCount; i ++) {
+            lightest.add(i);
+        }
+        final Map<String, Integer> assignment = new HashMap<String, Integer>();
+        for (final CatalogEntry e : getHeaviestFirst()) {
+            final int shard = lightest.poll();
+            assignment.put(e.getPid(), shard);
+            weights[shard] += e.getWeight();
+            lightest.add(shard);
+        }
+        return assignment;
+    }
+
+    /**
+     * Estimates the time remaining in a migration of every object in the
+     * catalog, from the weight of the objects completed so far and the time
+     * they took.
+     * @return the estimated milliseconds remaining, or -1 if nothing has yet
+     *         been completed
+     */
+    public long estimateRemainingMillis(final long completedWeight, final long elapsedMillis) {
+        if (completedWeight <= 0) {
+            return -1;
+        }
+        final long remaining = Math.max(0, getWeight() - completedWeight);
+        return (long) ((double) remaining * elapsedMillis / completedWeight);
+    }
+
+    /**
+     * Describes the catalog in a few lines, for logging.
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(getObjectCount()).append(" objects, ").append(getVersionCount()).append(" versions (")
+                .append(getObjectCount() == 0 ? 0 : getVersionCount() / getObjectCount()).append(" per object), ")
+                .append(getContentBytes()).append(" bytes of content.\nDatastreams by control group:");
+        for (final char c : CatalogEntry.CONTROL_GROUPS.toCharArray()) {
+            sb.append(' ').append(c).append('=').append(getDatastreamCount(c));
+        }
+        sb.append("\nLargest objects:");
+        for (final CatalogEntry e : getLargest(10)) {
+            sb.append("\n  ").append(e);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,251 @@
+package org.fcrepo.migration.catalog;
+
+import org.fcrepo.migration.foxml11.CachedContent;
+import org.fcrepo.migration.foxml11.FileCachedContent;
+import org.fcrepo.migration.foxml11.InternalIDResolver;
+import org.fcrepo.migration.foxml11.StaxFactoryProvider;
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Stack;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Scans a directory of FOXML files, either a fedora 3 objectStore or a
+ * directory of archive exports, and writes a FoxmlCatalog of the objects in
+ * it, much faster than they could be processed.
+ *
+ * Only the digitalObject element and the attributes of the datastream,
+ * datastreamVersion and contentLocation elements are read.  Inline content is
+ * passed over by the parser without being decoded or copied, its length being
+ * taken from the reader's locations when a version declares no SIZE.  When
+ * an InternalIDResolver is given, the size of managed content in a
+ * datastreamStore is taken from its file when a version declares none, as
+ * fedora 3 often doesn't.
+ *
+ * Run it with the objectStore or export directory and the catalog file to
+ * write as arguments.
+ */
+public class FoxmlCatalogScanner {
+
+    private static final Logger LOGGER = getLogger(FoxmlCatalogScanner.class);
+
+    private static final String FOXML_11 = "info:fedora/fedora-system:def/foxml#";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File root;
+
+    private FileFilter fileFilter;
+
+    private InternalIDResolver resolver;
+
+    private int skipped;
+
+    public FoxmlCatalogScanner(final File root) {
+        this.root = root;
+    }
+
+    /**
+     * Sets a filter that determines which files are scanned.  Directories are
+     * always traversed.
+     */
+    public void setFileFilter(final FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Sets the resolver through which the sizes of managed content with no
+     * declared size are found.
+     */
+    public void setResolver(final InternalIDResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Gets the number of files skipped by the last scan because they could not
+     * be read as FOXML.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Scans every file under the root and writes the catalog.  The catalog is
+     * written to a temporary file which then replaces the given file, so an
+     * interrupted scan never leaves a partial catalog.  Each entry is written
+     * as soon as its file has been scanned rather than held in memory, so
+     * use FoxmlCatalog.read to load the catalog once it has been written.
+     * @return the number of objects cataloged
+     */
+    public int scan(final File catalogFile) throws IOException {
+        final long start = System.currentTimeMillis();
+        skipped = 0;
+        int count = 0;
+        final File temp = new File(catalogFile.getPath() + ".tmp");
+        try (final Writer w = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(temp)), UTF8)) {
+            final Stack<File> directories = new Stack<File>();
+            directories.push(root);
+            while (!directories.isEmpty()) {
+                final File[] files = directories.pop().listFiles();
+                if (files == null) {
+                    continue;
+                }
+                Arrays.sort(files);
+                for (int i = files.length - 1; i >= 0; i --) {
+                    if (files[i].isDirectory()) {
+                        directories.push(files[i]);
+                    }
+                }
+                for (final File f : files) {
+                    if (f.isFile() && (fileFilter == null || fileFilter.accept(f))) {
+                        final CatalogEntry entry = scanFile(f);
+                        if (entry != null) {
+                            count ++;
+                            w.write(entry.toLine());
+                            w.write('\n');
+                        }
+                    }
+                }
+            }
+        }
+        if (catalogFile.exists() && !catalogFile.delete()) {
+            throw new IOException("Unable to replace " + catalogFile.getPath() + ".");
+        }
+        if (!temp.renameTo(catalogFile)) {
+            throw new IOException("Unable to rename " + temp.getPath() + " to " + catalogFile.getPath() + ".");
+        }
+        LOGGER.info("Cataloged " + count + " objects in " + (System.currentTimeMillis() - start) + "ms"
+                + (skipped > 0 ? ", skipping " + skipped + " unreadable files." : "."));
+        return count;
+    }
+
+    private CatalogEntry scanFile(final File file) {
+        try {
+            return scanObject(file);
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            LOGGER.warn("Unable to catalog " + file.getPath() + ", it will be skipped.", e);
+            skipped ++;
+            return null;
+        }
+    }
+
+    /**
+     * Reads the catalog entry for a single FOXML file.
+     */
+    public CatalogEntry scanObject(final File file) throws IOException, XMLStreamException {
+        try (final InputStream in = new FileInputStream(file)) {
+            final XMLStreamReader r = StaxFactoryProvider.getDefault().getInputFactory().createXMLStreamReader(in);
+            try {
+                r.nextTag();
+                if (!isFoxml(r, "digitalObject")) {
+                    throw new IllegalStateException("The root element is not foxml:digitalObject.");
+                }
+                final String pid = r.getAttributeValue(null, "PID");
+                final int[] datastreams = new int[CatalogEntry.CONTROL_GROUPS.length()];
+                int versions = 0;
+                long contentBytes = 0;
+                long versionBytes = 0;
+                while (r.hasNext()) {
+                    final int event = r.next();
+                    if (event == XMLStreamConstants.START_ELEMENT && FOXML_11.equals(r.getNamespaceURI())) {
+                        final String name = r.getLocalName();
+                        if ("datastream".equals(name)) {
+                            final String controlGroup = r.getAttributeValue(null, "CONTROL_GROUP");
+                            final int group = controlGroup == null || controlGroup.length() != 1
+                                    ? -1 : CatalogEntry.CONTROL_GROUPS.indexOf(controlGroup.charAt(0));
+                            if (group >= 0) {
+                                datastreams[group] ++;
+                            }
+                        } else if ("datastreamVersion".equals(name)) {
+                            versions ++;
+                            versionBytes = parseSize(r.getAttributeValue(null, "SIZE"));
+                        } else if ("contentLocation".equals(name)) {
+                            if (versionBytes <= 0 && resolver != null
+                                    && "INTERNAL_ID".equals(r.getAttributeValue(null, "TYPE"))) {
+                                versionBytes = resolvedSize(r.getAttributeValue(null, "REF"));
+                            }
+                        } else if ("xmlContent".equals(name) || "binaryContent".equals(name)) {
+                            final long length = skipElement(r);
+                            if (versionBytes <= 0) {
+                                // base64 encodes three bytes in four characters
+                                versionBytes = "binaryContent".equals(name) ? length * 3 / 4 : length;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && isFoxml(r, "datastreamVersion")) {
+                        contentBytes += Math.max(0, versionBytes);
+                        versionBytes = 0;
+                    }
+                }
+                if (pid == null) {
+                    throw new IllegalStateException("The digitalObject has no PID.");
+                }
+                return new CatalogEntry(pid, file.getPath(), file.length(), datastreams, versions, contentBytes);
+            } finally {
+                r.close();
+            }
+        }
+    }
+
+    private static boolean isFoxml(final XMLStreamReader r, final String localName) {
+        return localName.equals(r.getLocalName()) && FOXML_11.equals(r.getNamespaceURI());
+    }
+
+    /**
+     * Moves the reader from the start of an element to its end, without
+     * reading the text within it.
+     * @return the approximate number of characters within the element
+     */
+    private static long skipElement(final XMLStreamReader r) throws XMLStreamException {
+        final long start = r.getLocation().getCharacterOffset();
+        int depth = 1;
+        while (depth > 0) {
+            final int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth ++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth --;
+            }
+        }
+        return Math.max(0, r.getLocation().getCharacterOffset() - start);
+    }
+
+    private static long parseSize(final String size) {
+        if (size == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(size.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long resolvedSize(final String internalId) {
+        final CachedContent content = resolver.resolveInternalID(internalId);
+        return content instanceof FileCachedContent ? ((FileCachedContent) content).getFile().length() : -1;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Expected the directory to scan and the catalog file to write.");
+        }
+        final File catalogFile = new File(args[1]);
+        new FoxmlCatalogScanner(new File(args[0])).scan(catalogFile);
+        LOGGER.info(FoxmlCatalog.read(catalogFile).getSummary());
+    }
+}
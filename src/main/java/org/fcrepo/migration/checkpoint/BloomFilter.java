@@ -0,0 +1,89 @@
+package org.fcrepo.migration.checkpoint;
+
+import java.nio.charset.Charset;
+
+/**
+ * A simple fixed-size Bloom filter over strings.  A negative answer from
+ * {@link #mightContain} is definitive, while a positive answer must be
+ * confirmed against an exact set.  This class is not thread-safe for
+ * concurrent modification, but may be read by any number of threads once
+ * populated.
+ */
+public class BloomFilter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long[] bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions the number of strings expected to be added.
+     * @param falsePositiveRate the desired probability that mightContain
+     *                          returns true for a string that was not added.
+     */
+    public BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        final long n = Math.max(1, expectedInsertions);
+        final long m = Math.max(64, (long) (-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64)];
+        bitCount = (long) bits.length * 64;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    public void add(final String value) {
+        final long[] h = hash(value);
+        for (int i = 0; i < hashCount; i ++) {
+            final long bit = index(h, i);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(final String value) {
+        final long[] h = hash(value);
+        for (int i = 0; i < hashCount; i ++) {
+            final long bit = index(h, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of bits in this filter.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    private long index(final long[] h, final int i) {
+        return ((h[0] + i * h[1]) & Long.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * Computes two independent 64-bit hashes of the UTF-8 encoding of the
+     * value for use in double hashing.
+     */
+    private static long[] hash(final String value) {
+        final byte[] bytes = value.getBytes(UTF8);
+        long h1 = 0xcbf29ce484222325L;
+        long h2 = 0x9e3779b97f4a7c15L;
+        for (final byte b : bytes) {
+            h1 = (h1 ^ (b & 0xff)) * 0x100000001b3L;
+            h2 = (h2 + (b & 0xff)) * 0xc6a4a7935bd1e995L;
+            h2 ^= h2 >>> 47;
+        }
+        return new long[] { mix(h1), mix(h2) | 1 };
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
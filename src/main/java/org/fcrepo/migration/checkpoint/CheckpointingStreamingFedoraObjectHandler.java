@@ -0,0 +1,60 @@
+package org.fcrepo.migration.checkpoint;
+
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+
+/**
+ * A StreamingFedoraObjectHandler that wraps another and records in a
+ * CompletedObjectJournal each object that the wrapped handler completes
+ * or aborts.  An object is only recorded as completed once the wrapped
+ * handler's completeObject method has returned without error.
+ */
+public class CheckpointingStreamingFedoraObjectHandler implements StreamingFedoraObjectHandler {
+
+    private StreamingFedoraObjectHandler handler;
+
+    private CompletedObjectJournal journal;
+
+    public CheckpointingStreamingFedoraObjectHandler(final StreamingFedoraObjectHandler handler,
+                                                     final CompletedObjectJournal journal) {
+        this.handler = handler;
+        this.journal = journal;
+    }
+
+    @Override
+    public void beginObject(final ObjectInfo object) {
+        handler.beginObject(object);
+    }
+
+    @Override
+    public void processObjectProperties(final ObjectProperties properties) {
+        handler.processObjectProperties(properties);
+    }
+
+    @Override
+    public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+        handler.processDatastreamVersion(dsVersion);
+    }
+
+    @Override
+    public void completeObject(final ObjectInfo object) {
+        try {
+            handler.completeObject(object);
+        } catch (RuntimeException e) {
+            journal.recordAborted(object.getPid());
+            throw e;
+        }
+        journal.recordCompleted(object.getPid());
+    }
+
+    @Override
+    public void abortObject(final ObjectInfo object) {
+        try {
+            handler.abortObject(object);
+        } finally {
+            journal.recordAborted(object.getPid());
+        }
+    }
+}
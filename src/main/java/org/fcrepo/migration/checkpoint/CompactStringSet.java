@@ -0,0 +1,156 @@
+package org.fcrepo.migration.checkpoint;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An exact, insert-only set of short strings designed to hold hundreds of
+ * millions of PIDs in far less memory than a HashSet of Strings would use.
+ *
+ * The UTF-8 bytes of each string are appended, prefixed by their length, to
+ * a list of large byte array pages.  An open-addressing table of longs holds
+ * the position of each entry in those pages; lookups compare bytes directly
+ * without creating any String objects.  Each entry costs its UTF-8 length
+ * plus two bytes of page space and between 8 and 16 bytes of table space.
+ *
+ * This class is not thread-safe for concurrent modification, but may be read
+ * by any number of threads once populated.
+ */
+public class CompactStringSet {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int PAGE_BITS = 22;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int MAX_ENTRY_LENGTH = 0xffff;
+
+    private final List<byte[]> pages;
+
+    private int pagePosition;
+
+    /**
+     * The table of entries, each being one more than the position of the
+     * entry in the pages so that zero may represent an empty slot.
+     */
+    private long[] slots;
+
+    private int size;
+
+    public CompactStringSet() {
+        pages = new ArrayList<byte[]>();
+        pages.add(new byte[PAGE_SIZE]);
+        slots = new long[1024];
+    }
+
+    /**
+     * Gets the number of strings in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a string to the set.
+     * @return true if the string was not already present.
+     */
+    public boolean add(final String value) {
+        final byte[] bytes = value.getBytes(UTF8);
+        if (bytes.length > MAX_ENTRY_LENGTH) {
+            throw new IllegalArgumentException("Value is too long to be stored: \"" + value + "\"");
+        }
+        final int mask = slots.length - 1;
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (slots[slot] != 0) {
+            if (matches(slots[slot] - 1, bytes)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = append(bytes) + 1;
+        if (++ size > slots.length * 3 / 4) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether the given string is in the set.
+     */
+    public boolean contains(final String value) {
+        final byte[] bytes = value.getBytes(UTF8);
+        final long[] table = slots;
+        final int mask = table.length - 1;
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (table[slot] != 0) {
+            if (matches(table[slot] - 1, bytes)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private long append(final byte[] bytes) {
+        if (pagePosition + bytes.length + 2 > PAGE_SIZE) {
+            pages.add(new byte[PAGE_SIZE]);
+            pagePosition = 0;
+        }
+        final byte[] page = pages.get(pages.size() - 1);
+        final long position = ((long) (pages.size() - 1) << PAGE_BITS) | pagePosition;
+        page[pagePosition ++] = (byte) (bytes.length >>> 8);
+        page[pagePosition ++] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, page, pagePosition, bytes.length);
+        pagePosition += bytes.length;
+        return position;
+    }
+
+    private boolean matches(final long position, final byte[] bytes) {
+        final byte[] page = pages.get((int) (position >>> PAGE_BITS));
+        int offset = (int) (position & (PAGE_SIZE - 1));
+        final int length = ((page[offset] & 0xff) << 8) | (page[offset + 1] & 0xff);
+        if (length != bytes.length) {
+            return false;
+        }
+        offset += 2;
+        for (int i = 0; i < length; i ++) {
+            if (page[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        final long[] old = slots;
+        final long[] table = new long[old.length * 2];
+        final int mask = table.length - 1;
+        for (final long entry : old) {
+            if (entry != 0) {
+                final long position = entry - 1;
+                final byte[] page = pages.get((int) (position >>> PAGE_BITS));
+                final int offset = (int) (position & (PAGE_SIZE - 1));
+                final int length = ((page[offset] & 0xff) << 8) | (page[offset + 1] & 0xff);
+                int slot = hash(page, offset + 2, length) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+        slots = table;
+    }
+
+    private static int hash(final byte[] bytes, final int offset, final int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i ++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
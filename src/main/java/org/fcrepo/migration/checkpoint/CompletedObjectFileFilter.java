@@ -0,0 +1,28 @@
+package org.fcrepo.migration.checkpoint;
+
+import org.fcrepo.migration.foxml11.NativeFoxmlDirectoryObjectSource;
+
+import java.io.File;
+import java.io.FileFilter;
+
+/**
+ * A FileFilter that rejects FOXML files whose names identify an object that
+ * a CompletedObjectJournal records as already completed.  This allows such
+ * objects to be skipped without their FOXML ever being opened.  Files whose
+ * names don't encode a PID (such as those in an export directory) are always
+ * accepted, and are instead skipped once their PID has been read.
+ */
+public class CompletedObjectFileFilter implements FileFilter {
+
+    private CompletedObjectJournal journal;
+
+    public CompletedObjectFileFilter(final CompletedObjectJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public boolean accept(final File file) {
+        final String pid = NativeFoxmlDirectoryObjectSource.getPidFromFileName(file.getName());
+        return pid == null || !journal.isCompleted(pid);
+    }
+}
@@ -0,0 +1,253 @@
+package org.fcrepo.migration.checkpoint;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An append-only journal of the objects that have been migrated, which
+ * allows a migration that was stopped or that failed to be restarted without
+ * processing again the objects that were already completed.
+ *
+ * Each line of the journal file is "C pid" for an object that was completed
+ * or "A pid" for an object whose processing was aborted.  When the journal is
+ * opened, the PIDs of all completed objects are loaded into a
+ * CompactStringSet, fronted by a BloomFilter so that most objects which have
+ * not yet been migrated are recognized without consulting that set.  Only
+ * the objects completed in earlier runs are considered by
+ * {@link #isCompleted}.
+ *
+ * Records are written through a buffer that is flushed and forced to disk
+ * after every syncBatchSize records or syncIntervalMillis, whichever comes
+ * first, as well as when the journal is closed.  A crash may therefore cause
+ * up to syncBatchSize objects to be processed again on restart.
+ */
+public class CompletedObjectJournal {
+
+    private static final Logger LOGGER = getLogger(CompletedObjectJournal.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String COMPLETED = "C ";
+
+    private static final String ABORTED = "A ";
+
+    private final File journalFile;
+
+    private final CompactStringSet completed;
+
+    private final BloomFilter filter;
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private int syncBatchSize;
+
+    private long syncIntervalMillis;
+
+    private FileOutputStream fos;
+
+    private OutputStream out;
+
+    private FileChannel channel;
+
+    private int unsynced;
+
+    private long lastSync;
+
+    /**
+     * Opens the journal at the given location, loading the PIDs of every
+     * object completed in a previous run.  The file is created if it doesn't
+     * already exist.
+     * @param journalFile the file to which the journal is written.
+     */
+    public CompletedObjectJournal(final File journalFile) throws IOException {
+        this.journalFile = journalFile;
+        this.completed = new CompactStringSet();
+        this.syncBatchSize = 100;
+        this.syncIntervalMillis = 1000;
+        if (journalFile.exists()) {
+            truncateIncompleteRecord();
+            load(completed, null);
+        } else if (journalFile.getAbsoluteFile().getParentFile() != null) {
+            journalFile.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        filter = new BloomFilter(completed.size(), 0.01);
+        if (completed.size() > 0) {
+            load(null, filter);
+        }
+        if (completed.size() > 0) {
+            LOGGER.info(completed.size() + " previously completed objects found in journal \""
+                    + journalFile.getPath() + "\" will be skipped.");
+        }
+    }
+
+    /**
+     * Removes any partial record left at the end of the journal by a crash
+     * so that it can neither be mistaken for a complete record nor corrupt
+     * the next record written.
+     */
+    private void truncateIncompleteRecord() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        try {
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end --;
+            }
+            if (end < raf.length()) {
+                LOGGER.warn("Removing an incomplete record from the end of journal \"" + journalFile.getPath() + "\".");
+                raf.setLength(end);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the PIDs of the completed objects from the journal into the
+     * given set or filter.  The filter is populated in a second pass so
+     * that it may be sized by the number of distinct completed objects.
+     */
+    private void load(final CompactStringSet set, final BloomFilter bloomFilter) throws IOException {
+        final BufferedReader reader
+                = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(COMPLETED)) {
+                    final String pid = line.substring(COMPLETED.length());
+                    if (set != null) {
+                        set.add(pid);
+                    }
+                    if (bloomFilter != null) {
+                        bloomFilter.add(pid);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sets the number of records that may be written before the journal is
+     * forced to disk.
+     */
+    public void setSyncBatchSize(final int syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    /**
+     * Sets the longest time that a written record may go without being
+     * forced to disk (provided further records are written).
+     */
+    public void setSyncIntervalMillis(final long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Gets the number of objects completed in previous runs.
+     */
+    public int getPreviouslyCompletedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Gets the number of times {@link #isCompleted} has returned true.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Determines whether the object with the given PID was completed in a
+     * previous run.  This method is safe to call from multiple threads.
+     */
+    public boolean isCompleted(final String pid) {
+        if (wasCompleted(pid)) {
+            skipped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines, like {@link #isCompleted}, whether the object with the
+     * given PID was completed in a previous run, but without counting it as
+     * skipped.
+     */
+    public boolean wasCompleted(final String pid) {
+        return pid != null && filter.mightContain(pid) && completed.contains(pid);
+    }
+
+    /**
+     * Records that the object with the given PID was completely processed.
+     */
+    public void recordCompleted(final String pid) {
+        write(COMPLETED, pid);
+    }
+
+    /**
+     * Records that the processing of the object with the given PID was
+     * aborted.
+     */
+    public void recordAborted(final String pid) {
+        write(ABORTED, pid);
+    }
+
+    private synchronized void write(final String type, final String pid) {
+        try {
+            if (out == null) {
+                fos = new FileOutputStream(journalFile, true);
+                channel = fos.getChannel();
+                out = new BufferedOutputStream(fos);
+                lastSync = System.currentTimeMillis();
+            }
+            out.write((type + pid + "\n").getBytes(UTF8));
+            if (++ unsynced >= syncBatchSize || System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write to journal \"" + journalFile.getPath() + "\".", e);
+        }
+    }
+
+    /**
+     * Flushes any buffered records and forces them to disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (out != null) {
+            out.flush();
+            channel.force(false);
+            unsynced = 0;
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Forces any buffered records to disk and closes the journal file.
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            sync();
+            out.close();
+            out = null;
+        }
+    }
+}
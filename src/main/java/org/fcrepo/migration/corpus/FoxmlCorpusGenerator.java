@@ -0,0 +1,474 @@
+package org.fcrepo.migration.corpus;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Generates a synthetic corpus of fedora 3 objects for scale and load
+ * testing, in either or both of the layouts the migration reads:
+ * <ul>
+ *     <li>a native layout: an objectStore of FOXML files whose managed
+ *     content is referenced by internal id, and a datastreamStore holding
+ *     that content, both named and hashed into directories as fedora's
+ *     Akubra low-level storage does;</li>
+ *     <li>an archive export directory, in which managed content is inline
+ *     base64-encoded binaryContent.</li>
+ * </ul>
+ *
+ * Each object has a DC and a RELS-EXT datastream and datastreamCount further
+ * datastreams, each with versionsPerDatastream versions.  A fraction
+ * (managedFraction) of those datastreams are managed ("M") with content of
+ * about managedContentBytes; the rest are inline XML ("X") of about
+ * xmlContentBytes.  Actual sizes vary randomly by up to half either way.
+ * PIDs are drawn from the configured namespaces with a Zipf distribution
+ * whose exponent is namespaceSkew (0 gives every namespace an equal share).
+ * Files are placed in directories named by the leading hex digits of the MD5
+ * of their fedora URI, according to pathPattern, in which each "#" stands
+ * for one hex digit and "/" separates levels: the default "##" gives 256
+ * directories.  The same seed always produces the same corpus.
+ *
+ * The generator may be run from the command line, for example:
+ * <pre>
+ *     FoxmlCorpusGenerator --objectCount 100000 --nativeDir target/corpus --exportDir target/export
+ * </pre>
+ * where each "--name value" pair sets the property of that name.
+ */
+public class FoxmlCorpusGenerator {
+
+    private static final Logger LOGGER = getLogger(FoxmlCorpusGenerator.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String FOXML_NS = "info:fedora/fedora-system:def/foxml#";
+
+    private static final long BASE_TIME = 1262304000000L;
+
+    private File nativeDir;
+
+    private File exportDir;
+
+    private int objectCount = 1000;
+
+    private int datastreamCount = 3;
+
+    private int versionsPerDatastream = 2;
+
+    private double managedFraction = 0.5;
+
+    private int xmlContentBytes = 1024;
+
+    private int managedContentBytes = 64 * 1024;
+
+    private String[] namespaces = new String[] { "example" };
+
+    private double namespaceSkew = 0;
+
+    private String pathPattern = "##";
+
+    private long seed = 1;
+
+    private final SimpleDateFormat dateFormat;
+
+    public FoxmlCorpusGenerator() {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Sets the directory in which to write the native layout, as the
+     * subdirectories "objectStore" and "datastreamStore".
+     */
+    public void setNativeDir(final File nativeDir) {
+        this.nativeDir = nativeDir;
+    }
+
+    /**
+     * Sets the directory in which to write the archive export layout.
+     */
+    public void setExportDir(final File exportDir) {
+        this.exportDir = exportDir;
+    }
+
+    public void setObjectCount(final int objectCount) {
+        this.objectCount = objectCount;
+    }
+
+    /**
+     * Sets the number of datastreams, other than DC and RELS-EXT, that each
+     * object has.
+     */
+    public void setDatastreamCount(final int datastreamCount) {
+        this.datastreamCount = datastreamCount;
+    }
+
+    public void setVersionsPerDatastream(final int versionsPerDatastream) {
+        this.versionsPerDatastream = versionsPerDatastream;
+    }
+
+    /**
+     * Sets the fraction of datastreams that are managed rather than inline
+     * XML.
+     */
+    public void setManagedFraction(final double managedFraction) {
+        this.managedFraction = managedFraction;
+    }
+
+    /**
+     * Sets the typical size of the content of an inline XML datastream
+     * version.
+     */
+    public void setXmlContentBytes(final int xmlContentBytes) {
+        this.xmlContentBytes = xmlContentBytes;
+    }
+
+    /**
+     * Sets the typical size of the content of a managed datastream version.
+     */
+    public void setManagedContentBytes(final int managedContentBytes) {
+        this.managedContentBytes = managedContentBytes;
+    }
+
+    /**
+     * Sets the comma-separated PID namespaces.
+     */
+    public void setNamespaces(final String namespaces) {
+        this.namespaces = namespaces.split(",");
+    }
+
+    /**
+     * Sets the exponent of the Zipf distribution of objects among the
+     * namespaces, in the order they were given.
+     */
+    public void setNamespaceSkew(final double namespaceSkew) {
+        this.namespaceSkew = namespaceSkew;
+    }
+
+    /**
+     * Sets the pattern by which files are hashed into directories.
+     */
+    public void setPathPattern(final String pathPattern) {
+        this.pathPattern = pathPattern;
+    }
+
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final FoxmlCorpusGenerator generator = new FoxmlCorpusGenerator();
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected \"--name value\" pairs.");
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            generator.setProperty(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        generator.generate();
+    }
+
+    private void setProperty(final String name, final String value) throws Exception {
+        final String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (final Method m : FoxmlCorpusGenerator.class.getMethods()) {
+            if (m.getName().equals(setterName) && m.getParameterTypes().length == 1) {
+                final Class<?> type = m.getParameterTypes()[0];
+                if (type.equals(File.class)) {
+                    m.invoke(this, new File(value));
+                } else if (type.equals(int.class)) {
+                    m.invoke(this, Integer.parseInt(value));
+                } else if (type.equals(long.class)) {
+                    m.invoke(this, Long.parseLong(value));
+                } else if (type.equals(double.class)) {
+                    m.invoke(this, Double.parseDouble(value));
+                } else {
+                    m.invoke(this, value);
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown property \"" + name + "\".");
+    }
+
+    /**
+     * Writes the corpus.
+     */
+    public void generate() throws IOException {
+        if (nativeDir == null && exportDir == null) {
+            throw new IllegalStateException("At least one of nativeDir and exportDir must be set.");
+        }
+        final Random random = new Random(seed);
+        final double[] cumulative = namespaceWeights();
+        final int[] nextId = new int[namespaces.length];
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < objectCount; i ++) {
+            final int ns = pick(cumulative, random.nextDouble());
+            final String pid = namespaces[ns] + ":" + (++ nextId[ns]);
+            final long objectSeed = random.nextLong();
+            if (nativeDir != null) {
+                writeObject(pid, new Random(objectSeed), false);
+            }
+            if (exportDir != null) {
+                writeObject(pid, new Random(objectSeed), true);
+            }
+            if ((i + 1) % 10000 == 0) {
+                LOGGER.info("Generated " + (i + 1) + " of " + objectCount + " objects.");
+            }
+        }
+        LOGGER.info("Generated " + objectCount + " objects in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private double[] namespaceWeights() {
+        final double[] cumulative = new double[namespaces.length];
+        double total = 0;
+        for (int i = 0; i < namespaces.length; i ++) {
+            total += 1 / Math.pow(i + 1, namespaceSkew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < cumulative.length; i ++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int pick(final double[] cumulative, final double r) {
+        final int i = Arrays.binarySearch(cumulative, r);
+        return Math.min(cumulative.length - 1, i >= 0 ? i : -i - 1);
+    }
+
+    /**
+     * Writes the FOXML (and, for the native layout, the managed content) of
+     * one object.  The random source is seeded identically for both layouts
+     * so that they describe the same object.
+     */
+    private void writeObject(final String pid, final Random random, final boolean export) throws IOException {
+        final String uri = "info:fedora/" + pid;
+        final File foxmlFile = export
+                ? new File(hashedDir(exportDir, uri), encode(pid).replace("%3A", "_") + ".xml")
+                : new File(hashedDir(new File(nativeDir, "objectStore"), uri), encode(uri));
+        final long created = BASE_TIME + (random.nextInt(Integer.MAX_VALUE) * 1000L);
+        try (final Writer w = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(foxmlFile)), UTF8)) {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            w.write("<foxml:digitalObject VERSION=\"1.1\" PID=\"" + pid + "\"");
+            w.write(" xmlns:foxml=\"" + FOXML_NS + "\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                    + " xsi:schemaLocation=\"" + FOXML_NS + " http://www.fedora.info/definitions/1/0/foxml1-1.xsd\">\n");
+            w.write("<foxml:objectProperties>\n");
+            writeProperty(w, "info:fedora/fedora-system:def/model#state", "Active");
+            writeProperty(w, "info:fedora/fedora-system:def/model#label", "Generated object " + pid);
+            writeProperty(w, "info:fedora/fedora-system:def/model#ownerId", "generator");
+            writeProperty(w, "info:fedora/fedora-system:def/model#createdDate", date(created));
+            writeProperty(w, "info:fedora/fedora-system:def/view#lastModifiedDate",
+                    date(created + (datastreamCount * versionsPerDatastream + 2) * 60000L));
+            w.write("</foxml:objectProperties>\n");
+
+            long time = created;
+            beginDatastream(w, "DC", "X");
+            beginVersion(w, "DC1.0", "Dublin Core Record for this object", date(time), "text/xml");
+            w.write(">\n");
+            w.write("<foxml:xmlContent>\n<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                    + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n  <dc:title>Generated object " + pid
+                    + "</dc:title>\n  <dc:identifier>" + pid + "</dc:identifier>\n</oai_dc:dc>\n</foxml:xmlContent>\n");
+            endDatastream(w);
+
+            time += 60000;
+            beginDatastream(w, "RELS-EXT", "X");
+            beginVersion(w, "RELS-EXT.0", "Relationships", date(time), "application/rdf+xml");
+            w.write(">\n");
+            w.write("<foxml:xmlContent>\n<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                    + " xmlns:fedora=\"info:fedora/fedora-system:def/relations-external#\""
+                    + " xmlns:fedora-model=\"info:fedora/fedora-system:def/model#\">\n"
+                    + "  <rdf:Description rdf:about=\"" + uri + "\">\n"
+                    + "    <fedora-model:hasModel rdf:resource=\"info:fedora/" + pid.substring(0, pid.indexOf(':'))
+                    + ":model\"/>\n"
+                    + "    <fedora:isMemberOf rdf:resource=\"info:fedora/" + pid.substring(0, pid.indexOf(':'))
+                    + ":collection" + random.nextInt(100) + "\"/>\n"
+                    + "  </rdf:Description>\n</rdf:RDF>\n</foxml:xmlContent>\n");
+            endDatastream(w);
+
+            for (int d = 0; d < datastreamCount; d ++) {
+                final String dsid = "DS" + (d + 1);
+                final boolean managed = random.nextDouble() < managedFraction;
+                beginDatastream(w, dsid, managed ? "M" : "X");
+                for (int v = 0; v < versionsPerDatastream; v ++) {
+                    time += 60000;
+                    final String versionId = dsid + "." + v;
+                    if (managed) {
+                        final int size = vary(managedContentBytes, random);
+                        beginVersion(w, versionId, "Managed datastream", date(time), "application/octet-stream");
+                        w.write(" SIZE=\"" + size + "\">\n");
+                        final long contentSeed = random.nextLong();
+                        if (export) {
+                            w.write("<foxml:binaryContent>\n");
+                            w.flush();
+                            writeBase64(w, size, contentSeed);
+                            w.write("</foxml:binaryContent>\n");
+                        } else {
+                            final String internalId = pid + "+" + dsid + "+" + versionId;
+                            writeManagedContent(internalId, size, contentSeed);
+                            w.write("<foxml:contentLocation TYPE=\"INTERNAL_ID\" REF=\"" + internalId + "\"/>\n");
+                        }
+                    } else {
+                        beginVersion(w, versionId, "Inline XML datastream", date(time), "text/xml");
+                        w.write(">\n<foxml:xmlContent>\n");
+                        writeXmlContent(w, vary(xmlContentBytes, random), random);
+                        w.write("</foxml:xmlContent>\n");
+                    }
+                    w.write("</foxml:datastreamVersion>\n");
+                }
+                w.write("</foxml:datastream>\n");
+            }
+            w.write("</foxml:digitalObject>\n");
+        }
+    }
+
+    private static void writeProperty(final Writer w, final String name, final String value) throws IOException {
+        w.write("<foxml:property NAME=\"" + name + "\" VALUE=\"" + value + "\"/>\n");
+    }
+
+    private static void beginDatastream(final Writer w, final String dsid, final String controlGroup)
+            throws IOException {
+        w.write("<foxml:datastream ID=\"" + dsid + "\" STATE=\"A\" CONTROL_GROUP=\"" + controlGroup
+                + "\" VERSIONABLE=\"true\">\n");
+    }
+
+    /**
+     * Writes the start of a datastreamVersion element, leaving it open so
+     * that further attributes may be added by the caller.
+     */
+    private static void beginVersion(final Writer w, final String versionId, final String label,
+                                     final String created, final String mimeType) throws IOException {
+        w.write("<foxml:datastreamVersion ID=\"" + versionId + "\" LABEL=\"" + label + "\" CREATED=\"" + created
+                + "\" MIMETYPE=\"" + mimeType + "\"");
+    }
+
+    private static void endDatastream(final Writer w) throws IOException {
+        w.write("</foxml:datastreamVersion>\n</foxml:datastream>\n");
+    }
+
+    private static void writeXmlContent(final Writer w, final int size, final Random random) throws IOException {
+        final StringBuilder sb = new StringBuilder("<data>\n");
+        int line = 0;
+        while (sb.length() < size) {
+            sb.append("  <line n=\"").append(line ++).append("\">").append(Long.toHexString(random.nextLong()))
+                    .append(" generated content</line>\n");
+        }
+        sb.append("</data>\n");
+        w.write(sb.toString());
+    }
+
+    /**
+     * Writes size pseudo-random bytes, determined by the seed, as base64 to
+     * the writer, whose own buffer must already have been flushed.
+     */
+    private void writeBase64(final Writer w, final int size, final long contentSeed) throws IOException {
+        final WriterOutputStream sink = new WriterOutputStream(w);
+        final OutputStream out = new Base64OutputStream(sink, true, 76, new byte[] { '\n' });
+        writeRandomBytes(out, size, contentSeed);
+        out.close();
+    }
+
+    private void writeManagedContent(final String internalId, final int size, final long contentSeed)
+            throws IOException {
+        final String uri = "info:fedora/" + internalId.replace('+', '/');
+        final File f = new File(hashedDir(new File(nativeDir, "datastreamStore"), uri), encode(uri));
+        try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+            writeRandomBytes(out, size, contentSeed);
+        }
+    }
+
+    private static void writeRandomBytes(final OutputStream out, final int size, final long contentSeed)
+            throws IOException {
+        final Random random = new Random(contentSeed);
+        final byte[] buffer = new byte[8192];
+        int remaining = size;
+        while (remaining > 0) {
+            random.nextBytes(buffer);
+            final int n = Math.min(remaining, buffer.length);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Gets (creating it if necessary) the directory beneath the given root
+     * in which a file for the given URI belongs under the path pattern.
+     */
+    private File hashedDir(final File root, final String uri) {
+        final String hash = DigestUtils.md5Hex(uri);
+        final StringBuilder path = new StringBuilder();
+        int h = 0;
+        for (final char c : pathPattern.toCharArray()) {
+            path.append(c == '#' ? hash.charAt(h ++) : c);
+        }
+        final File dir = new File(root, path.toString());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Unable to create directory \"" + dir.getPath() + "\".");
+        }
+        return dir;
+    }
+
+    private static int vary(final int size, final Random random) {
+        return size <= 1 ? size : size / 2 + random.nextInt(size);
+    }
+
+    private String date(final long time) {
+        return dateFormat.format(new Date(time));
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * An OutputStream that passes the ASCII bytes written by a base64 encoder
+     * on to a Writer.
+     */
+    private static class WriterOutputStream extends OutputStream {
+
+        private final Writer writer;
+
+        public WriterOutputStream(final Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            writer.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final char[] chars = new char[len];
+            for (int i = 0; i < len; i ++) {
+                chars[i] = (char) b[off + i];
+            }
+            writer.write(chars);
+        }
+
+        @Override
+        public void close() {
+            // the writer is closed by its owner
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An InternalIDResolver implementation for a datastreamStore laid out by
+ * fedora 3's Akubra HashPathIdMapper, which finds each file at the path the
+ * mapper would have put it, without first indexing the store.  The file for
+ * an internal id such as "example:1+DS2+DS2.0" is named by the encoded URI
+ * "info:fedora/example:1/DS2/DS2.0" and lies in directories named by the
+ * leading hex digits of the MD5 of that URI, as given by the store's path
+ * pattern: with the default pattern "##", the file is in e5/ for an MD5
+ * beginning "e5".  A lookup is therefore a single stat.
+ *
+ * If the file isn't where it's expected (a store written with another
+ * pattern or encoding, or moved by hand), the directory in which it was
+ * expected is searched for it and, failing that and if an index file is set,
+ * a FingerprintIndexIDResolver index of the whole store is built, on the
+ * first such miss, and consulted.
+ */
+public class AkubraHashPathIDResolver implements InternalIDResolver {
+
+    private static final Logger LOGGER = getLogger(AkubraHashPathIDResolver.class);
+
+    private static final Timer RESOLVE_TIMER = Metrics.timer("resolve.internalId");
+
+    private static final Counter MISSES = Metrics.counter("resolve.hashPathMisses");
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dsRoot;
+
+    private final String pathPattern;
+
+    private File indexFile;
+
+    private InternalIDResolver fallback;
+
+    /**
+     * @param dsRoot the datastreamStore directory
+     * @param pathPattern the store's hash path pattern, as configured for
+     *                    fedora's Akubra store: '#' for each hex digit of
+     *                    the hash in a directory name, '/' between
+     *                    directories
+     */
+    public AkubraHashPathIDResolver(final File dsRoot, final String pathPattern) {
+        for (final char c : pathPattern.toCharArray()) {
+            if (c != '#' && c != '/') {
+                throw new IllegalArgumentException("Invalid path pattern \"" + pathPattern + "\".");
+            }
+        }
+        if (pathPattern.startsWith("/") || pathPattern.endsWith("/") || pathPattern.contains("//")) {
+            throw new IllegalArgumentException("Invalid path pattern \"" + pathPattern + "\".");
+        }
+        this.dsRoot = dsRoot;
+        this.pathPattern = pathPattern;
+    }
+
+    /**
+     * Resolves ids in a store laid out with fedora's default pattern, "##".
+     */
+    public AkubraHashPathIDResolver(final File dsRoot) {
+        this(dsRoot, "##");
+    }
+
+    /**
+     * Sets the file of the index of the whole store, built by a
+     * FingerprintIndexIDResolver when an id is first not found where
+     * expected.  Without it, such ids are unresolved.
+     */
+    public void setIndexFile(final File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    @Override
+    public CachedContent resolveInternalID(final String id) {
+        final long start = RESOLVE_TIMER.start();
+        try {
+            final String uri = "info:fedora/" + id.replace('+', '/');
+            final File directory = hashDirectory(uri);
+            final File file = new File(directory, encode(uri));
+            if (file.isFile()) {
+                return new FileCachedContent(file);
+            }
+            MISSES.increment();
+            final File found = search(directory, uri);
+            if (found != null) {
+                return new FileCachedContent(found);
+            }
+            final InternalIDResolver index = getFallback();
+            if (index == null) {
+                LOGGER.warn("No file found for the internal id \"" + id + "\" at " + file.getPath() + ".");
+                return null;
+            }
+            return index.resolveInternalID(id);
+        } finally {
+            RESOLVE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Gets the directory in which the mapper puts the file for the URI.
+     */
+    File hashDirectory(final String uri) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(uri.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder path = new StringBuilder();
+        int digit = 0;
+        for (final char c : pathPattern.toCharArray()) {
+            if (c == '#') {
+                final int b = digest[digit / 2] & 0xff;
+                path.append(HEX[digit % 2 == 0 ? b >> 4 : b & 0xf]);
+                digit ++;
+            } else {
+                path.append(File.separatorChar);
+            }
+        }
+        return path.length() == 0 ? dsRoot : new File(dsRoot, path.toString());
+    }
+
+    /**
+     * Encodes a URI as a file name as the HashPathIdMapper does: as with
+     * URLEncoder, except that a few more characters are left alone and a few
+     * more (including a final '.') are escaped.
+     */
+    static String encode(final String uri) {
+        final StringBuilder out = new StringBuilder();
+        for (int i = 0; i < uri.length(); i ++) {
+            final char c = uri.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '=' || c == '(' || c == ')' || c == '[' || c == ']' || c == ';') {
+                out.append(c);
+            } else if (c == ':') {
+                out.append("%3A");
+            } else if (c == ' ') {
+                out.append("%20");
+            } else if (c == '+') {
+                out.append("%2B");
+            } else if (c == '_') {
+                out.append("%5F");
+            } else if (c == '*') {
+                out.append("%2A");
+            } else if (c == '.') {
+                out.append(i == uri.length() - 1 ? "%2E" : ".");
+            } else {
+                final int end = Character.isHighSurrogate(c) && i + 1 < uri.length() ? i + 2 : i + 1;
+                try {
+                    out.append(URLEncoder.encode(uri.substring(i, end), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+                i = end - 1;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Looks, in the directory in which it was expected, for a file whose
+     * decoded name is the URI.
+     */
+    private static File search(final File directory, final String uri) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (final File f : files) {
+            try {
+                if (f.isFile() && uri.equals(URLDecoder.decode(f.getName(), "UTF-8"))) {
+                    return f;
+                }
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // not a name the mapper would have written
+            }
+        }
+        return null;
+    }
+
+    private synchronized InternalIDResolver getFallback() {
+        if (fallback == null && indexFile != null) {
+            LOGGER.info("An internal id was not found at its hash path; falling back to an index of \""
+                    + dsRoot.getPath() + "\".");
+            try {
+                fallback = new FingerprintIndexIDResolver(indexFile, dsRoot);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,104 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An InputStream over one entry of an archive being read by an
+ * ArchiveEntryReader.  While the reader remains at the entry, the stream
+ * reads directly from the archive.  When the reader is to move on before the
+ * entry has been read to its end, the stream is detached: the rest of the
+ * entry is spooled and the stream continues from the spool, which is released
+ * once it has been read or the stream is closed.  An object processed before
+ * the next is opened is therefore never spooled.
+ */
+class ArchiveEntryInputStream extends InputStream {
+
+    private static final Counter DETACHED = Metrics.counter("archive.detachedEntries");
+
+    private ArchiveEntryReader reader;
+
+    private SpooledContent spool;
+
+    private InputStream spooled;
+
+    private boolean ended;
+
+    ArchiveEntryInputStream(final ArchiveEntryReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the rest of the entry from the archive into a spool, after which
+     * the archive may move on to its next entry.
+     */
+    synchronized void detach() throws IOException {
+        if (reader == null) {
+            return;
+        }
+        final ArchiveEntryReader r = reader;
+        reader = null;
+        if (ended) {
+            return;
+        }
+        final byte[] buffer = new byte[8192];
+        int read = r.read(buffer, 0, buffer.length);
+        if (read < 0) {
+            ended = true;
+            return;
+        }
+        DETACHED.increment();
+        spool = new SpooledContent();
+        final OutputStream out = spool.getOutputStream();
+        try {
+            while (read >= 0) {
+                out.write(buffer, 0, read);
+                read = r.read(buffer, 0, buffer.length);
+            }
+        } finally {
+            out.close();
+        }
+        spooled = spool.getInputStream();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+        if (ended) {
+            return -1;
+        }
+        final int read = reader != null ? reader.read(b, off, len) : spooled.read(b, off, len);
+        if (read < 0) {
+            ended = true;
+            releaseSpool();
+        }
+        return read;
+    }
+
+    /**
+     * Stops reading the entry.  The archive itself isn't closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        ended = true;
+        releaseSpool();
+    }
+
+    private void releaseSpool() throws IOException {
+        if (spool != null) {
+            spooled.close();
+            spool.release();
+            spool = null;
+            spooled = null;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.fcrepo.migration.foxml11;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the file entries of a tar, gzipped tar or zip archive, or the single
+ * file in a gzip file, in the order in which they are stored, without
+ * expanding them onto disk.  The archive is read sequentially through a large
+ * buffer, so a reader never seeks.
+ *
+ * Only one entry may be read at a time: moving to the next entry discards
+ * whatever hasn't been read of the current one.
+ */
+abstract class ArchiveEntryReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The stream of the archive, after decompression.
+     */
+    protected final InputStream in;
+
+    protected ArchiveEntryReader(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Determines whether the file is an archive of a format that can be read,
+     * judging by its name.
+     */
+    static boolean isArchive(final File file) {
+        final String name = file.getName().toLowerCase();
+        return name.endsWith(".tar") || name.endsWith(".tgz") || name.endsWith(".zip") || name.endsWith(".gz");
+    }
+
+    /**
+     * Opens an archive, choosing its format by its name.
+     * @param readAheadSize the number of bytes of the file to read at once
+     */
+    static ArchiveEntryReader open(final File file, final int readAheadSize) throws IOException {
+        final String name = file.getName().toLowerCase();
+        final InputStream in = new BufferedInputStream(new FileInputStream(file), readAheadSize);
+        try {
+            if (name.endsWith(".tar")) {
+                return new Tar(in);
+            } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                return new Tar(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
+            } else if (name.endsWith(".zip")) {
+                return new Zip(in);
+            } else if (name.endsWith(".gz")) {
+                return new Gzip(new GZIPInputStream(in, GZIP_BUFFER_SIZE),
+                        file.getName().substring(0, file.getName().length() - 3));
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        throw new IllegalArgumentException(file.getPath() + " is not a tar, tar.gz, zip or gz file.");
+    }
+
+    /**
+     * Moves to the next file entry, skipping directories and links.
+     * @return the name of the entry, or null if there are no more
+     */
+    abstract String nextEntry() throws IOException;
+
+    /**
+     * Reads from the current entry.
+     * @return the number of bytes read, or -1 at the end of the entry
+     */
+    abstract int read(byte[] b, int off, int len) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static void readFully(final InputStream in, final byte[] b, final int off, final int len)
+            throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int r = in.read(b, off + read, len - read);
+            if (r < 0) {
+                throw new EOFException("Unexpected end of archive.");
+            }
+            read += r;
+        }
+    }
+
+    private static void skipFully(final InputStream in, final long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of archive.");
+                }
+                remaining --;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    /**
+     * A reader of POSIX (ustar and pax) and GNU tar archives.
+     */
+    static class Tar extends ArchiveEntryReader {
+
+        private static final int BLOCK = 512;
+
+        private final byte[] header = new byte[BLOCK];
+
+        /**
+         * The bytes of the current entry not yet read.
+         */
+        private long remaining;
+
+        /**
+         * The bytes of padding after the current entry.
+         */
+        private long padding;
+
+        Tar(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        String nextEntry() throws IOException {
+            skipFully(in, remaining + padding);
+            remaining = 0;
+            padding = 0;
+            String longName = null;
+            while (true) {
+                final int first = in.read();
+                if (first < 0) {
+                    return null;
+                }
+                header[0] = (byte) first;
+                readFully(in, header, 1, BLOCK - 1);
+                if (isZero(header)) {
+                    // two zero blocks end the archive
+                    return null;
+                }
+                final long size = parseSize(header, 124, 12);
+                final long entryPadding = (BLOCK - size % BLOCK) % BLOCK;
+                final char type = (char) header[156];
+                if (type == 'L' || type == 'x') {
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException("Invalid tar header.");
+                    }
+                    final byte[] data = new byte[(int) size];
+                    readFully(in, data, 0, data.length);
+                    skipFully(in, entryPadding);
+                    final String path = type == 'L' ? nulTerminated(data, 0, data.length) : paxPath(data);
+                    if (path != null) {
+                        longName = path;
+                    }
+                } else if (type == '0' || type == '\0' || type == '7') {
+                    remaining = size;
+                    padding = entryPadding;
+                    return longName != null ? longName : name(header);
+                } else {
+                    // directories, links and other entries have no content of interest
+                    skipFully(in, size + entryPadding);
+                    longName = null;
+                }
+            }
+        }
+
+        @Override
+        int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int r = in.read(b, off, (int) Math.min(len, remaining));
+            if (r < 0) {
+                throw new EOFException("Unexpected end of archive.");
+            }
+            remaining -= r;
+            return r;
+        }
+
+        private static boolean isZero(final byte[] block) {
+            for (final byte b : block) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String name(final byte[] header) {
+            final String name = nulTerminated(header, 0, 100);
+            if ("ustar".equals(nulTerminated(header, 257, 6).trim())) {
+                final String prefix = nulTerminated(header, 345, 155);
+                if (prefix.length() > 0) {
+                    return prefix + "/" + name;
+                }
+            }
+            return name;
+        }
+
+        private static String nulTerminated(final byte[] b, final int off, final int len) {
+            int end = off;
+            while (end < off + len && b[end] != 0) {
+                end ++;
+            }
+            return new String(b, off, end - off, UTF8);
+        }
+
+        /**
+         * Parses a size field, which is octal unless its high bit is set, in
+         * which case it is big-endian binary (a GNU extension for large
+         * entries).
+         */
+        private static long parseSize(final byte[] header, final int off, final int len) throws IOException {
+            long size = 0;
+            if ((header[off] & 0x80) != 0) {
+                for (int i = off + 1; i < off + len; i ++) {
+                    size = (size << 8) | (header[i] & 0xff);
+                }
+                return size;
+            }
+            for (int i = off; i < off + len; i ++) {
+                final byte b = header[i];
+                if (b == 0 || b == ' ') {
+                    if (size > 0) {
+                        break;
+                    }
+                } else if (b >= '0' && b <= '7') {
+                    size = size * 8 + (b - '0');
+                } else {
+                    throw new IOException("Invalid tar header.");
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Gets the path from pax extended header records ("length key=value\n").
+         */
+        private static String paxPath(final byte[] data) {
+            final String records = new String(data, UTF8);
+            int i = 0;
+            String path = null;
+            while (i < records.length()) {
+                final int space = records.indexOf(' ', i);
+                final int newline = records.indexOf('\n', space + 1);
+                if (space < 0 || newline < 0) {
+                    break;
+                }
+                final String record = records.substring(space + 1, newline);
+                if (record.startsWith("path=")) {
+                    path = record.substring(5);
+                }
+                i = newline + 1;
+            }
+            return path;
+        }
+    }
+
+    /**
+     * A reader of zip archives.
+     */
+    static class Zip extends ArchiveEntryReader {
+
+        private final ZipInputStream zip;
+
+        Zip(final InputStream in) {
+            this(new ZipInputStream(in, UTF8));
+        }
+
+        private Zip(final ZipInputStream zip) {
+            super(zip);
+            this.zip = zip;
+        }
+
+        @Override
+        String nextEntry() throws IOException {
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            return entry == null ? null : entry.getName();
+        }
+
+        @Override
+        int read(final byte[] b, final int off, final int len) throws IOException {
+            return zip.read(b, off, len);
+        }
+    }
+
+    /**
+     * A reader of a gzip file as an archive of the one file it compresses.
+     */
+    static class Gzip extends ArchiveEntryReader {
+
+        private final String name;
+
+        private boolean started;
+
+        Gzip(final InputStream in, final String name) {
+            super(in);
+            this.name = name;
+        }
+
+        @Override
+        String nextEntry() throws IOException {
+            if (started) {
+                return null;
+            }
+            started = true;
+            return name;
+        }
+
+        @Override
+        int read(final byte[] b, final int off, final int len) throws IOException {
+            return started ? in.read(b, off, len) : -1;
+        }
+    }
+}
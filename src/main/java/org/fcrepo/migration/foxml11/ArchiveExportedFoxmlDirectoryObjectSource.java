@@ -4,6 +4,7 @@ import org.fcrepo.migration.FedoraObjectProcessor;
 import org.fcrepo.migration.ObjectSource;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.util.Iterator;
 
 /**
@@ -17,6 +18,10 @@ public class ArchiveExportedFoxmlDirectoryObjectSource implements ObjectSource {
     private File root;
     
     private URLFetcher fetcher;
+
+    private FileFilter fileFilter;
+
+    private DatastreamFilter datastreamFilter;
     
     public ArchiveExportedFoxmlDirectoryObjectSource(final File exportDir) {
         this.root = exportDir;
@@ -27,8 +32,27 @@ public class ArchiveExportedFoxmlDirectoryObjectSource implements ObjectSource {
         this.fetcher = fetcher;
     }
     
+    /**
+     * Sets a filter that determines which FOXML files are exposed.  Files
+     * rejected by the filter are never opened.
+     */
+    public void setFileFilter(final FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.  Those rejected are skipped by the parser.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
     @Override
     public Iterator<FedoraObjectProcessor> iterator() {
-        return new FoxmlDirectoryDFSIterator(root, fetcher);
+        final FoxmlDirectoryDFSIterator i = new FoxmlDirectoryDFSIterator(root, fetcher);
+        i.setFileFilter(fileFilter);
+        i.setDatastreamFilter(datastreamFilter);
+        return i;
     }
 }
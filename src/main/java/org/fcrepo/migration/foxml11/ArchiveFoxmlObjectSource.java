@@ -0,0 +1,94 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.ObjectSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An ObjectSource implementation that exposes FOXML streamed directly out of
+ * archives, without expanding them onto disk: tar, tar.gz (or .tgz) and zip
+ * archives of FOXML files, or single gzipped FOXML files.  Given a directory,
+ * every archive in it is read, in order of name.
+ *
+ * Each archive is read sequentially, a buffer of readAheadSize bytes at a
+ * time.  Objects are best processed in the order in which they are exposed,
+ * one finishing before the next is requested; an object still being processed
+ * when the next is requested has the rest of its FOXML spooled (to memory or,
+ * when large, to a temporary file) so that the archive may move on.
+ *
+ * The FOXML is expected to be self-contained, as exported with the "archive"
+ * context, unless a resolver for managed content is given.
+ */
+public class ArchiveFoxmlObjectSource implements ObjectSource {
+
+    private final List<File> archives;
+
+    private InternalIDResolver resolver;
+
+    private URLFetcher fetcher;
+
+    private DatastreamFilter datastreamFilter;
+
+    private int readAheadSize = 1024 * 1024;
+
+    /**
+     * @param archive an archive, or a directory of archives
+     */
+    public ArchiveFoxmlObjectSource(final File archive) {
+        this.archives = new ArrayList<File>();
+        if (archive.isDirectory()) {
+            final File[] files = archive.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (final File f : files) {
+                    if (f.isFile() && ArchiveEntryReader.isArchive(f)) {
+                        archives.add(f);
+                    }
+                }
+            }
+        } else {
+            archives.add(archive);
+        }
+        this.fetcher = new HttpClientURLFetcher();
+    }
+
+    public void setFetcher(final URLFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Sets the resolver of references to managed content, for archives of a
+     * fedora 3 objectStore rather than of exported objects.
+     */
+    public void setResolver(final InternalIDResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.  Those rejected are skipped by the parser.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
+    /**
+     * Sets the number of bytes of each archive read at once (1 MiB by
+     * default).
+     */
+    public void setReadAheadSize(final int readAheadSize) {
+        this.readAheadSize = readAheadSize;
+    }
+
+    @Override
+    public Iterator<FedoraObjectProcessor> iterator() {
+        final FoxmlArchiveIterator i = new FoxmlArchiveIterator(archives, resolver, fetcher, readAheadSize);
+        i.setDatastreamFilter(datastreamFilter);
+        return i;
+    }
+}
@@ -0,0 +1,118 @@
+package org.fcrepo.migration.foxml11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Decodes base64 text, given in windows of characters as a StAX reader
+ * provides them through getTextCharacters, and writes the decoded bytes to a
+ * channel through a buffer.  Nothing is allocated per window, so decoding a
+ * large inline datastream produces no garbage beyond this object.
+ *
+ * Like the commons-codec decoder it replaces, it accepts both the standard
+ * and URL-safe alphabets, ignores whitespace and any other characters outside
+ * the alphabet, and stops at the first padding character.  A single instance
+ * may be reused for successive payloads, but not by several threads at once.
+ */
+public class Base64ChannelDecoder {
+
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i ++) {
+            VALUES[i] = -1;
+        }
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i ++) {
+            VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        VALUES['-'] = 62;
+        VALUES['_'] = 63;
+    }
+
+    private final ByteBuffer buffer;
+
+    private WritableByteChannel channel;
+
+    private int quantum;
+
+    private int count;
+
+    private boolean ended;
+
+    public Base64ChannelDecoder() {
+        this(64 * 1024);
+    }
+
+    /**
+     * @param bufferSize the number of decoded bytes buffered before they are
+     *                   written to the channel
+     */
+    public Base64ChannelDecoder(final int bufferSize) {
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Begins decoding a payload into the given channel.
+     */
+    public void begin(final WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.clear();
+        quantum = 0;
+        count = 0;
+        ended = false;
+    }
+
+    /**
+     * Decodes the given characters, which may begin or end part way through a
+     * group of four.
+     */
+    public void decode(final char[] chars, final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        for (int i = offset; i < end && !ended; i ++) {
+            final char c = chars[i];
+            if (c == '=') {
+                ended = true;
+            } else if (c < 128 && VALUES[c] >= 0) {
+                quantum = (quantum << 6) | VALUES[c];
+                if (++ count == 4) {
+                    if (buffer.remaining() < 3) {
+                        flush();
+                    }
+                    buffer.put((byte) (quantum >> 16));
+                    buffer.put((byte) (quantum >> 8));
+                    buffer.put((byte) quantum);
+                    quantum = 0;
+                    count = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes any final partial group and writes all remaining bytes to the
+     * channel, which is not closed.
+     */
+    public void end() throws IOException {
+        if (buffer.remaining() < 2) {
+            flush();
+        }
+        if (count == 2) {
+            buffer.put((byte) (quantum >> 4));
+        } else if (count == 3) {
+            buffer.put((byte) (quantum >> 10));
+            buffer.put((byte) (quantum >> 2));
+        }
+        flush();
+        channel = null;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,460 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A URLFetcher that keeps the content fetched by another in files in a
+ * directory, so that content referenced by many objects (shared stylesheets,
+ * licences, collection images) is downloaded once.
+ *
+ * Content not in the cache is passed straight through from the fetcher it
+ * wraps, and copied into a cache file as it is read; it is kept once it has
+ * been read to its end.  The cache holds at most maxBytes of content,
+ * evicting the least recently read content beyond that; content larger than
+ * the whole cache, or not read to its end, is not kept.  When the fetcher it wraps is a
+ * ConditionalURLFetcher, content held longer than revalidateAfterMillis (by
+ * default, any content) is revalidated with its ETag or Last-Modified date
+ * before it is served, and re-fetched only if it has changed.  Otherwise it
+ * is served until evicted.
+ *
+ * Cached content is read through a FileChannel, and a file is only deleted
+ * once the last stream reading it is closed, so any number of workers may
+ * share the cache.  Hits, misses and the bytes not downloaded because of the
+ * cache are counted in the urlCache metrics.
+ *
+ * The cache lasts as long as the fetcher.  The directory must not be shared
+ * with another process: files left in it by an earlier one are deleted.
+ */
+public class CachingURLFetcher implements URLFetcher, Closeable {
+
+    private static final Logger LOGGER = getLogger(CachingURLFetcher.class);
+
+    private static final String PREFIX = "url-";
+
+    private static final String SUFFIX = ".cache";
+
+    private static final Counter HITS = Metrics.counter("urlCache.hits");
+
+    private static final Counter MISSES = Metrics.counter("urlCache.misses");
+
+    private static final Counter REVALIDATIONS = Metrics.counter("urlCache.revalidations");
+
+    private static final Counter BYTES_SAVED = Metrics.counter("urlCache.bytesSaved");
+
+    private final URLFetcher fetcher;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    private long revalidateAfterMillis;
+
+    /**
+     * The cached content by URL, least recently read first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long bytes;
+
+    /**
+     * @param fetcher the fetcher through which content not in the cache is
+     *                fetched
+     * @param directory the directory in which to keep content
+     * @param maxBytes the largest number of bytes of content to keep
+     */
+    public CachingURLFetcher(final URLFetcher fetcher, final File directory, final long maxBytes) {
+        this.fetcher = fetcher;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + directory.getPath() + ".");
+        }
+        final File[] stale = directory.listFiles();
+        if (stale != null) {
+            for (final File f : stale) {
+                if (f.getName().startsWith(PREFIX) && f.getName().endsWith(SUFFIX)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how long content may be served without being revalidated, 0 (the
+     * default) to revalidate it every time it is read.
+     */
+    public void setRevalidateAfterMillis(final long revalidateAfterMillis) {
+        this.revalidateAfterMillis = revalidateAfterMillis;
+    }
+
+    @Override
+    public InputStream getContentAtUrl(final URL url) throws IOException {
+        final String key = String.valueOf(url);
+        final Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null) {
+                cached.readers ++;
+            }
+        }
+        ConditionalResponse changed = null;
+        if (cached != null) {
+            try {
+                if (isFresh(cached)) {
+                    return hit(cached);
+                }
+                REVALIDATIONS.increment();
+                changed = ((ConditionalURLFetcher) fetcher)
+                        .getContentAtUrlIfModified(url, cached.etag, cached.lastModified);
+                if (!changed.isModified()) {
+                    cached.validated = System.currentTimeMillis();
+                    return hit(cached);
+                }
+            } catch (IOException | RuntimeException e) {
+                close(cached);
+                throw e;
+            }
+            close(cached);
+        }
+        MISSES.increment();
+        if (changed == null) {
+            changed = fetcher instanceof ConditionalURLFetcher
+                    ? ((ConditionalURLFetcher) fetcher).getContentAtUrlIfModified(url, null, null)
+                    : new ConditionalResponse(fetcher.getContentAtUrl(url), null, null);
+        }
+        return store(key, changed);
+    }
+
+    private boolean isFresh(final Entry entry) {
+        return !(fetcher instanceof ConditionalURLFetcher)
+                || (entry.etag == null && entry.lastModified == null)
+                || System.currentTimeMillis() - entry.validated < revalidateAfterMillis;
+    }
+
+    /**
+     * Serves cached content to a reader already counted.
+     */
+    private InputStream hit(final Entry entry) throws IOException {
+        final InputStream in = entry.open();
+        HITS.increment();
+        BYTES_SAVED.add(entry.size);
+        return in;
+    }
+
+    /**
+     * Serves fetched content, copying it as it is read into a new cache file
+     * that replaces any older content for the URL once it is complete.
+     */
+    private InputStream store(final String key, final ConditionalResponse response) throws IOException {
+        final InputStream in = response.getContent();
+        final File file;
+        final OutputStream out;
+        try {
+            file = File.createTempFile(PREFIX, SUFFIX, directory);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        try {
+            out = new FileOutputStream(file);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            in.close();
+            throw e;
+        }
+        return new CopyingInputStream(in, key, response, file, out);
+    }
+
+    /**
+     * Adds a complete cache file for the URL, replacing any older content
+     * for it and evicting the least recently read content beyond maxBytes.
+     */
+    private void keep(final String key, final Entry entry) {
+        final List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            if (entry.size > maxBytes) {
+                entry.evicted = true;
+                evicted.add(entry);
+            } else {
+                final Entry replaced = entries.remove(key);
+                if (replaced != null) {
+                    bytes -= replaced.size;
+                    replaced.evicted = true;
+                    evicted.add(replaced);
+                }
+                entries.put(key, entry);
+                bytes += entry.size;
+                final Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+                while (bytes > maxBytes && i.hasNext()) {
+                    final Entry eldest = i.next().getValue();
+                    i.remove();
+                    bytes -= eldest.size;
+                    eldest.evicted = true;
+                    evicted.add(eldest);
+                }
+            }
+        }
+        for (final Entry e : evicted) {
+            deleteIfUnread(e);
+        }
+    }
+
+    /**
+     * Records that a reader of the entry has finished.
+     */
+    private void close(final Entry entry) {
+        synchronized (this) {
+            entry.readers --;
+        }
+        deleteIfUnread(entry);
+    }
+
+    private void deleteIfUnread(final Entry entry) {
+        final boolean delete;
+        synchronized (this) {
+            delete = entry.evicted && entry.readers == 0 && !entry.deleted;
+            if (delete) {
+                entry.deleted = true;
+            }
+        }
+        if (delete && !entry.file.delete()) {
+            LOGGER.warn("Unable to delete " + entry.file.getPath() + ".");
+        }
+    }
+
+    /**
+     * Gets the number of bytes of content in the cache.
+     */
+    public synchronized long getCachedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the fraction of reads served from the cache.
+     */
+    public static double getHitRatio() {
+        final long hits = HITS.getCount();
+        final long total = hits + MISSES.getCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Gets the number of bytes of content served from the cache rather than
+     * downloaded.
+     */
+    public static long getBytesSaved() {
+        return BYTES_SAVED.getCount();
+    }
+
+    /**
+     * Empties the cache.  Content still being read is deleted once it has
+     * been read.
+     */
+    @Override
+    public void close() {
+        final List<Entry> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<Entry>(entries.values());
+            for (final Entry e : evicted) {
+                e.evicted = true;
+            }
+            entries.clear();
+            bytes = 0;
+        }
+        for (final Entry e : evicted) {
+            deleteIfUnread(e);
+        }
+        LOGGER.info("URL cache hit ratio " + Math.round(getHitRatio() * 100) + "%, " + getBytesSaved()
+                + " bytes not downloaded.");
+    }
+
+    /**
+     * A stream of fetched content that copies what is read into a cache
+     * file, which is kept once the content has been read to its end.  The
+     * copy is abandoned, and the file deleted, should the content prove
+     * larger than the cache, be skipped or be closed before its end, or
+     * should the file fail to be written.
+     */
+    private class CopyingInputStream extends FilterInputStream {
+
+        private final String key;
+
+        private final ConditionalResponse response;
+
+        private final File file;
+
+        private OutputStream out;
+
+        private long written;
+
+        CopyingInputStream(final InputStream in, final String key, final ConditionalResponse response,
+                           final File file, final OutputStream out) {
+            super(in);
+            this.key = key;
+            this.response = response;
+            this.file = file;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                complete();
+            } else if (out != null) {
+                copy(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read == -1) {
+                complete();
+            } else if (out != null) {
+                copy(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandon();
+            }
+        }
+
+        private void copy(final byte[] b, final int off, final int len) {
+            if (written + len > maxBytes) {
+                abandon();
+                return;
+            }
+            try {
+                out.write(b, off, len);
+                written += len;
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write " + file.getPath() + "; " + key + " will not be cached.", e);
+                abandon();
+            }
+        }
+
+        private void complete() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write " + file.getPath() + "; " + key + " will not be cached.", e);
+                out = null;
+                file.delete();
+                return;
+            }
+            out = null;
+            keep(key, new Entry(file, response.getEtag(), response.getLastModified()));
+        }
+
+        private void abandon() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted in any case
+            }
+            out = null;
+            file.delete();
+        }
+    }
+
+    /**
+     * Content held in a cache file.
+     */
+    private class Entry {
+
+        private final File file;
+
+        private final long size;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private volatile long validated = System.currentTimeMillis();
+
+        /**
+         * The number of streams reading the file, or about to.
+         */
+        private int readers;
+
+        private boolean evicted;
+
+        private boolean deleted;
+
+        Entry(final File file, final String etag, final String lastModified) {
+            this.file = file;
+            this.size = file.length();
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Opens a stream over the file for a reader already counted.
+         */
+        InputStream open() throws IOException {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return new FilterInputStream(Channels.newInputStream(channel)) {
+
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!closed) {
+                            closed = true;
+                            CachingURLFetcher.this.close(Entry.this);
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
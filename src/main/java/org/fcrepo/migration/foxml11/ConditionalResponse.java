@@ -0,0 +1,48 @@
+package org.fcrepo.migration.foxml11;
+
+import java.io.InputStream;
+
+/**
+ * The response to a conditional fetch: either the content, with the
+ * validators returned with it, or word that the content is unchanged.
+ */
+public class ConditionalResponse {
+
+    private final InputStream content;
+
+    private final String etag;
+
+    private final String lastModified;
+
+    /**
+     * @param content the content, or null if it is unchanged
+     */
+    public ConditionalResponse(final InputStream content, final String etag, final String lastModified) {
+        this.content = content;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Determines whether the content has changed, in which case it is
+     * returned.
+     */
+    public boolean isModified() {
+        return content != null;
+    }
+
+    /**
+     * Gets the content, or null if it is unchanged.
+     */
+    public InputStream getContent() {
+        return content;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
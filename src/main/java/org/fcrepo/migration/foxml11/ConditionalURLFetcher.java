@@ -0,0 +1,22 @@
+package org.fcrepo.migration.foxml11;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * A URLFetcher that can fetch content only if it has changed since it was
+ * last fetched, as judged by the validators (ETag and Last-Modified) that
+ * were returned with it.
+ */
+public interface ConditionalURLFetcher extends URLFetcher {
+
+    /**
+     * Fetches the content at the URL unless it is unchanged.
+     * @param etag the ETag of the content already held, or null
+     * @param lastModified the Last-Modified date of the content already held,
+     *                     or null
+     * @return the response, which has no content if the content is unchanged
+     */
+    public ConditionalResponse getContentAtUrlIfModified(URL url, String etag, String lastModified)
+            throws IOException;
+}
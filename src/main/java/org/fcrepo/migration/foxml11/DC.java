@@ -16,6 +16,23 @@ import java.util.List;
 public class DC {
     
     public static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    private static JAXBContext context;
+
+    /**
+     * An Unmarshaller for each thread, since they may not be used by several
+     * threads at once.
+     */
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER = new ThreadLocal<Unmarshaller>() {
+        @Override
+        protected Unmarshaller initialValue() {
+            try {
+                return getContext().createUnmarshaller();
+            } catch (JAXBException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
     
     @XmlElement(name="contributor", namespace=DC_NS)
     public String[] contributor;
@@ -101,11 +118,20 @@ public class DC {
     
     
     public static DC parseDC(InputStream is) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(DC.class);
-        Unmarshaller unmarshaller = jc.createUnmarshaller();
-        JAXBElement<DC> p = unmarshaller.unmarshal(new StreamSource(is), DC.class);
+        JAXBElement<DC> p = UNMARSHALLER.get().unmarshal(new StreamSource(is), DC.class);
         return p.getValue();
     }
+
+    /**
+     * Gets the JAXBContext for DC, which is created once and shared, as
+     * creating one is far more costly than using it.
+     */
+    private static synchronized JAXBContext getContext() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(DC.class);
+        }
+        return context;
+    }
     
     
 }
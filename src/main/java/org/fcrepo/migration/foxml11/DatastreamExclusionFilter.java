@@ -0,0 +1,116 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.DatastreamInfo;
+import org.fcrepo.migration.DatastreamVersion;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A DatastreamFilter that excludes the datastreams and versions matching any
+ * of the configured criteria and accepts all others.  For example, to drop
+ * the audit trail and derivative thumbnails and OCR, set datastreamIds to
+ * "AUDIT,TN,OCR".
+ *
+ * Lists are comma-separated.  A MIME type ending in "/*", such as "image/*",
+ * matches every subtype.
+ */
+public class DatastreamExclusionFilter implements DatastreamFilter {
+
+    private Set<String> datastreamIds = Collections.emptySet();
+
+    private Pattern datastreamIdPattern;
+
+    private Set<String> controlGroups = Collections.emptySet();
+
+    private Set<String> states = Collections.emptySet();
+
+    private Set<String> mimeTypes = Collections.emptySet();
+
+    private long largerThan = -1;
+
+    /**
+     * Sets the IDs of the datastreams to exclude.
+     */
+    public void setDatastreamIds(final String datastreamIds) {
+        this.datastreamIds = split(datastreamIds);
+    }
+
+    /**
+     * Sets a regular expression matching the whole of the IDs of datastreams
+     * to exclude.
+     */
+    public void setDatastreamIdPattern(final String datastreamIdPattern) {
+        this.datastreamIdPattern = datastreamIdPattern == null ? null : Pattern.compile(datastreamIdPattern);
+    }
+
+    /**
+     * Sets the control groups ("X", "M", "E" or "R") of the datastreams to
+     * exclude.
+     */
+    public void setControlGroups(final String controlGroups) {
+        this.controlGroups = split(controlGroups);
+    }
+
+    /**
+     * Sets the states ("A", "I" or "D") of the datastreams to exclude.
+     */
+    public void setStates(final String states) {
+        this.states = split(states);
+    }
+
+    /**
+     * Sets the MIME types of the versions to exclude.
+     */
+    public void setMimeTypes(final String mimeTypes) {
+        this.mimeTypes = split(mimeTypes);
+    }
+
+    /**
+     * Sets the size in bytes beyond which versions are excluded, or -1 (the
+     * default) to exclude none by size.  Only sizes declared in the FOXML
+     * are considered.
+     */
+    public void setLargerThan(final long largerThan) {
+        this.largerThan = largerThan;
+    }
+
+    @Override
+    public boolean acceptDatastream(final DatastreamInfo datastream) {
+        final String id = datastream.getDatastreamId();
+        return !(datastreamIds.contains(id)
+                || (datastreamIdPattern != null && id != null && datastreamIdPattern.matcher(id).matches())
+                || controlGroups.contains(datastream.getControlGroup())
+                || states.contains(datastream.getState()));
+    }
+
+    @Override
+    public boolean acceptVersion(final DatastreamVersion version) {
+        return !(matchesMimeType(version.getMimeType()) || (largerThan >= 0 && version.getSize() > largerThan));
+    }
+
+    private boolean matchesMimeType(final String mimeType) {
+        if (mimeType == null || mimeTypes.isEmpty()) {
+            return false;
+        }
+        if (mimeTypes.contains(mimeType)) {
+            return true;
+        }
+        final int slash = mimeType.indexOf('/');
+        return slash > 0 && mimeTypes.contains(mimeType.substring(0, slash) + "/*");
+    }
+
+    private static Set<String> split(final String list) {
+        final Set<String> values = new HashSet<String>();
+        if (list != null) {
+            for (final String value : list.split(",")) {
+                if (value.trim().length() > 0) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return values;
+    }
+}
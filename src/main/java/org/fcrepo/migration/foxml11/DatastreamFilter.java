@@ -0,0 +1,25 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.DatastreamInfo;
+import org.fcrepo.migration.DatastreamVersion;
+
+/**
+ * Determines which datastreams and datastream versions are read from FOXML.
+ * Those rejected are passed over by the parser: their content is never
+ * decoded, spooled or resolved, and they are never given to the handler.
+ */
+public interface DatastreamFilter {
+
+    /**
+     * Determines whether any version of a datastream is read.
+     */
+    public boolean acceptDatastream(DatastreamInfo datastream);
+
+    /**
+     * Determines whether a version of an accepted datastream is read.  Only
+     * the version's attributes are available: its content and content digest
+     * have yet to be read.
+     */
+    public boolean acceptVersion(DatastreamVersion version);
+
+}
@@ -1,8 +1,25 @@
 package org.fcrepo.migration.foxml11;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -17,9 +34,10 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
 import org.slf4j.Logger;
 
 import static org.slf4j.LoggerFactory.getLogger;
@@ -31,28 +49,97 @@ import static org.slf4j.LoggerFactory.getLogger;
  * other directories and/or FOXML files.  The FOXML files are expected
  * to have a filename that is reversibly mapped from a fedora internal
  * id for that datastream version.
+ *
+ * The directory is scanned by a fork-join pool, one task per directory,
+ * each adding the documents for its files to the index in batches of at
+ * most BATCH_SIZE, so a directory of many files isn't held in memory.  The
+ * modification time of every directory is recorded with the index.  In
+ * incremental mode an existing index is brought up to date by re-indexing
+ * only the directories whose modification time has changed (which it does
+ * when files are added to or removed from it) and dropping those that no
+ * longer exist, so the index of a live store may be re-synced without being
+ * rebuilt.  Otherwise an existing index is used as it is.
  */
 public class DirectoryScanningIDResolver implements InternalIDResolver {
 
     private static final Logger LOGGER = getLogger(InternalIDResolver.class);
+
+    private static final Timer RESOLVE_TIMER = Metrics.timer("resolve.internalId");
+
+    /**
+     * The file, within the index directory, recording the modification time
+     * of each indexed directory.
+     */
+    private static final String DIRECTORIES_FILE = "directories.txt";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The most documents a directory's task holds before adding them to the
+     * index.
+     */
+    private static final int BATCH_SIZE = 1000;
     
     private IndexSearcher searcher;
 
     public DirectoryScanningIDResolver(final File indexDir, final File dsRoot) throws IOException {
-        final Directory dir = FSDirectory.open(indexDir);
-        if (indexDir.exists()) {
+        this(indexDir, dsRoot, false);
+    }
+
+    /**
+     * @param incremental whether to bring an existing index up to date
+     *                    rather than use it as it is
+     */
+    public DirectoryScanningIDResolver(final File indexDir, final File dsRoot, final boolean incremental)
+            throws IOException {
+        this(indexDir, dsRoot, incremental, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param incremental whether to bring an existing index up to date
+     *                    rather than use it as it is
+     * @param threads the number of directories to scan at once
+     */
+    public DirectoryScanningIDResolver(final File indexDir, final File dsRoot, final boolean incremental,
+                                       final int threads) throws IOException {
+        final File directoriesFile = new File(indexDir, DIRECTORIES_FILE);
+        if (indexDir.exists() && !incremental) {
             LOGGER.warn("Index exists at \"" + indexDir.getPath() + "\" and will be used.  "
                     + "To clear index, simply delete this directory and re-run the application.");
         } else {
+            final boolean update = indexDir.exists() && directoriesFile.exists();
+            if (indexDir.exists() && !update) {
+                LOGGER.warn("Index at \"" + indexDir.getPath() + "\" records no directories and will be rebuilt.");
+            }
             final Analyzer analyzer = new StandardAnalyzer();
             final IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_3, analyzer);
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-            final IndexWriter writer = new IndexWriter(dir, iwc);
-            LOGGER.info("Builidng an index of all the datastreams in \"" + dsRoot.getPath() + "\"...");
-            indexDatastreams(writer, dsRoot);
-
+            iwc.setOpenMode(update ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE);
+            iwc.setRAMBufferSizeMB(64);
+            final IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
+            final long start = System.currentTimeMillis();
+            LOGGER.info((update ? "Updating the index" : "Builidng an index") + " of all the datastreams in \""
+                    + dsRoot.getPath() + "\"...");
+            final Map<String, Long> previous = update ? readDirectories(directoriesFile) : new HashMap<String, Long>();
+            final Scan scan = new Scan(writer, previous);
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(scan.new DirectoryTask(dsRoot, ""));
+            } finally {
+                pool.shutdown();
+            }
+            int removed = 0;
+            for (final String directory : previous.keySet()) {
+                if (!scan.directories.containsKey(directory)) {
+                    writer.deleteDocuments(new Term("dir", directory));
+                    removed ++;
+                }
+            }
             writer.commit();
             writer.close();
+            writeDirectories(directoriesFile, scan.directories);
+            LOGGER.info("Indexed " + scan.files.get() + " files in " + scan.changed.get() + " of "
+                    + scan.directories.size() + " directories" + (removed > 0 ? ", removing " + removed + "," : "")
+                    + " in " + (System.currentTimeMillis() - start) + "ms.");
         }
 
         final IndexReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
@@ -61,6 +148,7 @@ public class DirectoryScanningIDResolver implements InternalIDResolver {
 
     @Override
     public CachedContent resolveInternalID(final String id) {
+        final long start = RESOLVE_TIMER.start();
         try {
             final TopDocs result = searcher.search(new TermQuery(new Term("file", "info:fedora/" + id.replace('+', '/'))), 2);
             if (result.totalHits == 1) {
@@ -74,19 +162,169 @@ public class DirectoryScanningIDResolver implements InternalIDResolver {
             }
         } catch (final IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            RESOLVE_TIMER.stop(start);
         }
     }
 
-    private void indexDatastreams(final IndexWriter writer, final File f) throws IOException {
-        if (f.isDirectory()) {
-            for (final File child : f.listFiles()) {
-                indexDatastreams(writer, child);
+    /**
+     * The state of one scan of the datastream directory.
+     */
+    private static class Scan {
+
+        private final IndexWriter writer;
+
+        /**
+         * The modification time of each directory as last indexed.
+         */
+        private final Map<String, Long> previous;
+
+        /**
+         * The directories recorded in the previous scan within each directory.
+         */
+        private final Map<String, List<String>> previousChildren = new HashMap<String, List<String>>();
+
+        /**
+         * The modification time of each directory found by this scan.
+         */
+        private final ConcurrentMap<String, Long> directories = new ConcurrentHashMap<String, Long>();
+
+        private final AtomicLong files = new AtomicLong();
+
+        private final AtomicLong changed = new AtomicLong();
+
+        /**
+         * Modification times after this may not reflect every change made in
+         * the same second, depending on the file system's resolution.
+         */
+        private final long settled = System.currentTimeMillis() - 2000;
+
+        Scan(final IndexWriter writer, final Map<String, Long> previous) {
+            this.writer = writer;
+            this.previous = previous;
+            for (final String directory : previous.keySet()) {
+                if (directory.length() > 0) {
+                    final int slash = directory.lastIndexOf('/');
+                    final String parent = slash < 0 ? "" : directory.substring(0, slash);
+                    List<String> children = previousChildren.get(parent);
+                    if (children == null) {
+                        children = new ArrayList<String>();
+                        previousChildren.put(parent, children);
+                    }
+                    children.add(directory);
+                }
             }
-        } else {
-            final Document doc = new Document();
-            doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-            doc.add(new StringField("file", URLDecoder.decode(f.getName(), "UTF-8"), Field.Store.NO));
-            writer.addDocument(doc);
+        }
+
+        /**
+         * Indexes the files in one directory, if it has changed, and then,
+         * in parallel, its subdirectories.
+         */
+        private class DirectoryTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final File directory;
+
+            /**
+             * The path of the directory relative to the datastream directory.
+             */
+            private final String path;
+
+            DirectoryTask(final File directory, final String path) {
+                this.directory = directory;
+                this.path = path;
+            }
+
+            @Override
+            protected void compute() {
+                // read before listing, so a change made while listing is seen by the next scan
+                final long modified = directory.lastModified();
+                final Long indexed = previous.get(path);
+                final List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+                if (indexed != null && indexed == modified) {
+                    final List<String> children = previousChildren.get(path);
+                    if (children != null) {
+                        for (final String child : children) {
+                            subdirectories.add(new DirectoryTask(new File(directory,
+                                    child.substring(child.lastIndexOf('/') + 1)), child));
+                        }
+                    }
+                } else {
+                    final File[] listed = directory.listFiles();
+                    if (listed == null) {
+                        return;
+                    }
+                    final List<Document> documents = new ArrayList<Document>();
+                    try {
+                        if (indexed != null) {
+                            writer.deleteDocuments(new Term("dir", path));
+                        }
+                        for (final File f : listed) {
+                            final String childPath = path.length() == 0 ? f.getName() : path + "/" + f.getName();
+                            if (f.isDirectory()) {
+                                subdirectories.add(new DirectoryTask(f, childPath));
+                            } else {
+                                final Document doc = new Document();
+                                doc.add(new StringField("path", f.getPath(), Field.Store.YES));
+                                doc.add(new StringField("file", URLDecoder.decode(f.getName(), "UTF-8"),
+                                        Field.Store.NO));
+                                doc.add(new StringField("dir", path, Field.Store.NO));
+                                documents.add(doc);
+                                if (documents.size() == BATCH_SIZE) {
+                                    addDocuments(documents);
+                                }
+                            }
+                        }
+                        addDocuments(documents);
+                    } catch (final IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    changed.incrementAndGet();
+                }
+                // a directory modified as it was scanned is scanned again next time
+                directories.put(path, modified > settled ? -1L : modified);
+                invokeAll(subdirectories);
+            }
+
+            private void addDocuments(final List<Document> documents) throws IOException {
+                writer.addDocuments(documents);
+                files.addAndGet(documents.size());
+                documents.clear();
+            }
+        }
+    }
+
+    private static Map<String, Long> readDirectories(final File file) throws IOException {
+        final Map<String, Long> directories = new HashMap<String, Long>();
+        try (final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    directories.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+                }
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Records the modification time of each directory, replacing the file
+     * only once it is complete.
+     */
+    private static void writeDirectories(final File file, final Map<String, Long> directories) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8))) {
+            for (final Map.Entry<String, Long> e : directories.entrySet()) {
+                w.write(e.getValue() + "\t" + e.getKey() + "\n");
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + file.getPath() + ".");
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to rename " + temp.getPath() + " to " + file.getPath() + ".");
         }
     }
 
@@ -17,6 +17,10 @@ public class FileCachedContent implements CachedContent {
         this.file = file;
     }
 
+    public File getFile() {
+        return file;
+    }
+
     @Override
     public InputStream getInputStream() throws IOException {
         if (!file.exists()) {
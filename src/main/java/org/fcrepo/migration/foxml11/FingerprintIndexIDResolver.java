@@ -0,0 +1,373 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Stack;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An InternalIDResolver implementation that, like DirectoryScanningIDResolver,
+ * resolves internal ids through an index of the files in a datastream
+ * directory, but with an exact-match index of its own rather than Lucene's: an
+ * open-addressing hash table of 64-bit fingerprints of the ids in a
+ * memory-mapped file.
+ *
+ * The index file holds a header, then the path (relative to the datastream
+ * directory) of every file, then that of every directory, then the table,
+ * whose slots each hold a
+ * fingerprint, or zero when empty, and the offset of the path of the file
+ * with that fingerprint.  At most half of the slots are filled.  A lookup
+ * probes from the slot given by the fingerprint to the first empty slot,
+ * checking the file name of each path whose fingerprint matches, so a
+ * fingerprint collision can't resolve the wrong file.  Lookups read the
+ * mapped file directly and so may be made from any number of threads.
+ *
+ * The index is built, if the index file doesn't exist, in one pass over the
+ * directory: paths are written as they are found and their fingerprints
+ * spooled to a temporary file, from which the table is then filled.  The
+ * time the scan began is recorded in the header, and an existing index is
+ * rebuilt if any directory it traversed, whether or not it held files, has
+ * been modified since then, as it is when a file or directory is added to or
+ * removed from it.  To rebuild it otherwise, delete the index file.
+ */
+public class FingerprintIndexIDResolver implements InternalIDResolver {
+
+    private static final Logger LOGGER = getLogger(FingerprintIndexIDResolver.class);
+
+    private static final Timer RESOLVE_TIMER = Metrics.timer("resolve.internalId");
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x46584958;
+
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int HEADER_SIZE = 56;
+
+    private static final int SLOT_SIZE = 16;
+
+    private final File dsRoot;
+
+    private final Region region;
+
+    private final long entryCount;
+
+    private final long slotMask;
+
+    private final long tableOffset;
+
+    /**
+     * @param indexFile the index, which is built if it doesn't exist or is
+     *                  out of date
+     * @param dsRoot the datastream directory
+     */
+    public FingerprintIndexIDResolver(final File indexFile, final File dsRoot) throws IOException {
+        this.dsRoot = dsRoot;
+        if (!indexFile.exists()) {
+            build(indexFile, dsRoot);
+        } else if (isCurrent(indexFile, dsRoot)) {
+            LOGGER.info("Index exists at \"" + indexFile.getPath() + "\" and is up to date; it will be used.");
+        } else {
+            if (!indexFile.delete()) {
+                throw new IOException("Unable to delete " + indexFile.getPath() + ".");
+            }
+            build(indexFile, dsRoot);
+        }
+        region = new Region(indexFile, false);
+        if (region.getInt(0) != MAGIC || region.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalStateException(indexFile.getPath() + " is not an index of this format.");
+        }
+        entryCount = region.getLong(8);
+        slotMask = region.getLong(16) - 1;
+        tableOffset = region.getLong(24);
+    }
+
+    /**
+     * Gets the number of files in the index.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public CachedContent resolveInternalID(final String id) {
+        final long start = RESOLVE_TIMER.start();
+        try {
+            final String uri = "info:fedora/" + id.replace('+', '/');
+            final long fingerprint = fingerprint(uri);
+            String found = null;
+            long slot = fingerprint & slotMask;
+            while (true) {
+                final long position = tableOffset + slot * SLOT_SIZE;
+                final long f = region.getLong(position);
+                if (f == 0) {
+                    break;
+                }
+                if (f == fingerprint) {
+                    final String path = readPath(region, region.getLong(position + 8));
+                    if (uri.equals(decodeName(path))) {
+                        if (found != null) {
+                            throw new IllegalStateException("2 files matched the internal id \"" + id + "\".  ("
+                                    + found + ", " + path + ")");
+                        }
+                        found = path;
+                    }
+                }
+                slot = (slot + 1) & slotMask;
+            }
+            return found == null ? null : new FileCachedContent(new File(dsRoot, found));
+        } finally {
+            RESOLVE_TIMER.stop(start);
+        }
+    }
+
+    private static String readPath(final Region region, final long offset) {
+        final int length = (region.get(offset) & 0xff) << 8 | (region.get(offset + 1) & 0xff);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i ++) {
+            bytes[i] = region.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Determines whether the index is of this format and no directory it
+     * traversed has been modified since it was built.
+     */
+    private static boolean isCurrent(final File indexFile, final File dsRoot) throws IOException {
+        final Region region = new Region(indexFile, false);
+        if (region.getInt(0) != MAGIC || region.getInt(4) != FORMAT_VERSION) {
+            LOGGER.warn("Index at \"" + indexFile.getPath() + "\" is of an older format and will be rebuilt.");
+            return false;
+        }
+        final long built = region.getLong(32);
+        final long directoryCount = region.getLong(40);
+        long offset = region.getLong(48);
+        for (long i = 0; i < directoryCount; i ++) {
+            final String path = readPath(region, offset);
+            offset += 2 + path.getBytes(UTF8).length;
+            if (isModified(path.length() == 0 ? dsRoot : new File(dsRoot, path), built, indexFile)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isModified(final File directory, final long built, final File indexFile) {
+        final long modified = directory.lastModified();
+        if (modified == 0 || modified >= built) {
+            LOGGER.warn("\"" + directory.getPath() + "\" has changed since the index at \"" + indexFile.getPath()
+                    + "\" was built; it will be rebuilt.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the URI, as indexed, of the file at the given path.
+     */
+    private static String decodeName(final String path) {
+        try {
+            return URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes a 64-bit fingerprint of the URI (FNV-1a over its characters,
+     * then mixed by MurmurHash3's finalizer so that the low bits, which pick
+     * the slot, depend on every character).  It is never zero.
+     */
+    static long fingerprint(final String uri) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < uri.length(); i ++) {
+            h ^= uri.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Builds the index of the files in the datastream directory.
+     */
+    static void build(final File indexFile, final File dsRoot) throws IOException {
+        final long start = System.currentTimeMillis();
+        // modification times after this may not reflect every change made in the same second
+        final long settled = start - 2000;
+        LOGGER.info("Building an index of all the datastreams in \"" + dsRoot.getPath() + "\"...");
+        final File temp = new File(indexFile.getPath() + ".tmp");
+        final File fingerprints = File.createTempFile("fingerprints", ".bin");
+        final File traversed = File.createTempFile("directories", ".bin");
+        try {
+            long count = 0;
+            long directoryCount = 0;
+            long offset = HEADER_SIZE;
+            final long directoryOffset;
+            try (final DataOutputStream paths = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                try (final DataOutputStream pairs = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(fingerprints), 1 << 16));
+                     final DataOutputStream directoryPaths = new DataOutputStream(
+                             new BufferedOutputStream(new FileOutputStream(traversed), 1 << 16))) {
+                    paths.write(new byte[HEADER_SIZE]);
+                    final Stack<String> directories = new Stack<String>();
+                    directories.push("");
+                    while (!directories.isEmpty()) {
+                        final String relative = directories.pop();
+                        final File[] files
+                                = (relative.length() == 0 ? dsRoot : new File(dsRoot, relative)).listFiles();
+                        if (files == null) {
+                            continue;
+                        }
+                        writePath(directoryPaths, relative);
+                        directoryCount ++;
+                        for (final File f : files) {
+                            final String path = relative.length() == 0 ? f.getName() : relative + "/" + f.getName();
+                            if (f.isDirectory()) {
+                                directories.push(path);
+                            } else {
+                                pairs.writeLong(fingerprint(decodeName(path)));
+                                pairs.writeLong(offset);
+                                offset += writePath(paths, path);
+                                count ++;
+                            }
+                        }
+                    }
+                }
+                directoryOffset = offset;
+                offset += Files.copy(traversed.toPath(), paths);
+            }
+
+            long slots = 2;
+            while (slots < count * 2) {
+                slots <<= 1;
+            }
+            final long tableOffset = (offset + 7) & ~7L;
+            try (final RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+                file.setLength(tableOffset + slots * SLOT_SIZE);
+            }
+            final Region region = new Region(temp, true);
+            region.putInt(0, MAGIC);
+            region.putInt(4, FORMAT_VERSION);
+            region.putLong(8, count);
+            region.putLong(16, slots);
+            region.putLong(24, tableOffset);
+            region.putLong(32, settled);
+            region.putLong(40, directoryCount);
+            region.putLong(48, directoryOffset);
+            try (final DataInputStream pairs = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(fingerprints), 1 << 16))) {
+                for (long i = 0; i < count; i ++) {
+                    final long fingerprint = pairs.readLong();
+                    final long pathOffset = pairs.readLong();
+                    long slot = fingerprint & (slots - 1);
+                    while (region.getLong(tableOffset + slot * SLOT_SIZE) != 0) {
+                        slot = (slot + 1) & (slots - 1);
+                    }
+                    region.putLong(tableOffset + slot * SLOT_SIZE, fingerprint);
+                    region.putLong(tableOffset + slot * SLOT_SIZE + 8, pathOffset);
+                }
+            }
+            region.force();
+            if (!temp.renameTo(indexFile)) {
+                throw new IOException("Unable to rename " + temp.getPath() + " to " + indexFile.getPath() + ".");
+            }
+            LOGGER.info("Indexed " + count + " datastreams in " + (System.currentTimeMillis() - start) + "ms.");
+        } finally {
+            fingerprints.delete();
+            traversed.delete();
+            temp.delete();
+        }
+    }
+
+    /**
+     * Writes a path as its length in UTF-8 bytes followed by those bytes.
+     * @return the number of bytes written
+     */
+    private static int writePath(final DataOutputStream out, final String path) throws IOException {
+        final byte[] bytes = path.getBytes(UTF8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalStateException("The path " + path + " is too long to index.");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        return 2 + bytes.length;
+    }
+
+    /**
+     * A file mapped into memory in as many buffers as its size requires,
+     * read and written at long offsets.  Longs must be aligned to eight
+     * bytes so that none spans two buffers.
+     */
+    private static class Region {
+
+        private static final int CHUNK_BITS = 30;
+
+        private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+        private final MappedByteBuffer[] chunks;
+
+        Region(final File file, final boolean writable) throws IOException {
+            try (final RandomAccessFile f = new RandomAccessFile(file, writable ? "rw" : "r")) {
+                final FileChannel channel = f.getChannel();
+                final long size = channel.size();
+                chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+                for (int i = 0; i < chunks.length; i ++) {
+                    final long position = (long) i << CHUNK_BITS;
+                    chunks[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(CHUNK_MASK + 1, size - position));
+                }
+            }
+        }
+
+        byte get(final long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+        }
+
+        int getInt(final long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+        }
+
+        long getLong(final long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+        }
+
+        void putInt(final long position, final int value) {
+            chunks[(int) (position >>> CHUNK_BITS)].putInt((int) (position & CHUNK_MASK), value);
+        }
+
+        void putLong(final long position, final long value) {
+            chunks[(int) (position >>> CHUNK_BITS)].putLong((int) (position & CHUNK_MASK), value);
+        }
+
+        void force() {
+            for (final MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.fcrepo.migration.foxml11;
 
+import org.apache.commons.io.IOUtils;
 import org.fcrepo.migration.ContentDigest;
 import org.fcrepo.migration.DatastreamInfo;
 import org.fcrepo.migration.DatastreamVersion;
@@ -9,36 +10,30 @@ import org.fcrepo.migration.StreamingFedoraObjectHandler;
 import org.fcrepo.migration.FedoraObjectProcessor;
 import org.fcrepo.migration.ObjectInfo;
 import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
+import org.slf4j.Logger;
 
-import org.apache.commons.codec.binary.Base64OutputStream;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+import javax.xml.XMLConstants;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
-import java.io.ByteArrayOutputStream;
+import javax.xml.stream.util.StreamReaderDelegate;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+
+import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * A FedoraObjectProcessor implementation that uses the STaX API to process
@@ -46,15 +41,105 @@ import java.util.Set;
  */
 public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProcessor {
 
+    private static final Logger LOGGER = getLogger(Foxml11InputStreamFedoraObjectProcessor.class);
+
     private static final String FOXML_11 = "info:fedora/fedora-system:def/foxml#";
 
+    /*
+     * The attributes expected on each element, in the order in which
+     * readAttributes returns their values.
+     */
+
+    private static final String[] OBJECT_ATTRIBUTES = { "PID", "VERSION", "FEDORA_URI", "schemaLocation" };
+
+    private static final String[] DATASTREAM_ATTRIBUTES
+            = { "ID", "CONTROL_GROUP", "FEDORA_URI", "STATE", "VERSIONABLE" };
+
+    private static final String[] VERSION_ATTRIBUTES
+            = { "ID", "LABEL", "CREATED", "MIMETYPE", "ALT_IDS", "FORMAT_URI", "SIZE" };
+
+    private static final String[] DIGEST_ATTRIBUTES = { "TYPE", "DIGEST" };
+
+    private static final String[] LOCATION_ATTRIBUTES = { "REF", "TYPE" };
+
+    private static final Timer OPEN_TIMER = Metrics.timer("foxml.open");
+
+    private static final Timer PARSE_TIMER = Metrics.timer("foxml.parse");
+
+    private static final Timer BASE64_TIMER = Metrics.timer("foxml.base64");
+
+    private static final Counter EXCLUDED_DATASTREAMS = Metrics.counter("foxml.excludedDatastreams");
+
+    private static final Counter EXCLUDED_VERSIONS = Metrics.counter("foxml.excludedVersions");
+
+    /*
+     * The base64 decoder and the window of characters through which text is
+     * passed to it, shared by every object processed on a thread rather than
+     * allocated for each one, since most objects have no binaryContent to
+     * decode while parsing.
+     */
+
+    private static final ThreadLocal<Base64ChannelDecoder> BASE64_DECODER = new ThreadLocal<Base64ChannelDecoder>() {
+        @Override
+        protected Base64ChannelDecoder initialValue() {
+            return new Base64ChannelDecoder();
+        }
+    };
+
+    private static final ThreadLocal<char[]> CHARACTERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[8192];
+        }
+    };
+
     private URLFetcher fetcher;
 
     private InternalIDResolver idResolver;
 
-    private XMLStreamReader reader;
+    /**
+     * The stream from which the FOXML is read, closed along with the reader.
+     */
+    private InputStream in;
+
+    private CountingReader reader;
 
-    private List<File> tempFiles;
+    /**
+     * The spooled inline content of the object, released once the object has
+     * been processed.
+     */
+    private List<SpooledContent> spools;
+
+    private List<InlineBase64Content> inlineContents;
+
+    /**
+     * The values of the attributes of the current element, reused for every
+     * element.
+     */
+    private final String[] attributes = new String[VERSION_ATTRIBUTES.length];
+
+    /**
+     * The file from which the FOXML is read, if known.
+     */
+    private File file;
+
+    /**
+     * A view of the file, opened when first needed, or null if the file is
+     * unknown or can't be read directly.
+     */
+    private FoxmlFileSource source;
+
+    private boolean sourceOpened;
+
+    private DatastreamFilter datastreamFilter;
+
+    /**
+     * The offset in the source file of the content of the xmlContent element
+     * being read, and the depth of that element there.
+     */
+    private long sliceStart;
+
+    private int sliceDepth;
 
     /**
      * The basic object information read from the XML stream at construction
@@ -65,18 +150,44 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
     public Foxml11InputStreamFedoraObjectProcessor(InputStream is, URLFetcher fetcher, InternalIDResolver resolver) throws XMLStreamException {
         this.fetcher = fetcher;
         this.idResolver = resolver;
-        final XMLInputFactory factory = XMLInputFactory.newFactory();
-        reader = factory.createXMLStreamReader(is);
-        reader.nextTag();
-        Map<String, String> attributes = getAttributes(reader, "PID", "VERSION", "FEDORA_URI", "schemaLocation");
-        if (!attributes.get("VERSION").equals("1.1")) {
-            throw new RuntimeException("Only FOXML1.1 is currently supported.");
-        }
-        objectInfo = new DefaultObjectInfo(attributes.get("PID"), attributes.get("FEDORA_URI"));
-        while (reader.next() == XMLStreamConstants.CHARACTERS) {
+        this.in = is;
+        spools = new ArrayList<SpooledContent>();
+        inlineContents = new ArrayList<InlineBase64Content>();
+        final long start = OPEN_TIMER.start();
+        try {
+            reader = new CountingReader(StaxFactoryProvider.getDefault().getInputFactory().createXMLStreamReader(is));
+            reader.nextTag();
+            readAttributes(reader, OBJECT_ATTRIBUTES, attributes);
+            if (!"1.1".equals(attributes[1])) {
+                throw new RuntimeException("Only FOXML1.1 is currently supported.");
+            }
+            objectInfo = new DefaultObjectInfo(attributes[0], attributes[2]);
+            while (reader.next() == XMLStreamConstants.CHARACTERS) {
+            }
+        } catch (XMLStreamException | RuntimeException e) {
+            closeReader();
+            throw e;
         }
+        OPEN_TIMER.stop(start);
+    }
 
-        tempFiles = new ArrayList<File>();
+    /**
+     * Processes FOXML read from a file.  Inline XML content is then copied
+     * directly from the file rather than re-serialized from parsed events,
+     * where the file's encoding permits.
+     */
+    public Foxml11InputStreamFedoraObjectProcessor(File file, URLFetcher fetcher, InternalIDResolver resolver)
+            throws XMLStreamException, FileNotFoundException {
+        this(new FileInputStream(file), fetcher, resolver);
+        this.file = file;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions are read
+     * and given to the handler, or null (the default) to read all of them.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
     }
 
     @Override
@@ -84,11 +195,21 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
         return objectInfo;
     }
 
+    /**
+     * Streams the object to the handler.  If processing fails before the
+     * handler has been asked to complete the object, the handler is asked to
+     * abort it instead.  Either way, the content spooled for the object is
+     * released once processing ends, so the handler must have finished
+     * reading it by then.
+     */
     @Override
-    public void processObject(StreamingFedoraObjectHandler handler) {
-        handler.beginObject(objectInfo);
+    public void processObject(StreamingFedoraObjectHandler streamingHandler) {
+        final long start = PARSE_TIMER.start();
+        final TimedHandler handler = new TimedHandler(streamingHandler);
+        boolean completing = false;
         Foxml11DatastreamInfo dsInfo = null;
         try {
+            handler.beginObject(objectInfo);
             handler.processObjectProperties(readProperties());
             while (reader.hasNext()) {
                 if (reader.isCharacters()) {
@@ -98,21 +219,28 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
                         // skip whitespace...
                     }
                 } else if (reader.isStartElement()) {
-                    if (reader.getLocalName().equals("datastream")
-                            && reader.getNamespaceURI().equals(FOXML_11)) {
+                    final String localName = reader.getLocalName();
+                    if (is(localName, "datastream") && is(reader.getNamespaceURI(), FOXML_11)) {
                         dsInfo = new Foxml11DatastreamInfo(objectInfo, reader);
-                    } else if (reader.getLocalName().equals("datastreamVersion")) {
-                        DatastreamVersion v = new Foxml11DatastreamVersion(dsInfo, reader);
-                        handler.processDatastreamVersion(v);
+                        if (datastreamFilter != null && !datastreamFilter.acceptDatastream(dsInfo)) {
+                            EXCLUDED_DATASTREAMS.increment();
+                            readUntilClosed("datastream", FOXML_11);
+                            dsInfo = null;
+                        }
+                    } else if (is(localName, "datastreamVersion")) {
+                        final Foxml11DatastreamVersion v = new Foxml11DatastreamVersion(dsInfo, reader);
+                        if (!v.excluded) {
+                            handler.processDatastreamVersion(v);
+                        }
                     } else {
                         throw new RuntimeException("Unexpected element! \"" + reader.getLocalName() + "\"!");
                     }
-                } else if (reader.isEndElement() && (dsInfo != null && reader.getLocalName().equals("datastream"))) {
+                } else if (reader.isEndElement() && (dsInfo != null && is(reader.getLocalName(), "datastream"))) {
                     dsInfo = null;
-                } else if (reader.isEndElement() && reader.getLocalName().equals("digitalObject")) {
+                } else if (reader.isEndElement() && is(reader.getLocalName(), "digitalObject")) {
                     // end of document....
+                    completing = true;
                     handler.completeObject(objectInfo);
-                    cleanUpTempFiles();
                 } else {
                     throw new RuntimeException("Unexpected xml structure! \"" + reader.getEventType() + "\" at line "
                             + reader.getLocation().getLineNumber() + ", column " + reader.getLocation().getColumnNumber()
@@ -121,35 +249,332 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
                 reader.next();
             }
 
-        } catch (XMLStreamException | JAXBException e) {
-            handler.abortObject(objectInfo);
-            cleanUpTempFiles();
+        } catch (XMLStreamException e) {
+            if (!completing) {
+                handler.abortObject(objectInfo);
+            }
             throw new RuntimeException(e);
+        } catch (RuntimeException | Error e) {
+            if (!completing) {
+                handler.abortObject(objectInfo);
+            }
+            throw e;
         } finally {
-            try {
+            PARSE_TIMER.record(System.nanoTime() - start - handler.nanos);
+            close();
+        }
+    }
+
+    /**
+     * Releases the content spooled for the object and closes the FOXML,
+     * including the stream from which it is read.  Invoked once the object
+     * has been processed, and by whatever decides not to process it.
+     */
+    @Override
+    public void close() {
+        cleanUpTempFiles();
+        closeReader();
+    }
+
+    private void closeReader() {
+        try {
+            if (reader != null) {
                 reader.close();
-            } catch (XMLStreamException e) {
-                throw new RuntimeException(e);
+            }
+        } catch (XMLStreamException e) {
+            LOGGER.warn("Unable to close the FOXML reader.", e);
+        } finally {
+            reader = null;
+            IOUtils.closeQuietly(in);
+            in = null;
+        }
+    }
+
+    /**
+     * A StreamingFedoraObjectHandler that wraps another to measure the time
+     * spent within it, so that the time spent parsing may be reported apart
+     * from the time spent handling what was parsed.
+     */
+    private static class TimedHandler implements StreamingFedoraObjectHandler {
+
+        private final StreamingFedoraObjectHandler handler;
+
+        private long nanos;
+
+        public TimedHandler(final StreamingFedoraObjectHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void beginObject(final ObjectInfo object) {
+            final long start = System.nanoTime();
+            try {
+                handler.beginObject(object);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void processObjectProperties(final ObjectProperties properties) {
+            final long start = System.nanoTime();
+            try {
+                handler.processObjectProperties(properties);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+            final long start = System.nanoTime();
+            try {
+                handler.processDatastreamVersion(dsVersion);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void completeObject(final ObjectInfo object) {
+            final long start = System.nanoTime();
+            try {
+                handler.completeObject(object);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void abortObject(final ObjectInfo object) {
+            final long start = System.nanoTime();
+            try {
+                handler.abortObject(object);
+            } finally {
+                nanos += System.nanoTime() - start;
             }
         }
     }
 
     private void cleanUpTempFiles() {
-        for (File f : this.tempFiles) {
-            f.delete();
+        for (SpooledContent spool : this.spools) {
+            spool.release();
+        }
+        for (InlineBase64Content content : this.inlineContents) {
+            content.release();
+        }
+        spools.clear();
+        inlineContents.clear();
+        if (source != null) {
+            source.release();
+            source = null;
+        }
+    }
+
+    private ObjectProperties readProperties() throws XMLStreamException {
+        return Foxml11ObjectProperties.read(reader);
+    }
+
+    /**
+     * Passes the text of the current characters event to the base64 decoder
+     * through the reusable character buffer, without creating a String.
+     */
+    private void decodeCharacters(final Base64ChannelDecoder decoder, final char[] characters)
+            throws XMLStreamException, IOException {
+        int start = 0;
+        int length;
+        do {
+            length = reader.getTextCharacters(start, characters, 0, characters.length);
+            decoder.decode(characters, 0, length);
+            start += length;
+        } while (length == characters.length);
+    }
+
+    /**
+     * Determines whether the content of the xmlContent element at which the
+     * reader is positioned may be copied from the source file: whether the
+     * file is known, is UTF-8 encoded and can be opened, and whether the
+     * element's start tag can be found in it.
+     */
+    private boolean canSliceXmlContent() {
+        if (!openSource()) {
+            return false;
+        }
+        try {
+            final long tagStart = source.findStartTag(reader.getElementCount());
+            if (tagStart < 0) {
+                LOGGER.warn("Unable to locate inline XML in " + file.getPath() + ", it will be re-serialized.");
+                return false;
+            }
+            sliceStart = source.tagEnd(tagStart);
+            sliceDepth = source.getDepth();
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Opens the source file, if it is known and UTF-8 encoded and this hasn't
+     * already been attempted.
+     * @return whether the source file is open
+     */
+    private boolean openSource() {
+        if (!sourceOpened) {
+            sourceOpened = true;
+            final String encoding = reader.getEncoding();
+            if (file != null && (encoding == null || encoding.equalsIgnoreCase("UTF-8")
+                    || encoding.equalsIgnoreCase("UTF8") || encoding.equalsIgnoreCase("US-ASCII"))) {
+                try {
+                    source = new FoxmlFileSource(file);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to open " + file.getPath() + ", inline XML will be re-serialized.", e);
+                }
+            }
+        }
+        return source != null;
+    }
+
+    /**
+     * Records the range of the base64 encoded content of the binaryContent
+     * element at which the reader is positioned, to be decoded when read.
+     * The range ends at the first markup after the start tag, which must be
+     * the end tag: content that includes comments, CDATA sections or
+     * references is left to be decoded as it's parsed.
+     * @return the content, or null if it must be decoded while parsing
+     */
+    private InlineBase64Content findBinaryContent() {
+        try {
+            final long tagStart = source.findStartTag(reader.getElementCount());
+            if (tagStart < 0) {
+                return null;
+            }
+            final long start = source.tagEnd(tagStart);
+            final long end = source.findTextEnd();
+            if (end < 0) {
+                return null;
+            }
+            final InlineBase64Content content = new InlineBase64Content(source, start, end);
+            inlineContents.add(content);
+            return content;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies the bytes of the content of the xmlContent element at which the
+     * reader is positioned from the source file, leaving the reader at the
+     * end of the element.  Any namespace prefixes used in the content but
+     * declared outside of it are declared on the top-level elements of the
+     * copy, so that it stands alone.
+     */
+    private CachedContent sliceXmlContent() throws XMLStreamException, IOException {
+        final long start = sliceStart;
+        final List<Long> insertionOffsets = new ArrayList<Long>();
+        final List<String> insertions = new ArrayList<String>();
+        final List<String> declared = new ArrayList<String>();
+        final List<Integer> depthMarks = new ArrayList<Integer>();
+        final List<String> added = new ArrayList<String>();
+        final StringBuilder missing = new StringBuilder();
+        long nameEnd = -1;
+        long end;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (depthMarks.isEmpty()) {
+                    final long tagStart = source.findStartTag(reader.getElementCount());
+                    nameEnd = tagStart < 0 ? -1 : source.endOfName(tagStart + 1);
+                    missing.setLength(0);
+                    added.clear();
+                }
+                depthMarks.add(declared.size());
+                for (int i = 0; i < reader.getNamespaceCount(); i ++) {
+                    declared.add(valueOrEmpty(reader.getNamespacePrefix(i)));
+                }
+                declareIfMissing(reader.getPrefix(), reader.getNamespaceURI(), declared, added, missing);
+                for (int i = 0; i < reader.getAttributeCount(); i ++) {
+                    final String prefix = reader.getAttributePrefix(i);
+                    if (prefix != null && prefix.length() > 0) {
+                        declareIfMissing(prefix, reader.getAttributeNamespace(i), declared, added, missing);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depthMarks.isEmpty()) {
+                    // an empty element, <xmlContent/>, has no end tag
+                    end = source.isEmptyElementTag(start) ? start : source.findEndTag(sliceDepth);
+                    if (end < 0) {
+                        throw new IllegalStateException("Unable to locate the end of inline XML in "
+                                + file.getPath() + ".");
+                    }
+                    break;
+                }
+                final int mark = depthMarks.remove(depthMarks.size() - 1);
+                while (declared.size() > mark) {
+                    declared.remove(declared.size() - 1);
+                }
+                if (depthMarks.isEmpty() && missing.length() > 0) {
+                    if (nameEnd < 0) {
+                        throw new IllegalStateException("Unable to locate an element of inline XML in "
+                                + file.getPath() + ".");
+                    }
+                    insertionOffsets.add(nameEnd);
+                    insertions.add(missing.toString());
+                }
+            }
+        }
+        final SpooledContent spool = new SpooledContent();
+        try {
+            long position = start;
+            for (int i = 0; i < insertions.size(); i ++) {
+                source.copyTo(position, insertionOffsets.get(i), spool);
+                final byte[] declarations = insertions.get(i).getBytes("UTF-8");
+                spool.write(declarations, 0, declarations.length);
+                position = insertionOffsets.get(i);
+            }
+            source.copyTo(position, end, spool);
+            spool.close();
+        } catch (IOException | RuntimeException e) {
+            spool.release();
+            throw e;
+        }
+        // small content is copied out of the spool so that, as it always has
+        // been, it remains available after the object is complete
+        if (spool.isInMemory()) {
+            final byte[] content = spool.toByteArray();
+            spool.release();
+            return new MemoryCachedContent(content);
+        } else {
+            spools.add(spool);
+            return spool;
         }
     }
 
-    private ObjectProperties readProperties() throws JAXBException, XMLStreamException {
-        JAXBContext jc = JAXBContext.newInstance(Foxml11ObjectProperties.class);
-        Unmarshaller unmarshaller = jc.createUnmarshaller();
-        JAXBElement<Foxml11ObjectProperties> p = unmarshaller.unmarshal(reader, Foxml11ObjectProperties.class);
-        return p.getValue();
+    /**
+     * Adds a declaration of the given prefix to missing unless it has
+     * already been declared within the content or added to the current
+     * top-level element.
+     */
+    private static void declareIfMissing(final String prefix, final String namespace, final List<String> declared,
+                                         final List<String> added, final StringBuilder missing) {
+        final String p = valueOrEmpty(prefix);
+        if (namespace == null || namespace.length() == 0 || p.equals(XMLConstants.XML_NS_PREFIX)
+                || declared.contains(p) || added.contains(p)) {
+            return;
+        }
+        added.add(p);
+        missing.append(p.length() == 0 ? " xmlns=\"" : " xmlns:" + p + "=\"")
+                .append(namespace.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;"))
+                .append('"');
+    }
+
+    private static String valueOrEmpty(final String value) {
+        return value == null ? "" : value;
     }
 
     private void readUntilClosed(String name, String namespace) throws XMLStreamException {
         while (reader.hasNext()) {
-            if (reader.isEndElement() && reader.getLocalName().equals(name) && reader.getNamespaceURI().equals(namespace)) {
+            if (reader.isEndElement() && is(reader.getLocalName(), name) && is(reader.getNamespaceURI(), namespace)) {
                 return;
             } else {
                 // skip all other stuff....
@@ -174,13 +599,12 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
 
         public Foxml11DatastreamInfo(ObjectInfo objectInfo, XMLStreamReader reader) {
             this.objectInfo = objectInfo;
-            Map<String, String> attributes
-                    = getAttributes(reader, "ID", "CONTROL_GROUP", "FEDORA_URI", "STATE", "VERSIONABLE");
-            id = attributes.get("ID");
-            controlGroup = attributes.get("CONTROL_GROUP");
-            fedoraUri = attributes.get("FEDORA_URI");
-            state = attributes.get("STATE");
-            versionable = Boolean.valueOf(attributes.get("VERSIONABLE"));
+            readAttributes(reader, DATASTREAM_ATTRIBUTES, attributes);
+            id = attributes[0];
+            controlGroup = attributes[1];
+            fedoraUri = attributes[2];
+            state = attributes[3];
+            versionable = Boolean.valueOf(attributes[4]);
         }
 
         @Override
@@ -228,16 +652,28 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
         private ContentDigest contentDigest;
         private CachedContent dsContent;
 
+        /**
+         * Whether the version was rejected by the datastream filter, in which
+         * case it was skipped without its content being read.
+         */
+        private boolean excluded;
+
         public Foxml11DatastreamVersion(DatastreamInfo dsInfo, XMLStreamReader reader) throws XMLStreamException {
             this.dsInfo = dsInfo;
-            Map<String, String> dsAttributes = getAttributes(reader, "ID", "LABEL", "CREATED", "MIMETYPE", "ALT_IDS", "FORMAT_URI", "SIZE");
-            id = dsAttributes.get("ID");
-            label = dsAttributes.get("LABEL");
-            created = dsAttributes.get("CREATED");
-            mimeType = dsAttributes.get("MIMETYPE");
-            altIds = dsAttributes.get("ALT_IDS");
-            formatUri = dsAttributes.get("FORMAT_URI");
-            size = dsAttributes.containsKey("SIZE") ? Long.parseLong(dsAttributes.get("SIZE")) : -1;
+            readAttributes(reader, VERSION_ATTRIBUTES, attributes);
+            id = attributes[0];
+            label = attributes[1];
+            created = attributes[2];
+            mimeType = attributes[3];
+            altIds = attributes[4];
+            formatUri = attributes[5];
+            size = attributes[6] != null ? Long.parseLong(attributes[6]) : -1;
+            if (datastreamFilter != null && !datastreamFilter.acceptVersion(this)) {
+                EXCLUDED_VERSIONS.increment();
+                excluded = true;
+                readUntilClosed("datastreamVersion", FOXML_11);
+                return;
+            }
             reader.next();
 
             while (reader.hasNext()) {
@@ -249,22 +685,31 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
                     }
                 } else if (reader.isStartElement()) {
                     String localName = reader.getLocalName();
-                    if (localName.equals("contentDigest")) {
-                        Map<String, String> attributes = getAttributes(reader, "TYPE", "DIGEST");
-                        this.contentDigest = new DefaultContentDigest(attributes.get("TYPE"), attributes.get("DIGEST"));
-                    } else if (localName.equals("xmlContent")) {
+                    if (is(localName, "contentDigest")) {
+                        readAttributes(reader, DIGEST_ATTRIBUTES, attributes);
+                        this.contentDigest = new DefaultContentDigest(attributes[0], attributes[1]);
+                    } else if (is(localName, "xmlContent") && canSliceXmlContent()) {
+                        try {
+                            dsContent = sliceXmlContent();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    } else if (is(localName, "xmlContent")) {
                         // this XML fragment may not be valid out of context
                         // context, so write it out as a complete XML
                         // file...
                         reader.next();
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        XMLEventReader eventReader = XMLInputFactory.newFactory().createXMLEventReader(reader);
-                        XMLEventWriter eventWriter = XMLOutputFactory.newFactory().createXMLEventWriter(baos);
+                        final SpooledContent spool = new SpooledContent();
+                        spools.add(spool);
+                        XMLEventReader eventReader = StaxFactoryProvider.getDefault().getInputFactory()
+                                .createXMLEventReader(reader);
+                        XMLEventWriter eventWriter = StaxFactoryProvider.getDefault().getOutputFactory()
+                                .createXMLEventWriter(spool.getOutputStream());
                         while (eventReader.hasNext()) {
                             XMLEvent event = eventReader.nextEvent();
                             if (event.isEndElement()
-                                    && event.asEndElement().getName().getLocalPart().equals("xmlContent")
-                                    && event.asEndElement().getName().getNamespaceURI().equals(FOXML_11)) {
+                                    && is(event.asEndElement().getName().getLocalPart(), "xmlContent")
+                                    && is(event.asEndElement().getName().getNamespaceURI(), FOXML_11)) {
                                 eventWriter.close();
                                 break;
                             } else {
@@ -272,41 +717,70 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
                             }
                         }
                         try {
-                            dsContent = new MemoryCachedContent(new String(baos.toByteArray(), "UTF-8"));
-                        } catch (UnsupportedEncodingException e) {
+                            spool.close();
+                        } catch (IOException e) {
                             throw new RuntimeException(e);
                         }
-                    } else if (localName.equals("contentLocation")) {
-                        Map<String, String> attributes = getAttributes(reader, "REF", "TYPE");
-                        if (attributes.get("TYPE").equals("INTERNAL_ID")) {
-                            dsContent = idResolver.resolveInternalID(attributes.get("REF"));
+                        // small content is copied out of the spool so that,
+                        // as it always has been, it remains available after
+                        // the object is complete
+                        if (spool.isInMemory()) {
+                            dsContent = new MemoryCachedContent(spool.toByteArray());
+                            spool.release();
+                            spools.remove(spool);
+                        } else {
+                            dsContent = spool;
+                        }
+                    } else if (is(localName, "contentLocation")) {
+                        readAttributes(reader, LOCATION_ATTRIBUTES, attributes);
+                        if ("INTERNAL_ID".equals(attributes[1])) {
+                            dsContent = idResolver.resolveInternalID(attributes[0]);
                         } else {
                             try {
-                                dsContent = new URLCachedContent(new URL(attributes.get("REF")), fetcher);
+                                final URL url = new URL(attributes[0]);
+                                if (fetcher instanceof PrefetchingURLFetcher) {
+                                    // fetched while the rest of the object is parsed
+                                    ((PrefetchingURLFetcher) fetcher).prefetch(url);
+                                }
+                                dsContent = new URLCachedContent(url, fetcher);
                             } catch (MalformedURLException e) {
                                 throw new RuntimeException(e);
                             }
                         }
-                    } else if (localName.equals("binaryContent")) {
-                        try {
-                            File f = File.createTempFile("decoded", "file");
-                            tempFiles.add(f);
-                            Base64OutputStream out = new Base64OutputStream(new FileOutputStream(f), false);
+                    } else if (is(localName, "binaryContent")) {
+                        final InlineBase64Content inline = openSource() ? findBinaryContent() : null;
+                        if (inline != null) {
+                            // decoded only if and when it's read
                             while (reader.next() == XMLStreamConstants.CHARACTERS) {
-                                out.write(reader.getText().getBytes("UTF-8"));
+                                continue;
+                            }
+                            dsContent = inline;
+                        } else {
+                            final long start = BASE64_TIMER.start();
+                            try {
+                                final SpooledContent spool = new SpooledContent();
+                                spools.add(spool);
+                                final Base64ChannelDecoder decoder = BASE64_DECODER.get();
+                                final char[] characters = CHARACTERS.get();
+                                decoder.begin(spool);
+                                while (reader.next() == XMLStreamConstants.CHARACTERS) {
+                                    decodeCharacters(decoder, characters);
+                                }
+                                decoder.end();
+                                spool.close();
+                                dsContent = spool;
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            } finally {
+                                BASE64_TIMER.stop(start);
                             }
-                            out.flush();
-                            out.close();
-                            dsContent = new FileCachedContent(f);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
                         }
                         readUntilClosed("binaryContent", FOXML_11);
                     } else {
                         throw new RuntimeException("Unexpected element! \"" + reader.getLocalName() + "\"!");
                     }
                 } else if (reader.isEndElement()) {
-                    if (reader.getLocalName().equals("datastreamVersion")) {
+                    if (is(reader.getLocalName(), "datastreamVersion")) {
                         return;
                     }
                 } else {
@@ -369,22 +843,89 @@ public class Foxml11InputStreamFedoraObjectProcessor implements FedoraObjectProc
             return dsContent.getInputStream();
         }
 
+        /**
+         * Gets the content as it was found in the FOXML: resolved to a file
+         * or URL, held in memory or spooled, or inline and decoded when read.
+         */
+        public CachedContent getCachedContent() {
+            return dsContent;
+        }
+
     }
 
-    private static Map<String, String> getAttributes(XMLStreamReader r, String ... allowedNames) {
-        HashMap<String, String> result = new HashMap<String, String>();
-        Set<String> allowed = new HashSet<String>(Arrays.asList(allowedNames));
+    /**
+     * An XMLStreamReader that counts the start elements it reports, by which
+     * the tags of the current element are found in the source file.  Every
+     * read of the FOXML, including those of the readers and writers that
+     * wrap it, goes through this.
+     */
+    private static class CountingReader extends StreamReaderDelegate {
+
+        private long elements;
+
+        public CountingReader(final XMLStreamReader reader) {
+            super(reader);
+        }
+
+        /**
+         * Gets the number of the current element in document order, counting
+         * from 1 for the root element.
+         */
+        public long getElementCount() {
+            return elements;
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            final int event = super.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                elements ++;
+            }
+            return event;
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            final int event = super.nextTag();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                elements ++;
+            }
+            return event;
+        }
+    }
+
+    /**
+     * Reads the attributes of the current element into values, so that the
+     * value of the attribute names[i] is in values[i], or null if the element
+     * doesn't have that attribute.  Attributes that aren't named are logged
+     * and ignored.  Nothing is allocated, so that the cost of reading objects
+     * with many datastream versions isn't dominated by garbage collection.
+     */
+    private static void readAttributes(final XMLStreamReader r, final String[] names, final String[] values) {
+        for (int j = 0; j < names.length; j ++) {
+            values[j] = null;
+        }
         for (int i = 0; i < r.getAttributeCount(); i ++) {
             final String localName = r.getAttributeLocalName(i);
-            final String value = r.getAttributeValue(i);
-            if (allowed.contains(localName)) {
-                result.put(localName, value);
+            int j = 0;
+            while (j < names.length && !is(localName, names[j])) {
+                j ++;
+            }
+            if (j < names.length) {
+                values[j] = r.getAttributeValue(i);
             } else {
-                System.err.println("Unexpected attribute: " + localName + " = \"" + value + "\"");
+                LOGGER.warn("Unexpected attribute: " + localName + " = \"" + r.getAttributeValue(i) + "\"");
             }
         }
-        return result;
+    }
 
+    /**
+     * Compares a name read from the XML stream with an expected name.  Most
+     * StAX implementations intern the names they return, in which case the
+     * comparison of references succeeds without comparing characters.
+     */
+    private static boolean is(final String name, final String expected) {
+        return name == expected || expected.equals(name);
     }
 
 }
@@ -4,15 +4,22 @@ import org.fcrepo.migration.ObjectProperties;
 import org.fcrepo.migration.ObjectProperty;
 
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
  * An ObjectProperties implementation that is annotated to allow
- * JAXB unmarshalling from a FOXML 1.1 XML file for stream.
+ * JAXB unmarshalling from a FOXML 1.1 XML file for stream, and that
+ * may be read directly from an XMLStreamReader using {@link #read}.
  */
 public class Foxml11ObjectProperties implements ObjectProperties {
 
+    private static final String FOXML_11 = "info:fedora/fedora-system:def/foxml#";
+
     @XmlElement(name="property", namespace="info:fedora/fedora-system:def/foxml#")
     Foxml11ObjectProperty[] properties;
 
@@ -20,4 +27,35 @@ public class Foxml11ObjectProperties implements ObjectProperties {
     public List<? extends ObjectProperty> listProperties() {
         return Arrays.asList(properties);
     }
+
+    /**
+     * Reads the objectProperties element at which the reader is positioned,
+     * without the cost of JAXB.  As with JAXB's unmarshalling from a reader,
+     * the reader is left at the event that follows the end of the element.
+     */
+    public static Foxml11ObjectProperties read(final XMLStreamReader reader) throws XMLStreamException {
+        if (!reader.isStartElement() || !reader.getLocalName().equals("objectProperties")) {
+            throw new RuntimeException("Expected objectProperties element at line "
+                    + reader.getLocation().getLineNumber() + "!");
+        }
+        final List<Foxml11ObjectProperty> list = new ArrayList<Foxml11ObjectProperty>();
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                if (!reader.getLocalName().equals("property") || !FOXML_11.equals(reader.getNamespaceURI())) {
+                    throw new RuntimeException("Unexpected element! \"" + reader.getLocalName() + "\"!");
+                }
+                list.add(new Foxml11ObjectProperty(reader.getAttributeValue(null, "NAME"),
+                        reader.getAttributeValue(null, "VALUE")));
+                if (reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+                    throw new RuntimeException("Unexpected element! \"" + reader.getLocalName() + "\"!");
+                }
+            } else if (reader.isCharacters() && !reader.isWhiteSpace()) {
+                throw new RuntimeException("Unexpected character data! \"" + reader.getText() + "\"");
+            }
+        }
+        reader.next();
+        final Foxml11ObjectProperties result = new Foxml11ObjectProperties();
+        result.properties = list.toArray(new Foxml11ObjectProperty[list.size()]);
+        return result;
+    }
 }
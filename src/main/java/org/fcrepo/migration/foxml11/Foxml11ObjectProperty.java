@@ -16,6 +16,14 @@ public class Foxml11ObjectProperty implements ObjectProperty {
     @XmlAttribute(name="VALUE")
     String value;
 
+    public Foxml11ObjectProperty() {
+    }
+
+    public Foxml11ObjectProperty(final String name, final String value) {
+        this.name = name;
+        this.value = value;
+    }
+
     @Override
     public String getName() {
         return name;
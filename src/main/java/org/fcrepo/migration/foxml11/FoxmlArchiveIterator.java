@@ -0,0 +1,124 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An iteration over the entries of a sequence of archives that exposes them
+ * as FedoraObjectProcessors.  Each entry is expected to be a FOXML 1.1 file.
+ * Entries are read straight from the archive; see ArchiveEntryInputStream for
+ * what happens to an object not processed before the next is opened.
+ */
+public class FoxmlArchiveIterator implements Iterator<FedoraObjectProcessor> {
+
+    private static final Logger LOGGER = getLogger(FoxmlArchiveIterator.class);
+
+    private final List<File> archives;
+
+    private final InternalIDResolver resolver;
+
+    private final URLFetcher fetcher;
+
+    private final int readAheadSize;
+
+    private DatastreamFilter datastreamFilter;
+
+    private ArchiveEntryReader reader;
+
+    /**
+     * The stream of the entry most recently exposed.
+     */
+    private ArchiveEntryInputStream current;
+
+    /**
+     * The name of the next entry, once it has been found.
+     */
+    private String next;
+
+    /**
+     * @param readAheadSize the number of bytes of each archive to read at once
+     */
+    public FoxmlArchiveIterator(final List<File> archives, final InternalIDResolver resolver,
+                                final URLFetcher fetcher, final int readAheadSize) {
+        this.archives = new ArrayList<File>(archives);
+        this.resolver = resolver;
+        this.fetcher = fetcher;
+        this.readAheadSize = readAheadSize;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
+    private boolean advanceToNext() {
+        if (next != null) {
+            return true;
+        }
+        try {
+            if (current != null) {
+                current.detach();
+                current = null;
+            }
+            while (true) {
+                if (reader == null) {
+                    if (archives.isEmpty()) {
+                        return false;
+                    }
+                    final File archive = archives.remove(0);
+                    LOGGER.debug("Reading objects from " + archive.getPath() + ".");
+                    reader = ArchiveEntryReader.open(archive, readAheadSize);
+                }
+                next = reader.nextEntry();
+                if (next != null) {
+                    return true;
+                }
+                reader.close();
+                reader = null;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return advanceToNext();
+    }
+
+    @Override
+    public FedoraObjectProcessor next() {
+        if (!advanceToNext()) {
+            throw new IllegalStateException();
+        }
+        final String name = next;
+        next = null;
+        current = new ArchiveEntryInputStream(reader);
+        try {
+            final Foxml11InputStreamFedoraObjectProcessor processor
+                    = new Foxml11InputStreamFedoraObjectProcessor(current, fetcher, resolver);
+            processor.setDatastreamFilter(datastreamFilter);
+            return processor;
+        } catch (final XMLStreamException e) {
+            throw new RuntimeException("Unable to read " + name + ".", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -1,10 +1,12 @@
 package org.fcrepo.migration.foxml11;
 
 import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,15 +21,21 @@ import java.util.Stack;
  */
 public class FoxmlDirectoryDFSIterator implements Iterator<FedoraObjectProcessor> {
 
+    private static final Timer LIST_TIMER = Metrics.timer("walk.listDirectory");
+
     private List<File> current;
     private Stack<List<File>> stack;
 
     private InternalIDResolver resolver;
     private URLFetcher fetcher;
+
+    private FileFilter fileFilter;
+
+    private DatastreamFilter datastreamFilter;
     
     public FoxmlDirectoryDFSIterator(final File root, final URLFetcher fetcher) {
         stack = new Stack<List<File>>();
-        current = new ArrayList<File>(Arrays.asList(root.listFiles()));
+        current = listFiles(root);
         this.fetcher = fetcher;
     }
 
@@ -36,6 +44,35 @@ public class FoxmlDirectoryDFSIterator implements Iterator<FedoraObjectProcessor
         this.resolver = resolver;
     }
 
+    /**
+     * Iterates over the given files and, depth first, over the contents of
+     * the given directories.
+     */
+    public FoxmlDirectoryDFSIterator(final List<File> files, final InternalIDResolver resolver,
+                                     final URLFetcher fetcher) {
+        stack = new Stack<List<File>>();
+        current = new ArrayList<File>(files);
+        this.resolver = resolver;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Sets a filter that determines which files are exposed.  Files rejected
+     * by the filter are skipped without being opened.  Directories are always
+     * traversed.
+     */
+    public void setFileFilter(final FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
     private boolean advanceToNext() {
         while (current.size() > 0 || stack.size() > 0) {
             if (current.isEmpty()) {
@@ -43,17 +80,29 @@ public class FoxmlDirectoryDFSIterator implements Iterator<FedoraObjectProcessor
             } else {
                 final File first = current.get(0);
                 if (first.isFile()) {
-                    return true;
+                    if (fileFilter == null || fileFilter.accept(first)) {
+                        return true;
+                    }
+                    current.remove(0);
                 } else {
                     final File directory = current.remove(0);
                     stack.push(current);
-                    current = new ArrayList<File>(Arrays.asList(directory.listFiles()));
+                    current = listFiles(directory);
                 }
             }
         }
         return false;
     }
 
+    private static List<File> listFiles(final File directory) {
+        final long start = LIST_TIMER.start();
+        try {
+            return new ArrayList<File>(Arrays.asList(directory.listFiles()));
+        } finally {
+            LIST_TIMER.stop(start);
+        }
+    }
+
     @Override
     public boolean hasNext() {
         return advanceToNext();
@@ -65,7 +114,10 @@ public class FoxmlDirectoryDFSIterator implements Iterator<FedoraObjectProcessor
             throw new IllegalStateException();
         } else {
             try {
-                return new Foxml11InputStreamFedoraObjectProcessor(new FileInputStream(current.remove(0)), fetcher, resolver);
+                final Foxml11InputStreamFedoraObjectProcessor processor
+                        = new Foxml11InputStreamFedoraObjectProcessor(current.remove(0), fetcher, resolver);
+                processor.setDatastreamFilter(datastreamFilter);
+                return processor;
             } catch (final XMLStreamException e) {
                 throw new RuntimeException(e);
             } catch (final FileNotFoundException e) {
@@ -0,0 +1,401 @@
+package org.fcrepo.migration.foxml11;
+
+import org.slf4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A read-only view of a UTF-8 encoded FOXML file, through which the bytes
+ * underlying the elements reported by a StAX reader over the same file may be
+ * found and copied.
+ *
+ * Tags are found by their place in the document rather than by the character
+ * offsets StAX readers report, which the JDK's reader misplaces near its
+ * internal buffer boundaries: the nth start tag in the file, not counting any
+ * within comments, CDATA sections or processing instructions, is that of the
+ * nth element the reader reports.  A cursor scans forward through the markup
+ * of the file, so finding the tags of elements in document order reads the
+ * file once; an earlier element restarts the scan.  A file with a document
+ * type declaration, whose entities might add elements not in its bytes, isn't
+ * scanned.
+ *
+ * The file is read through a FileChannel a window at a time rather than
+ * mapped, so that a run over millions of files isn't limited by the number of
+ * mappings a process may hold, and so that the file is closed as soon as it
+ * is no longer needed: once the source has been released by the processor
+ * that opened it and by any content read from it.
+ */
+class FoxmlFileSource {
+
+    private static final Logger LOGGER = getLogger(FoxmlFileSource.class);
+
+    private static final int WINDOW_SIZE = 32 * 1024;
+
+    /*
+     * The kinds of tag returned by scanTag.
+     */
+
+    private static final int START_TAG = 0;
+
+    private static final int EMPTY_ELEMENT_TAG = 1;
+
+    private static final int END_TAG = 2;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    /**
+     * The bytes of the file from windowStart, through which it is scanned.
+     */
+    private final ByteBuffer window;
+
+    private long windowStart;
+
+    private int references = 1;
+
+    /**
+     * The offset just past the last tag scanned.
+     */
+    private long cursor;
+
+    /**
+     * The offset of the '<' of the last tag scanned.
+     */
+    private long tagStart;
+
+    private int tagKind = -1;
+
+    /**
+     * The number of start tags, including empty-element tags, before the
+     * cursor.
+     */
+    private long startTags;
+
+    /**
+     * The number of elements open at the cursor.
+     */
+    private int depth;
+
+    private boolean unscannable;
+
+    public FoxmlFileSource(final File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        size = channel.size();
+        window = ByteBuffer.allocate((int) Math.min(size, WINDOW_SIZE));
+        window.limit(0);
+    }
+
+    /**
+     * Adds a holder of the source, which must release it once it no longer
+     * reads from it.
+     */
+    public synchronized void retain() {
+        if (references == 0) {
+            throw new IllegalStateException("The FOXML source has been released.");
+        }
+        references ++;
+    }
+
+    /**
+     * Releases the source for one holder, closing the file once every holder
+     * has released it.
+     */
+    public synchronized void release() {
+        if (references > 0 && -- references == 0) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close a FOXML file.", e);
+            }
+        }
+    }
+
+    /**
+     * Finds the start tag of an element.
+     * @param element the number of the element in document order, counting
+     *                from 1 for the root element
+     * @return the offset of the tag's '<', or -1 if it can't be found
+     */
+    public long findStartTag(final long element) throws IOException {
+        if (unscannable) {
+            return -1;
+        }
+        if (element == startTags && (tagKind == START_TAG || tagKind == EMPTY_ELEMENT_TAG)) {
+            return tagStart;
+        }
+        if (element <= startTags) {
+            cursor = 0;
+            startTags = 0;
+            depth = 0;
+            tagKind = -1;
+        }
+        while (startTags < element) {
+            if (scanTag() < 0) {
+                return -1;
+            }
+        }
+        return tagStart;
+    }
+
+    /**
+     * Gets the number of elements open at the cursor, which, just after the
+     * start tag of an element has been found, counts that element unless its
+     * tag is an empty-element tag.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Finds the end tag of an element whose start tag has been found, and
+     * after which no later start tag has been looked for.
+     * @param elementDepth the depth just after the start tag was found
+     * @return the offset of the end tag's '<', or -1 if it can't be found
+     */
+    public long findEndTag(final int elementDepth) throws IOException {
+        if (unscannable || depth < elementDepth) {
+            return -1;
+        }
+        while (depth >= elementDepth) {
+            if (scanTag() < 0) {
+                return -1;
+            }
+        }
+        return tagStart;
+    }
+
+    /**
+     * Finds the end of the text content of the element whose start tag was
+     * the last found, provided that the text is followed directly by the
+     * element's end tag, and moves the cursor there so that the text isn't
+     * scanned again.
+     * @return the offset of the end tag's '<' (or, for an empty-element tag,
+     *         of the end of the tag), or -1 if the content includes markup
+     *         or references
+     */
+    public long findTextEnd() throws IOException {
+        if (unscannable || tagKind < 0 || tagKind == END_TAG) {
+            return -1;
+        }
+        if (tagKind == EMPTY_ELEMENT_TAG) {
+            return cursor;
+        }
+        long i = cursor;
+        while (i < size) {
+            final byte b = get(i);
+            if (b == '&') {
+                return -1;
+            } else if (b == '<') {
+                // in well-formed XML, only the element's own end tag can
+                // directly follow its text
+                if (i + 1 >= size || get(i + 1) != '/') {
+                    return -1;
+                }
+                cursor = i;
+                return i;
+            }
+            i ++;
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the next tag after the cursor, skipping comments, CDATA sections
+     * and processing instructions.
+     * @return the kind of tag, or -1 at the end of the file or on a document
+     *         type declaration
+     */
+    private int scanTag() throws IOException {
+        while (true) {
+            long i = cursor;
+            while (i < size && get(i) != '<') {
+                i ++;
+            }
+            if (i + 1 >= size) {
+                cursor = size;
+                tagKind = -1;
+                return -1;
+            }
+            final byte next = get(i + 1);
+            if (next == '?') {
+                cursor = indexAfter("?>", i + 2);
+            } else if (next == '!' && startsWith(i + 2, "--")) {
+                cursor = indexAfter("-->", i + 4);
+            } else if (next == '!' && startsWith(i + 2, "[CDATA[")) {
+                cursor = indexAfter("]]>", i + 9);
+            } else if (next == '!') {
+                LOGGER.debug("Not scanning a FOXML file with a document type declaration.");
+                unscannable = true;
+                tagKind = -1;
+                return -1;
+            } else {
+                tagStart = i;
+                cursor = tagEnd(i);
+                if (next == '/') {
+                    depth --;
+                    tagKind = END_TAG;
+                } else {
+                    startTags ++;
+                    if (isEmptyElementTag(cursor)) {
+                        tagKind = EMPTY_ELEMENT_TAG;
+                    } else {
+                        depth ++;
+                        tagKind = START_TAG;
+                    }
+                }
+                return tagKind;
+            }
+        }
+    }
+
+    private boolean startsWith(final long offset, final String s) throws IOException {
+        if (offset + s.length() > size) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i ++) {
+            if (get(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the offset just past the first occurrence of s at or after the
+     * given offset, or the length of the file if there is none.
+     */
+    private long indexAfter(final String s, final long from) throws IOException {
+        for (long i = from; i + s.length() <= size; i ++) {
+            if (startsWith(i, s)) {
+                return i + s.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the offset just past the '>' of the tag beginning at the given
+     * offset.
+     */
+    public long tagEnd(final long tagStart) throws IOException {
+        byte quote = 0;
+        for (long i = tagStart; i < size; i ++) {
+            final byte b = get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Determines whether the tag ending just before the given offset is an
+     * empty-element tag, such as &lt;a/&gt;.
+     */
+    public boolean isEmptyElementTag(final long tagEnd) throws IOException {
+        return tagEnd >= 2 && get(tagEnd - 2) == '/';
+    }
+
+    /**
+     * Gets the offset of the first byte, at or after the given offset, that
+     * ends a name in a tag.
+     */
+    public long endOfName(final long from) throws IOException {
+        long i = from;
+        while (i < size) {
+            final byte b = get(i);
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>') {
+                break;
+            }
+            i ++;
+        }
+        return i;
+    }
+
+    private byte get(final long position) throws IOException {
+        long i = position - windowStart;
+        if (i < 0 || i >= window.limit()) {
+            // start a little before the position, for tags just behind it
+            windowStart = Math.max(0, position - window.capacity() / 8);
+            window.clear();
+            int read = 0;
+            while (window.hasRemaining() && read >= 0) {
+                read = channel.read(window, windowStart + window.position());
+            }
+            window.flip();
+            i = position - windowStart;
+            if (i >= window.limit()) {
+                throw new EOFException("Unexpected end of FOXML file at " + position + ".");
+            }
+        }
+        return window.get((int) i);
+    }
+
+    /**
+     * Writes the bytes from start (inclusive) to end (exclusive) to the
+     * given channel.
+     */
+    public void copyTo(final long start, final long end, final WritableByteChannel target) throws IOException {
+        long position = start;
+        while (position < end) {
+            final long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of FOXML file at " + position + ".");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Gets an InputStream over the bytes from start (inclusive) to end
+     * (exclusive).  It reads the file independently of any other, so may be
+     * used by any thread while the source is held.
+     */
+    public InputStream newInputStream(final long start, final long end) {
+        return new InputStream() {
+
+            private long position = start;
+
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                final int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of FOXML file at " + position + ".");
+                }
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        };
+    }
+}
@@ -1,24 +1,430 @@
 package org.fcrepo.migration.foxml11;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
+import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class HttpClientURLFetcher implements URLFetcher {
+import static org.slf4j.LoggerFactory.getLogger;
 
-    CloseableHttpClient httpClient;
+/**
+ * A URLFetcher that fetches content with a shared, pooled HttpClient.
+ *
+ * At most maxPerHost connections are made to any one host and maxTotal
+ * altogether, so content from one image server may be fetched by several
+ * workers at once.  Connecting and each read are bounded by timeouts, and a
+ * request that fails to connect or is answered with a server error (5xx) is
+ * retried up to maxRetries times, waiting retryDelayMillis longer before each
+ * retry.  Any other unsuccessful response is an IOException.  The connection
+ * is returned to the pool when the stream returned is closed.  Conditional
+ * requests, with If-None-Match and If-Modified-Since, are supported.
+ *
+ * When prefetchThreads is positive, content may be fetched in the background
+ * (see {@link PrefetchingURLFetcher}) into spooled content, of which at most
+ * maxPrefetched are kept waiting to be asked for; the oldest are discarded
+ * beyond that.
+ *
+ * The client is created when first used, so configure the fetcher before
+ * then.  Call close to release its connections and any prefetched content.
+ */
+public class HttpClientURLFetcher implements PrefetchingURLFetcher, ConditionalURLFetcher, Closeable {
 
-    public HttpClientURLFetcher() {
-        httpClient = HttpClients.createDefault();
+    private static final Logger LOGGER = getLogger(HttpClientURLFetcher.class);
+
+    private static final Timer FETCH_TIMER = Metrics.timer("url.fetch");
+
+    private static final Counter RETRIES = Metrics.counter("url.retries");
+
+    private static final Counter PREFETCH_HITS = Metrics.counter("url.prefetchHits");
+
+    private static final Counter PREFETCH_DISCARDS = Metrics.counter("url.prefetchDiscards");
+
+    private int maxTotal = 64;
+
+    private int maxPerHost = 8;
+
+    private int connectTimeoutMillis = 10000;
+
+    private int socketTimeoutMillis = 60000;
+
+    private int maxRetries = 3;
+
+    private long retryDelayMillis = 1000;
+
+    private int prefetchThreads;
+
+    private int maxPrefetched = 32;
+
+    private CloseableHttpClient httpClient;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private ExecutorService prefetchExecutor;
+
+    /**
+     * Prefetched content by URL, oldest first.
+     */
+    private final Map<String, Future<SpooledContent>> prefetched = new LinkedHashMap<String, Future<SpooledContent>>();
+
+    /**
+     * Sets the maximum number of connections open at once (64 by default).
+     */
+    public void setMaxTotal(final int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * Sets the maximum number of connections open at once to any one host
+     * (8 by default).
+     */
+    public void setMaxPerHost(final int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    public void setConnectTimeoutMillis(final int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Sets the longest time to wait for data while reading (60 seconds by
+     * default).
+     */
+    public void setSocketTimeoutMillis(final int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    /**
+     * Sets the number of times a failed request is retried (3 by default).
+     */
+    public void setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Sets the time waited before the first retry, which grows by as much
+     * again before each subsequent one.
+     */
+    public void setRetryDelayMillis(final long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Sets the number of threads that prefetch content, or 0 (the default)
+     * to ignore requests to prefetch.
+     */
+    public void setPrefetchThreads(final int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    /**
+     * Sets the number of prefetched contents kept waiting to be asked for
+     * (32 by default).
+     */
+    public void setMaxPrefetched(final int maxPrefetched) {
+        this.maxPrefetched = maxPrefetched;
+    }
+
+    private synchronized CloseableHttpClient getClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxTotal);
+            connectionManager.setDefaultMaxPerRoute(maxPerHost);
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(connectTimeoutMillis)
+                            .setSocketTimeout(socketTimeoutMillis)
+                            .build())
+                    .disableAutomaticRetries()
+                    .build();
+        }
+        return httpClient;
     }
 
     @Override
-    public InputStream getContentAtUrl(URL url) throws IOException {
-        return httpClient.execute(new HttpGet(String.valueOf(url))).getEntity().getContent();
+    public InputStream getContentAtUrl(final URL url) throws IOException {
+        final Future<SpooledContent> future;
+        synchronized (prefetched) {
+            future = prefetched.remove(String.valueOf(url));
+        }
+        if (future != null) {
+            try {
+                final SpooledContent content = future.get();
+                PREFETCH_HITS.increment();
+                return new FilterInputStream(content.getInputStream()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            content.release();
+                        }
+                    }
+                };
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + url + ".");
+            } catch (ExecutionException e) {
+                LOGGER.debug("Prefetching " + url + " failed, it will be fetched again.", e.getCause());
+            }
+        }
+        return fetch(url, null, null).getContent();
+    }
+
+    @Override
+    public ConditionalResponse getContentAtUrlIfModified(final URL url, final String etag, final String lastModified)
+            throws IOException {
+        return fetch(url, etag, lastModified);
+    }
+
+    /**
+     * Fetches the content at the URL, if it doesn't match the given
+     * validators, retrying failures.
+     */
+    private ConditionalResponse fetch(final URL url, final String etag, final String lastModified)
+            throws IOException {
+        final long start = FETCH_TIMER.start();
+        try {
+            int attempt = 0;
+            while (true) {
+                IOException failure;
+                CloseableHttpResponse response = null;
+                try {
+                    final HttpGet get = new HttpGet(String.valueOf(url));
+                    if (etag != null) {
+                        get.setHeader("If-None-Match", etag);
+                    }
+                    if (lastModified != null) {
+                        get.setHeader("If-Modified-Since", lastModified);
+                    }
+                    response = getClient().execute(get);
+                    failure = null;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    failure = e;
+                }
+                if (response != null) {
+                    // the response is closed here unless a ResponseInputStream has taken it over
+                    boolean handedOff = false;
+                    try {
+                        final int status = response.getStatusLine().getStatusCode();
+                        if (status == 304 && (etag != null || lastModified != null)) {
+                            return new ConditionalResponse(null, etag, lastModified);
+                        }
+                        if (status >= 200 && status < 300) {
+                            final HttpEntity entity = response.getEntity();
+                            final InputStream content;
+                            if (entity == null) {
+                                content = new ByteArrayInputStream(new byte[0]);
+                            } else {
+                                content = new ResponseInputStream(response, entity.getContent());
+                                handedOff = true;
+                            }
+                            return new ConditionalResponse(content, header(response, "ETag"),
+                                    header(response, "Last-Modified"));
+                        }
+                        EntityUtils.consumeQuietly(response.getEntity());
+                        failure = new IOException("Unable to fetch " + url + ": " + response.getStatusLine() + ".");
+                        if (status < 500) {
+                            throw failure;
+                        }
+                    } finally {
+                        if (!handedOff) {
+                            response.close();
+                        }
+                    }
+                }
+                if (attempt >= maxRetries) {
+                    throw failure;
+                }
+                attempt ++;
+                RETRIES.increment();
+                LOGGER.debug("Retrying " + url + " (attempt " + attempt + " of " + maxRetries + ").", failure);
+                try {
+                    Thread.sleep(retryDelayMillis * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + url + ".");
+                }
+            }
+        } finally {
+            FETCH_TIMER.stop(start);
+        }
+    }
+
+    private static String header(final CloseableHttpResponse response, final String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    @Override
+    public void prefetch(final URL url) {
+        if (prefetchThreads <= 0) {
+            return;
+        }
+        final String key = String.valueOf(url);
+        final List<Future<SpooledContent>> discarded = new ArrayList<Future<SpooledContent>>();
+        synchronized (prefetched) {
+            if (prefetched.containsKey(key)) {
+                return;
+            }
+            prefetched.put(key, getPrefetchExecutor().submit(new Callable<SpooledContent>() {
+                @Override
+                public SpooledContent call() throws IOException {
+                    return spool(url);
+                }
+            }));
+            final Iterator<Future<SpooledContent>> i = prefetched.values().iterator();
+            while (prefetched.size() > maxPrefetched) {
+                discarded.add(i.next());
+                i.remove();
+            }
+        }
+        for (final Future<SpooledContent> f : discarded) {
+            PREFETCH_DISCARDS.increment();
+            discard(f);
+        }
+    }
+
+    private SpooledContent spool(final URL url) throws IOException {
+        final SpooledContent content = new SpooledContent();
+        try (final InputStream in = fetch(url, null, null).getContent()) {
+            final OutputStream out = content.getOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            return content;
+        } catch (IOException | RuntimeException e) {
+            content.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases prefetched content that won't be asked for, once it has been
+     * fetched if it is being fetched now.
+     */
+    private void discard(final Future<SpooledContent> future) {
+        if (future.cancel(false)) {
+            return;
+        }
+        if (future.isDone()) {
+            release(future);
+        } else {
+            getPrefetchExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    release(future);
+                }
+            });
+        }
+    }
+
+    private static void release(final Future<SpooledContent> future) {
+        try {
+            future.get().release();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // nothing was spooled
+        }
+    }
+
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "url-prefetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Discards any prefetched content and closes the client's connections.
+     */
+    @Override
+    public void close() throws IOException {
+        final List<Future<SpooledContent>> discarded;
+        synchronized (prefetched) {
+            discarded = new ArrayList<Future<SpooledContent>>(prefetched.values());
+            prefetched.clear();
+        }
+        for (final Future<SpooledContent> f : discarded) {
+            discard(f);
+        }
+        synchronized (this) {
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdown();
+                prefetchExecutor = null;
+            }
+            if (httpClient != null) {
+                httpClient.close();
+                httpClient = null;
+                connectionManager = null;
+            }
+        }
+    }
+
+    /**
+     * The content of a response, which returns the connection to the pool
+     * when closed.
+     */
+    private static class ResponseInputStream extends FilterInputStream {
+
+        private final CloseableHttpResponse response;
+
+        ResponseInputStream(final CloseableHttpResponse response, final InputStream content) {
+            super(content);
+            this.response = response;
+        }
 
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                response.close();
+            }
+        }
     }
 }
@@ -0,0 +1,115 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A CachedContent implementation for base64 encoded content inline in a FOXML
+ * file.  Only the range of the encoded bytes is recorded while parsing; the
+ * content is decoded from the file each time it is read, so content that is
+ * never read costs nothing beyond parsing.
+ *
+ * Like content decoded while parsing, it is no longer available once the
+ * object has been processed, unless it has been retained, in which case the
+ * file stays open until each retention has been released.
+ *
+ * The time spent reading each stream of decoded content is recorded, as one
+ * execution when the stream is closed, by the same "foxml.base64" timer that
+ * records content decoded while parsing.
+ */
+public class InlineBase64Content implements CachedContent {
+
+    private static final Timer BASE64_TIMER = Metrics.timer("foxml.base64");
+
+    private final FoxmlFileSource source;
+
+    private final long start;
+
+    private final long end;
+
+    private int references = 1;
+
+    InlineBase64Content(final FoxmlFileSource source, final long start, final long end) {
+        source.retain();
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gets the number of bytes of encoded content.
+     */
+    public long getEncodedSize() {
+        return end - start;
+    }
+
+    /**
+     * Keeps the content available after its object has been processed, until
+     * release has been called once more for each call to this.
+     */
+    public synchronized void retain() {
+        if (references == 0) {
+            throw new IllegalStateException("Cached content is not available.");
+        }
+        references ++;
+    }
+
+    /**
+     * Releases the content for one holder.  Once released by every holder, it
+     * is no longer available.
+     */
+    public synchronized void release() {
+        if (references > 0 && -- references == 0) {
+            source.release();
+        }
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (references == 0) {
+            throw new IllegalStateException("Cached content is not available.");
+        }
+        return new TimedBase64InputStream(source.newInputStream(start, end));
+    }
+
+    /**
+     * A Base64InputStream that adds up the time spent in its reads and records
+     * it once closed.
+     */
+    private static class TimedBase64InputStream extends Base64InputStream {
+
+        private long nanos;
+
+        private boolean closed;
+
+        TimedBase64InputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(final byte[] b, final int offset, final int len) throws IOException {
+            final long start = BASE64_TIMER.start();
+            try {
+                return super.read(b, offset, len);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    BASE64_TIMER.record(nanos);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.MigrationTrackingFedoraObjectProcessor;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.fcrepo.migration.partition.DirectoryLeaseFile;
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An ObjectSource over a directory of FOXML files (either a fedora 3
+ * objectStore or a directory of archive exports) that is shared by several
+ * migration processes, which divide the work dynamically by claiming leases
+ * on its directories through a DirectoryLeaseFile.
+ *
+ * Each subdirectory of the root is one unit of work, and any FOXML files
+ * directly within the root together form one further unit, named ".".  A
+ * process claims a unit, exposes every FOXML file beneath it and then claims
+ * another, so faster processes end up doing more of the work.  The objects
+ * are MigrationTrackingFedoraObjectProcessors, and a unit is recorded as done
+ * only once every one of its objects has been handed out and then recorded as
+ * migrated, whether by being ingested or by being skipped as migrated by an
+ * earlier run.  Should any object fail or be closed without having been
+ * migrated, the unit's lease be lost, or the migration stop early, the unit
+ * is left leased.  To recover from a process
+ * that fails part way through its units, set a lease timeout, so that units
+ * left leased are reclaimed, and configure a CompletedObjectJournal so that
+ * the objects of a reclaimed unit that were already migrated are skipped.
+ */
+public class LeasedFoxmlDirectoryObjectSource implements ObjectSource {
+
+    private static final Logger LOGGER = getLogger(LeasedFoxmlDirectoryObjectSource.class);
+
+    private static final String ROOT_UNIT = ".";
+
+    private File root;
+
+    private DirectoryLeaseFile leases;
+
+    private InternalIDResolver resolver;
+
+    private URLFetcher fetcher;
+
+    private FileFilter fileFilter;
+
+    private DatastreamFilter datastreamFilter;
+
+    /**
+     * @param root the directory containing the FOXML files
+     * @param leases the lease file, which must not be within the root
+     */
+    public LeasedFoxmlDirectoryObjectSource(final File root, final DirectoryLeaseFile leases) {
+        this.root = root;
+        this.leases = leases;
+        this.fetcher = new HttpClientURLFetcher();
+    }
+
+    /**
+     * Sets the resolver for internally managed datastream content, which is
+     * required when the root is a fedora 3 objectStore.
+     */
+    public void setResolver(final InternalIDResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public void setFetcher(final URLFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Sets a filter that determines which FOXML files are exposed.  Files
+     * rejected by the filter are never opened.
+     */
+    public void setFileFilter(final FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.  Those rejected are skipped by the parser.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
+    @Override
+    public Iterator<FedoraObjectProcessor> iterator() {
+        final List<String> units = new ArrayList<String>();
+        final List<File> rootFiles = new ArrayList<File>();
+        for (final File f : root.listFiles()) {
+            if (f.isDirectory()) {
+                units.add(f.getName());
+            } else {
+                rootFiles.add(f);
+            }
+        }
+        Collections.sort(units);
+        if (!rootFiles.isEmpty()) {
+            units.add(ROOT_UNIT);
+        }
+        return new LeasingIterator(units, rootFiles);
+    }
+
+    private class LeasingIterator implements Iterator<FedoraObjectProcessor> {
+
+        private final List<String> units;
+
+        private final List<File> rootFiles;
+
+        private Unit unit;
+
+        private FoxmlDirectoryDFSIterator objects;
+
+        /**
+         * Set once any object has failed, after which no unit is recorded as
+         * done, as the objects closed unprocessed once a migration has failed
+         * haven't been migrated.
+         */
+        private volatile boolean failed;
+
+        private long lastRenewal;
+
+        public LeasingIterator(final List<String> units, final List<File> rootFiles) {
+            this.units = units;
+            this.rootFiles = rootFiles;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (true) {
+                    if (objects != null) {
+                        if (objects.hasNext() && renewIfNeeded()) {
+                            return true;
+                        }
+                        unit.handedOut();
+                        objects = null;
+                        unit = null;
+                    }
+                    final String name = leases.claim(units);
+                    if (name == null) {
+                        return false;
+                    }
+                    LOGGER.info(leases.getOwner() + " claimed directory \"" + name + "\".");
+                    unit = new Unit(name);
+                    lastRenewal = System.currentTimeMillis();
+                    objects = new FoxmlDirectoryDFSIterator(ROOT_UNIT.equals(name)
+                            ? rootFiles : Collections.singletonList(new File(root, name)), resolver, fetcher);
+                    objects.setFileFilter(fileFilter);
+                    objects.setDatastreamFilter(datastreamFilter);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to update lease file.", e);
+            }
+        }
+
+        /**
+         * Renews the lease on the current unit once a third of the lease
+         * timeout has passed since it was last renewed.
+         * @return false if the lease was lost to another owner
+         */
+        private boolean renewIfNeeded() throws IOException {
+            final long timeout = leases.getLeaseTimeoutMillis();
+            if (timeout <= 0 || System.currentTimeMillis() - lastRenewal < timeout / 3) {
+                return true;
+            }
+            if (leases.renew(unit.name)) {
+                lastRenewal = System.currentTimeMillis();
+                return true;
+            }
+            LOGGER.warn("The lease on directory \"" + unit.name + "\" was lost; leaving its remaining objects.");
+            unit.abandon();
+            return false;
+        }
+
+        @Override
+        public FedoraObjectProcessor next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            unit.add();
+            return new LeasedObject(objects.next(), unit);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * A claimed unit of work, which counts its objects that have been
+         * handed out but not yet migrated.
+         */
+        private class Unit {
+
+            private final String name;
+
+            private int outstanding;
+
+            private boolean handedOut;
+
+            private boolean abandoned;
+
+            public Unit(final String name) {
+                this.name = name;
+            }
+
+            public synchronized void add() {
+                outstanding ++;
+            }
+
+            /**
+             * Notes that every object of the unit has been handed out.
+             */
+            public synchronized void handedOut() {
+                handedOut = true;
+                completeIfDone();
+            }
+
+            /**
+             * Notes that the unit won't be completed here.
+             */
+            public synchronized void abandon() {
+                abandoned = true;
+            }
+
+            /**
+             * Notes that one of the unit's objects has been migrated, or
+             * won't be.
+             */
+            public synchronized void finish() {
+                outstanding --;
+                completeIfDone();
+            }
+
+            private void completeIfDone() {
+                if (!handedOut || outstanding > 0 || abandoned || failed) {
+                    return;
+                }
+                abandoned = true;
+                try {
+                    if (leases.complete(name)) {
+                        LOGGER.info("Finished directory \"" + name + "\".");
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Unable to record directory \"" + name + "\" as done; it will be reclaimed "
+                            + "once its lease expires.", e);
+                }
+            }
+        }
+
+        /**
+         * A MigrationTrackingFedoraObjectProcessor that tells its unit once
+         * it has been migrated.  Should processing or ingest fail, it marks
+         * the migration as failed; should it be closed without having been
+         * migrated, it abandons its unit.
+         */
+        private class LeasedObject implements MigrationTrackingFedoraObjectProcessor {
+
+            private final FedoraObjectProcessor object;
+
+            private final Unit unit;
+
+            private boolean finished;
+
+            public LeasedObject(final FedoraObjectProcessor object, final Unit unit) {
+                this.object = object;
+                this.unit = unit;
+            }
+
+            @Override
+            public ObjectInfo getObjectInfo() {
+                return object.getObjectInfo();
+            }
+
+            @Override
+            public void processObject(final StreamingFedoraObjectHandler handler) throws XMLStreamException {
+                boolean processed = false;
+                try {
+                    object.processObject(handler);
+                    processed = true;
+                } finally {
+                    if (!processed) {
+                        notMigrated();
+                    }
+                }
+            }
+
+            @Override
+            public void migrated() {
+                finish(false);
+            }
+
+            @Override
+            public void notMigrated() {
+                failed = true;
+                finish(true);
+            }
+
+            @Override
+            public void close() {
+                try {
+                    object.close();
+                } finally {
+                    finish(true);
+                }
+            }
+
+            /**
+             * Tells the unit, the first time only, that this object has been
+             * migrated or, if abandon is set, that it won't be.
+             */
+            private synchronized void finish(final boolean abandon) {
+                if (!finished) {
+                    finished = true;
+                    if (abandon) {
+                        unit.abandon();
+                    }
+                    unit.finish();
+                }
+            }
+        }
+    }
+}
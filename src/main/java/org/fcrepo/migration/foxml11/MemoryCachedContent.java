@@ -3,21 +3,30 @@ package org.fcrepo.migration.foxml11;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 
 /**
  * A CachedContent implementation that stores the entirety of the content
- * in memory as String.
+ * in memory as bytes.
  */
 public class MemoryCachedContent implements CachedContent {
 
-    private String content;
+    private byte[] content;
 
     public MemoryCachedContent(String content) {
+        try {
+            this.content = content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public MemoryCachedContent(byte[] content) {
         this.content = content;
     }
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+        return new ByteArrayInputStream(content);
     }
 }
@@ -5,9 +5,12 @@ import org.fcrepo.migration.ObjectSource;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -20,12 +23,18 @@ import java.util.Stack;
 
 public class NativeFoxmlDirectoryObjectSource implements ObjectSource {
 
+    private static final String FEDORA_URI_PREFIX = "info:fedora/";
+
     private InternalIDResolver resolver;
 
     private URLFetcher fetcher;
 
     private File root;
 
+    private FileFilter fileFilter;
+
+    private DatastreamFilter datastreamFilter;
+
     /**
      * A constructor for use with the data storage directories that underly a
      * fedora 3.x repository.  First, this constructor will build an index of
@@ -45,9 +54,54 @@ public class NativeFoxmlDirectoryObjectSource implements ObjectSource {
         this.fetcher = fetcher;
     }
 
+    /**
+     * Sets a filter that determines which FOXML files are exposed.  Files
+     * rejected by the filter are never opened.
+     */
+    public void setFileFilter(final FileFilter fileFilter) {
+        this.fileFilter = fileFilter;
+    }
+
+    public FileFilter getFileFilter() {
+        return fileFilter;
+    }
+
+    /**
+     * Sets a filter that determines which datastreams and versions of each
+     * object are read.  Those rejected are skipped by the parser.
+     */
+    public void setDatastreamFilter(final DatastreamFilter datastreamFilter) {
+        this.datastreamFilter = datastreamFilter;
+    }
+
     @Override
     public Iterator<FedoraObjectProcessor> iterator() {
-        return new FoxmlDirectoryDFSIterator(root, resolver, fetcher);
+        final FoxmlDirectoryDFSIterator i = new FoxmlDirectoryDFSIterator(root, resolver, fetcher);
+        i.setFileFilter(fileFilter);
+        i.setDatastreamFilter(datastreamFilter);
+        return i;
     }
-    
+
+    /**
+     * Gets the PID of the object whose FOXML is stored in a file with the
+     * given name in a fedora 3 objectStore.  Such files are named with the
+     * URL-encoded fedora URI of the object, for example
+     * "info%3Afedora%2Fexample%3A1".
+     * @param fileName the name of a file in an objectStore
+     * @return the PID or null if the name isn't of the expected form
+     */
+    public static String getPidFromFileName(final String fileName) {
+        try {
+            final String uri = URLDecoder.decode(fileName, "UTF-8");
+            if (uri.startsWith(FEDORA_URI_PREFIX) && uri.indexOf(':', FEDORA_URI_PREFIX.length()) > 0) {
+                return uri.substring(FEDORA_URI_PREFIX.length());
+            }
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -0,0 +1,19 @@
+package org.fcrepo.migration.foxml11;
+
+import java.net.URL;
+
+/**
+ * A URLFetcher that can begin fetching content before it is asked for, so
+ * that the content of externally referenced datastreams may be fetched while
+ * the rest of an object is still being parsed.
+ */
+public interface PrefetchingURLFetcher extends URLFetcher {
+
+    /**
+     * Begins fetching the content at the URL in the background, so that a
+     * later call to getContentAtUrl for it need not wait.  This is only a
+     * hint: it may be ignored, and content fetched but never asked for is
+     * eventually discarded.
+     */
+    public void prefetch(URL url);
+}
@@ -0,0 +1,126 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * The memory, shared by every SpooledContent in the process, in which content
+ * is held until it overflows to disk.
+ *
+ * Memory is handed out in fixed-size chunks, which are recycled when the
+ * content that held them is released.  No more than memoryBudget bytes of
+ * chunks are held at once, however many objects are being processed: content
+ * that can't get a chunk overflows to a temporary file, as does any single
+ * content that grows past memoryThreshold bytes.
+ *
+ * The default pool, used unless another is given, may be configured in Spring
+ * with factory-method="getDefault".
+ */
+public class SpoolMemoryPool {
+
+    private static final SpoolMemoryPool DEFAULT = new SpoolMemoryPool();
+
+    private static final Counter OVERFLOWS = Metrics.counter("spool.overflow");
+
+    private final int chunkSize;
+
+    private long memoryBudget = 64 * 1024 * 1024;
+
+    private int memoryThreshold = 256 * 1024;
+
+    private File directory;
+
+    private long allocated;
+
+    private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+    public SpoolMemoryPool() {
+        this(8192);
+    }
+
+    public SpoolMemoryPool(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the pool used by SpooledContent unless another is given.
+     */
+    public static SpoolMemoryPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the greatest number of bytes of memory held by all spooled content
+     * at once.
+     */
+    public synchronized void setMemoryBudget(final long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        while (!free.isEmpty() && allocated + (long) free.size() * chunkSize > memoryBudget) {
+            free.pop();
+        }
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the size beyond which any single content is spooled to disk.
+     */
+    public void setMemoryThreshold(final int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public int getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * Sets the directory in which to create temporary files, or null (the
+     * default) for the system's temporary directory.
+     */
+    public void setDirectory(final File directory) {
+        this.directory = directory;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the number of bytes of memory currently held by spooled content.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * Gets a chunk of memory, or null if the budget is exhausted.
+     */
+    synchronized byte[] acquire() {
+        if (allocated + chunkSize > memoryBudget) {
+            return null;
+        }
+        allocated += chunkSize;
+        return free.isEmpty() ? new byte[chunkSize] : free.pop();
+    }
+
+    /**
+     * Returns a chunk obtained from {@link #acquire}.
+     */
+    synchronized void release(final byte[] chunk) {
+        allocated -= chunkSize;
+        if (allocated + (long) (free.size() + 1) * chunkSize <= memoryBudget) {
+            free.push(chunk);
+        }
+    }
+
+    File createTempFile() throws IOException {
+        OVERFLOWS.increment();
+        return File.createTempFile("spooled", "file", directory);
+    }
+}
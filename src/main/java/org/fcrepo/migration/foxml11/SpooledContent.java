@@ -0,0 +1,273 @@
+package org.fcrepo.migration.foxml11;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CachedContent implementation that holds content written to it in chunks
+ * of memory from a {@link SpoolMemoryPool} until it grows past the pool's
+ * threshold or the pool's budget is exhausted, and in a temporary file after
+ * that.  Small content thus costs no file system calls and large content
+ * costs no more memory than the threshold.
+ *
+ * Content is written through the channel or stream interfaces and then
+ * closed, after which it may be read any number of times until it is
+ * released.  Once released, its memory is recycled, so it must no longer be
+ * being read.
+ */
+public class SpooledContent implements CachedContent, WritableByteChannel {
+
+    private final SpoolMemoryPool pool;
+
+    private final int memoryThreshold;
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+    private long size;
+
+    private File file;
+
+    private FileChannel fileChannel;
+
+    private boolean open = true;
+
+    private boolean released;
+
+    public SpooledContent() {
+        this(SpoolMemoryPool.getDefault());
+    }
+
+    public SpooledContent(final SpoolMemoryPool pool) {
+        this(pool, pool.getMemoryThreshold());
+    }
+
+    /**
+     * @param memoryThreshold the number of bytes of content beyond which it
+     *                        is spooled to disk
+     */
+    public SpooledContent(final SpoolMemoryPool pool, final int memoryThreshold) {
+        this.pool = pool;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Writes bytes to the end of the content.
+     */
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new IllegalStateException("Spooled content has been closed.");
+        }
+        final int length = src.remaining();
+        if (file == null && size + length > memoryThreshold) {
+            overflow();
+        }
+        if (file != null) {
+            while (src.hasRemaining()) {
+                fileChannel.write(src);
+            }
+        } else {
+            final int chunkSize = pool.getChunkSize();
+            while (src.hasRemaining()) {
+                final int offset = (int) (size % chunkSize);
+                if (offset == 0) {
+                    final byte[] chunk = pool.acquire();
+                    if (chunk == null) {
+                        overflow();
+                        return length - src.remaining() + write(src);
+                    }
+                    chunks.add(chunk);
+                }
+                final int n = Math.min(src.remaining(), chunkSize - offset);
+                src.get(chunks.get(chunks.size() - 1), offset, n);
+                size += n;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Gets an OutputStream that writes to this content.  Closing it closes
+     * the content.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                SpooledContent.this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                SpooledContent.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                SpooledContent.this.close();
+            }
+        };
+    }
+
+    /**
+     * Moves the content written so far to a temporary file, to which all
+     * further content is written.
+     */
+    private void overflow() throws IOException {
+        file = pool.createTempFile();
+        fileChannel = new FileOutputStream(file).getChannel();
+        final int chunkSize = pool.getChunkSize();
+        long remaining = size;
+        for (final byte[] chunk : chunks) {
+            final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(remaining, chunkSize));
+            remaining -= buffer.remaining();
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+        }
+        releaseChunks();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Completes the content, after which it may be read.
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            if (fileChannel != null) {
+                fileChannel.close();
+                fileChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Discards the content, returning its memory to the pool and deleting any
+     * temporary file.
+     */
+    public void release() {
+        released = true;
+        try {
+            close();
+        } catch (IOException e) {
+            // the file is deleted regardless
+        }
+        releaseChunks();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private void releaseChunks() {
+        for (final byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    /**
+     * Gets the number of bytes of content.
+     */
+    public long getSize() {
+        return file != null ? file.length() : size;
+    }
+
+    /**
+     * Determines whether the content is held in memory rather than on disk.
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Copies content held in memory into a single array.
+     */
+    public byte[] toByteArray() {
+        if (file != null) {
+            throw new IllegalStateException("Spooled content is not in memory.");
+        }
+        final byte[] result = new byte[(int) size];
+        final int chunkSize = pool.getChunkSize();
+        for (int i = 0; i < chunks.size(); i ++) {
+            System.arraycopy(chunks.get(i), 0, result, i * chunkSize, Math.min(chunkSize, (int) size - i * chunkSize));
+        }
+        return result;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (released) {
+            throw new IllegalStateException("Cached content is not available.");
+        }
+        if (open) {
+            throw new IllegalStateException("Spooled content is still being written.");
+        }
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        return new ChunkInputStream();
+    }
+
+    /**
+     * An InputStream over the chunks of content held in memory.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            final int chunkSize = pool.getChunkSize();
+            final byte b = chunks.get((int) (position / chunkSize))[(int) (position % chunkSize)];
+            position ++;
+            return b & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            final int chunkSize = pool.getChunkSize();
+            final int offset = (int) (position % chunkSize);
+            final int n = (int) Math.min(Math.min(len, chunkSize - offset), size - position);
+            System.arraycopy(chunks.get((int) (position / chunkSize)), offset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.fcrepo.migration.foxml11;
+
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The StAX factories with which FOXML is read and inline XML re-serialized,
+ * created once and shared by every object processed rather than looked up
+ * (a scan of the classpath for service providers) for each one.
+ *
+ * By default the implementations found by the standard lookup are used.  Set
+ * inputFactoryClass to choose another, such as Woodstox
+ * ("com.ctc.wstx.stax.WstxInputFactory"), which must then be on the
+ * classpath.  Properties, including implementation-specific tuning such as
+ * Woodstox's "com.ctc.wstx.inputBufferLength", are applied to the input
+ * factory when it is created; those it doesn't support are logged and
+ * ignored.  Coalescing is off unless set, since binary content is decoded
+ * from the text as it is reported.
+ *
+ * The default provider, used by Foxml11InputStreamFedoraObjectProcessor, may
+ * be configured in Spring with factory-method="getDefault".  Its factories
+ * are created when first used, so configure it before processing begins.
+ */
+public class StaxFactoryProvider {
+
+    private static final Logger LOGGER = getLogger(StaxFactoryProvider.class);
+
+    private static final StaxFactoryProvider DEFAULT = new StaxFactoryProvider();
+
+    private String inputFactoryClass;
+
+    private String outputFactoryClass;
+
+    private boolean coalescing;
+
+    private Map<String, Object> properties = new HashMap<String, Object>();
+
+    private XMLInputFactory inputFactory;
+
+    private XMLOutputFactory outputFactory;
+
+    /**
+     * Gets the provider used by Foxml11InputStreamFedoraObjectProcessor.
+     */
+    public static StaxFactoryProvider getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the class name of the XMLInputFactory implementation to use, or
+     * null (the default) for the one found by the standard lookup.
+     */
+    public synchronized void setInputFactoryClass(final String inputFactoryClass) {
+        this.inputFactoryClass = inputFactoryClass;
+        inputFactory = null;
+    }
+
+    /**
+     * Sets the class name of the XMLOutputFactory implementation to use, or
+     * null (the default) for the one found by the standard lookup.
+     */
+    public synchronized void setOutputFactoryClass(final String outputFactoryClass) {
+        this.outputFactoryClass = outputFactoryClass;
+        outputFactory = null;
+    }
+
+    /**
+     * Sets whether adjacent text is reported as a single event.
+     */
+    public synchronized void setCoalescing(final boolean coalescing) {
+        this.coalescing = coalescing;
+        inputFactory = null;
+    }
+
+    /**
+     * Sets additional properties of the input factory.
+     */
+    public synchronized void setProperties(final Map<String, Object> properties) {
+        this.properties = new HashMap<String, Object>(properties);
+        inputFactory = null;
+    }
+
+    /**
+     * Gets the shared input factory.  Like the JDK's and Woodstox's, the
+     * factory must be safe for concurrent creation of readers once configured.
+     */
+    public synchronized XMLInputFactory getInputFactory() {
+        if (inputFactory == null) {
+            final XMLInputFactory factory = inputFactoryClass == null
+                    ? XMLInputFactory.newFactory() : (XMLInputFactory) instantiate(inputFactoryClass);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+            for (final Map.Entry<String, Object> property : properties.entrySet()) {
+                if (factory.isPropertySupported(property.getKey())) {
+                    factory.setProperty(property.getKey(), property.getValue());
+                } else {
+                    LOGGER.warn(factory.getClass().getName() + " does not support the property \""
+                            + property.getKey() + "\", it will be ignored.");
+                }
+            }
+            LOGGER.debug("Reading XML with " + factory.getClass().getName() + ".");
+            inputFactory = factory;
+        }
+        return inputFactory;
+    }
+
+    /**
+     * Gets the shared output factory.
+     */
+    public synchronized XMLOutputFactory getOutputFactory() {
+        if (outputFactory == null) {
+            outputFactory = outputFactoryClass == null
+                    ? XMLOutputFactory.newFactory() : (XMLOutputFactory) instantiate(outputFactoryClass);
+        }
+        return outputFactory;
+    }
+
+    private static Object instantiate(final String className) {
+        try {
+            return Class.forName(className).newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(className + " is not on the classpath.", e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create " + className + ".", e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.fcrepo.migration.handlers;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+
+/**
+ * A base class for handler factories that create handlers by looking up a
+ * prototype-scoped bean from the Spring context in which they are defined.
+ * Every bean in the handler chain that holds per-object state should itself be
+ * declared with scope="prototype" so that each lookup builds a completely
+ * isolated chain, while singleton beans referenced by that chain (such as the
+ * Fedora 4 client or the MigrationIDMapper) are shared.
+ * @param <T> the type of handler created
+ */
+public abstract class AbstractPrototypeHandlerFactory<T> implements BeanFactoryAware {
+
+    private String beanName;
+
+    private Class<T> handlerClass;
+
+    private BeanFactory beanFactory;
+
+    /**
+     * @param beanName the name of a prototype-scoped bean of the given type.
+     * @param handlerClass the type of handler the bean is expected to be.
+     */
+    protected AbstractPrototypeHandlerFactory(final String beanName, final Class<T> handlerClass) {
+        this.beanName = beanName;
+        this.handlerClass = handlerClass;
+    }
+
+    @Override
+    public void setBeanFactory(final BeanFactory beanFactory) throws BeansException {
+        if (!beanFactory.isPrototype(beanName)) {
+            throw new IllegalStateException("Bean \"" + beanName + "\" must be declared with scope=\"prototype\" "
+                    + "so that each worker is given its own handler.");
+        }
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Gets a new instance of the prototype-scoped bean.
+     */
+    protected T createPrototype() {
+        return beanFactory.getBean(beanName, handlerClass);
+    }
+}
@@ -0,0 +1,294 @@
+package org.fcrepo.migration.handlers;
+
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Limits the number of requests in flight to a Fedora 4 repository, adapting
+ * the limit to how the repository is responding.
+ *
+ * Callers {@link #acquire} a permit before each request and {@link #release}
+ * it afterward, reporting whether the request succeeded.  The latency of each
+ * request is collected into a window of windowSize samples, along with the
+ * outcome of every request released meanwhile.  Requests whose latency grows
+ * with the amount of content sent, which would make one large upload look
+ * like overload, are released without sampling their latency, and so only
+ * count toward the error rate.  When a window is full, its median and 99th
+ * percentile latency are computed and the limit is adjusted by
+ * additive-increase/multiplicative-decrease:
+ * <ul>
+ *     <li>if the fraction of failed requests exceeds maxErrorRate, or the
+ *     median latency exceeds latencyTolerance times the baseline latency,
+ *     the limit is multiplied by backoffRatio;</li>
+ *     <li>otherwise, if requests were waiting for a permit during the
+ *     window, the limit is increased by one.</li>
+ * </ul>
+ * The baseline is the lowest median seen so far, allowed to rise by five
+ * percent per window so that a lasting change in the repository's normal
+ * latency is eventually accepted.
+ *
+ * A single instance is meant to be shared by every thread that writes to the
+ * same repository, and the worker count should be set to the largest number
+ * of requests that may ever be allowed in flight.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger LOGGER = getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition permitAvailable = lock.newCondition();
+
+    private int minLimit = 1;
+
+    private int maxLimit = 64;
+
+    private int limit = 4;
+
+    private double backoffRatio = 0.75;
+
+    private double latencyTolerance = 2.0;
+
+    private double maxErrorRate = 0.05;
+
+    private long[] window = new long[50];
+
+    private int samples;
+
+    private int requests;
+
+    private int errors;
+
+    private boolean waited;
+
+    private int inFlight;
+
+    private long baselineNanos = Long.MAX_VALUE;
+
+    private long p50Nanos;
+
+    private long p99Nanos;
+
+    private double errorRate;
+
+    /**
+     * Sets the number of requests permitted in flight before any have been
+     * observed.
+     */
+    public void setInitialLimit(final int initialLimit) {
+        this.limit = initialLimit;
+    }
+
+    public void setMinLimit(final int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public void setMaxLimit(final int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Sets the factor by which the limit is multiplied when the repository
+     * appears to be overloaded.
+     */
+    public void setBackoffRatio(final double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Sets how many times the baseline latency the median latency of a window
+     * may be before the repository is considered overloaded.
+     */
+    public void setLatencyTolerance(final double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Sets the fraction of requests in a window that may fail before the
+     * repository is considered overloaded.
+     */
+    public void setMaxErrorRate(final double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Sets the number of requests observed before each adjustment of the
+     * limit.
+     */
+    public void setWindowSize(final int windowSize) {
+        this.window = new long[windowSize];
+    }
+
+    /**
+     * Waits until fewer than the permitted number of requests are in flight.
+     * @return a token to pass to {@link #release}, which is the value of
+     *         System.nanoTime() when the permit was granted
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                waited = true;
+                permitAvailable.await();
+            }
+            inFlight ++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to make a request.", e);
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the permit obtained for a request that has completed.
+     * @param token the value returned by {@link #acquire}
+     * @param success false if the request failed
+     */
+    public void release(final long token, final boolean success) {
+        release(token, success, true);
+    }
+
+    /**
+     * Releases the permit obtained for a request that has completed.
+     * @param token the value returned by {@link #acquire}
+     * @param success false if the request failed
+     * @param sampleLatency false if the request's latency depends on its
+     *                      size rather than only on the repository's load
+     */
+    public void release(final long token, final boolean success, final boolean sampleLatency) {
+        final long latency = System.nanoTime() - token;
+        lock.lock();
+        try {
+            inFlight --;
+            if (sampleLatency) {
+                window[samples ++] = latency;
+            }
+            requests ++;
+            if (!success) {
+                errors ++;
+            }
+            if (samples == window.length) {
+                adjust();
+            }
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Computes the statistics of the full window and adjusts the limit.  The
+     * lock must be held.
+     */
+    private void adjust() {
+        final long[] sorted = Arrays.copyOf(window, samples);
+        Arrays.sort(sorted);
+        p50Nanos = sorted[(sorted.length - 1) / 2];
+        p99Nanos = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        errorRate = (double) errors / requests;
+        baselineNanos = Math.min(p50Nanos, baselineNanos == Long.MAX_VALUE
+                ? Long.MAX_VALUE : baselineNanos + baselineNanos / 20);
+
+        final int previous = limit;
+        if (errorRate > maxErrorRate || p50Nanos > baselineNanos * latencyTolerance) {
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        } else if (waited) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        if (limit != previous) {
+            LOGGER.info("Concurrency limit changed from " + previous + " to " + limit + ": " + describe());
+        }
+        samples = 0;
+        requests = 0;
+        errors = 0;
+        waited = false;
+    }
+
+    /**
+     * Gets the number of requests currently permitted in flight.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests currently in flight.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the median latency observed in the most recent full window.
+     */
+    public double getP50Millis() {
+        lock.lock();
+        try {
+            return toMillis(p50Nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the 99th percentile latency observed in the most recent full
+     * window.
+     */
+    public double getP99Millis() {
+        lock.lock();
+        try {
+            return toMillis(p99Nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the fraction of requests that failed in the most recent full
+     * window.
+     */
+    public double getErrorRate() {
+        lock.lock();
+        try {
+            return errorRate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a summary of the current limit and the latest observations.
+     */
+    public String describe() {
+        lock.lock();
+        try {
+            return String.format("limit=%d in-flight=%d p50=%.1fms p99=%.1fms baseline=%.1fms errors=%.1f%%",
+                    limit, inFlight, toMillis(p50Nanos), toMillis(p99Nanos),
+                    baselineNanos == Long.MAX_VALUE ? 0 : toMillis(baselineNanos), errorRate * 100);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static double toMillis(final long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
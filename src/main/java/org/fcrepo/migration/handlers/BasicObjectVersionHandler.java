@@ -26,11 +26,16 @@ import org.fcrepo.migration.ObjectProperty;
 import org.fcrepo.migration.ObjectReference;
 import org.fcrepo.migration.ObjectVersionReference;
 import org.fcrepo.migration.foxml11.DC;
+import org.fcrepo.migration.metrics.Counter;
+import org.fcrepo.migration.metrics.MeteredInputStream;
+import org.fcrepo.migration.metrics.Metrics;
+import org.fcrepo.migration.metrics.Timer;
 import org.slf4j.Logger;
 
 import javax.xml.bind.JAXBException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,16 +44,44 @@ import static org.slf4j.LoggerFactory.getLogger;
 public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
 
     private static Logger LOGGER = getLogger(BasicObjectVersionHandler.class);
+
+    private static final Timer DC_TIMER = Metrics.timer("convert.dc");
+
+    private static final Timer RELS_EXT_TIMER = Metrics.timer("convert.relsExt");
+
+    private static final Timer SPARQL_TIMER = Metrics.timer("sparql.build");
+
+    private static final Timer CREATE_OBJECT_TIMER = Metrics.timer("fedora.createObject");
+
+    private static final Timer CREATE_DATASTREAM_TIMER = Metrics.timer("fedora.createDatastream");
+
+    private static final Timer UPDATE_CONTENT_TIMER = Metrics.timer("fedora.updateContent");
+
+    private static final Timer UPDATE_PROPERTIES_TIMER = Metrics.timer("fedora.updateProperties");
+
+    private static final Timer VERSION_SNAPSHOT_TIMER = Metrics.timer("fedora.createVersionSnapshot");
+
+    private static final Counter CONTENT_BYTES = Metrics.counter("content.bytes");
     
     private FedoraRepository repo;
 
     private MigrationIDMapper idMapper;
 
+    private AdaptiveConcurrencyLimiter limiter;
+
     public BasicObjectVersionHandler(FedoraRepository repo, MigrationIDMapper idMapper) {
         this.repo = repo;
         this.idMapper = idMapper;
     }
 
+    /**
+     * Sets a limiter, typically shared by every handler writing to the same
+     * repository, that each request to Fedora 4 must pass through.
+     */
+    public void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
     @Override
     public void processObjectVersions(Iterable<ObjectVersionReference> versions) {
         FedoraObject object = null;
@@ -69,6 +102,7 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
                 for (DatastreamVersion v : version.listChangedDatastreams()) {
                     LOGGER.debug("Considering changed datastream version " + v.getVersionId());
                     if (v.getDatastreamInfo().getDatastreamId().equals("DC")) {
+                        final long start = DC_TIMER.start();
                         try {
                             DC dc = DC.parseDC(v.getContent());
                             for (String uri : dc.getRepresentedElementURIs()) {
@@ -80,28 +114,35 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
                             }
                         } catch (JAXBException e) {
                             throw new RuntimeException("Error parsing DC datastream " + v.getVersionId());
+                        } finally {
+                            DC_TIMER.stop(start);
                         }
                     } else if (v.getDatastreamInfo().getDatastreamId().equals("RELS-EXT")) {
                         // migrate RELS-EXT
-                        final String objectUri = "info:fedora/" + v.getDatastreamInfo().getObjectInfo().getPid();
-                        Model m = ModelFactory.createDefaultModel();
-                        m.read(v.getContent(), null);
-                        StmtIterator statementIt = m.listStatements();
-                        while (statementIt.hasNext()) {
-                            Statement s = statementIt.nextStatement();
-                            if (s.getSubject().getURI().equals(objectUri)) {
-                                final String predicateUri = s.getPredicate().getURI();
-                                triplesToRemove.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createVariable("o")));
-                                if (s.getObject().isLiteral()) {
-                                    triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createLiteral(s.getObject().asLiteral().getString())));
-                                } else if (s.getObject().isURIResource()) {
-                                    triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createURI(s.getObject().asResource().getURI())));
+                        final long start = RELS_EXT_TIMER.start();
+                        try {
+                            final String objectUri = "info:fedora/" + v.getDatastreamInfo().getObjectInfo().getPid();
+                            Model m = ModelFactory.createDefaultModel();
+                            m.read(v.getContent(), null);
+                            StmtIterator statementIt = m.listStatements();
+                            while (statementIt.hasNext()) {
+                                Statement s = statementIt.nextStatement();
+                                if (s.getSubject().getURI().equals(objectUri)) {
+                                    final String predicateUri = s.getPredicate().getURI();
+                                    triplesToRemove.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createVariable("o")));
+                                    if (s.getObject().isLiteral()) {
+                                        triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createLiteral(s.getObject().asLiteral().getString())));
+                                    } else if (s.getObject().isURIResource()) {
+                                        triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI(predicateUri), NodeFactory.createURI(s.getObject().asResource().getURI())));
+                                    } else {
+                                        throw new RuntimeException("No current handling for non-URI, non-Literal subjects in Fedora RELS-EXT.");
+                                    }
                                 } else {
-                                    throw new RuntimeException("No current handling for non-URI, non-Literal subjects in Fedora RELS-EXT.");
+                                    throw new RuntimeException("Non-resource subject found: " + s.getSubject().getURI());
                                 }
-                            } else {
-                                throw new RuntimeException("Non-resource subject found: " + s.getSubject().getURI());
                             }
+                        } finally {
+                            RELS_EXT_TIMER.stop(start);
                         }
                     } else if (v.getDatastreamInfo().getControlGroup().equals("E")) {
                         // TODO: handle external datastreams
@@ -109,10 +150,23 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
                         // TODO: handle redirect datastreams
                     } else {
                         FedoraDatastream ds = dsMap.get(v.getDatastreamInfo().getDatastreamId());
-                        if (ds == null) {
-                            dsMap.put(v.getDatastreamInfo().getDatastreamId(), repo.createDatastream(idMapper.mapDatastreamPath(v.getDatastreamInfo()), new FedoraContent().setContent(v.getContent()).setContentType(v.getMimeType())));
-                        } else {
-                            ds.updateContent(new FedoraContent().setContent(v.getContent()).setContentType(v.getMimeType()));
+                        final Timer timer = ds == null ? CREATE_DATASTREAM_TIMER : UPDATE_CONTENT_TIMER;
+                        final long token = beginRequest();
+                        boolean success = false;
+                        try {
+                            final InputStream original = v.getContent();
+                            final InputStream content
+                                    = original == null ? null : new MeteredInputStream(original, CONTENT_BYTES);
+                            if (ds == null) {
+                                dsMap.put(v.getDatastreamInfo().getDatastreamId(), repo.createDatastream(idMapper.mapDatastreamPath(v.getDatastreamInfo()), new FedoraContent().setContent(content).setContentType(v.getMimeType())));
+                            } else {
+                                ds.updateContent(new FedoraContent().setContent(content).setContentType(v.getMimeType()));
+                            }
+                            success = true;
+                        } finally {
+                            // the time taken depends on the size of the content,
+                            // so it says little about how loaded the repository is
+                            endRequest(timer, token, success, false);
                         }
                         // TODO: handle datastream properties
                     }
@@ -129,6 +183,7 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
                 }
 
                 // update the version date
+                final long start = SPARQL_TIMER.start();
                 triplesToRemove.addTriple(new Triple(NodeFactory.createVariable("s"), NodeFactory.createURI("http://www.loc.gov/premis/rdf/v1#hasDateCreatedByApplication"), NodeFactory.createVariable("o")));
                 triplesToInsert.addTriple(new Triple(NodeFactory.createURI(""), NodeFactory.createURI("http://www.loc.gov/premis/rdf/v1#hasDateCreatedByApplication"), NodeFactory.createLiteral(version.getVersionDate(), XSDDatatype.XSDdateTime)));
 
@@ -137,9 +192,25 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
                 request.add(new UpdateDataInsert(triplesToInsert));
                 ByteArrayOutputStream sparqlUpdate = new ByteArrayOutputStream();
                 request.output(new IndentedWriter(sparqlUpdate));
-                object.updateProperties(sparqlUpdate.toString("UTF-8"));
+                final String update = sparqlUpdate.toString("UTF-8");
+                SPARQL_TIMER.stop(start);
+                long token = beginRequest();
+                boolean success = false;
+                try {
+                    object.updateProperties(update);
+                    success = true;
+                } finally {
+                    endRequest(UPDATE_PROPERTIES_TIMER, token, success, true);
+                }
 
-                object.createVersionSnapshot("imported-version-" + String.valueOf(version.getVersionIndex()));
+                token = beginRequest();
+                success = false;
+                try {
+                    object.createVersionSnapshot("imported-version-" + String.valueOf(version.getVersionIndex()));
+                    success = true;
+                } finally {
+                    endRequest(VERSION_SNAPSHOT_TIMER, token, success, true);
+                }
             }
         } catch (FedoraException e) {
             throw new RuntimeException(e);
@@ -154,7 +225,38 @@ public class BasicObjectVersionHandler implements FedoraObjectVersionHandler {
     }
 
     private FedoraObject createObject(ObjectReference object) throws FedoraException {
-        return repo.createObject(idMapper.mapObjectPath(object));
+        final long token = beginRequest();
+        boolean success = false;
+        try {
+            final FedoraObject o = repo.createObject(idMapper.mapObjectPath(object));
+            success = true;
+            return o;
+        } finally {
+            endRequest(CREATE_OBJECT_TIMER, token, success, true);
+        }
+    }
+
+    /**
+     * Waits, if a limiter is configured, until another request may be made.
+     * @return a token to pass to endRequest
+     */
+    private long beginRequest() {
+        return limiter == null ? System.nanoTime() : limiter.acquire();
+    }
+
+    /**
+     * Records the duration of a request begun by beginRequest and, if a
+     * limiter is configured, releases its permit.
+     * @param sampleLatency false if the request's latency depends on the
+     *                      amount of content sent, and so shouldn't be used
+     *                      to judge how loaded the repository is
+     */
+    private void endRequest(final Timer timer, final long token, final boolean success,
+                            final boolean sampleLatency) {
+        timer.stop(token);
+        if (limiter != null) {
+            limiter.release(token, success, sampleLatency);
+        }
     }
 
 }
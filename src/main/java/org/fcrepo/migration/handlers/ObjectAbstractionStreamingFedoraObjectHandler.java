@@ -17,6 +17,9 @@ import java.util.Map;
  * the Fedora 3 object and provides them to a FedoraObjectHandler implementation 
  * which in turn can process the object as a whole in a random-access fashion rather
  * than as a stream. 
+ *
+ * Instances hold the state of the object currently being processed and so must
+ * not be shared between threads that process objects concurrently.
  */
 public class ObjectAbstractionStreamingFedoraObjectHandler implements StreamingFedoraObjectHandler {
     
@@ -0,0 +1,25 @@
+package org.fcrepo.migration.handlers;
+
+import org.fcrepo.migration.FedoraObjectHandler;
+import org.fcrepo.migration.FedoraObjectHandlerFactory;
+
+/**
+ * A FedoraObjectHandlerFactory that creates handlers by looking up a
+ * prototype-scoped bean from the Spring context in which it is defined.
+ */
+public class PrototypeFedoraObjectHandlerFactory extends AbstractPrototypeHandlerFactory<FedoraObjectHandler>
+        implements FedoraObjectHandlerFactory {
+
+    /**
+     * @param beanName the name of a prototype-scoped bean that implements
+     *                 FedoraObjectHandler.
+     */
+    public PrototypeFedoraObjectHandlerFactory(final String beanName) {
+        super(beanName, FedoraObjectHandler.class);
+    }
+
+    @Override
+    public FedoraObjectHandler createHandler() {
+        return createPrototype();
+    }
+}
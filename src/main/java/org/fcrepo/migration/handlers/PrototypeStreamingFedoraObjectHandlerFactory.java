@@ -0,0 +1,26 @@
+package org.fcrepo.migration.handlers;
+
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.fcrepo.migration.StreamingFedoraObjectHandlerFactory;
+
+/**
+ * A StreamingFedoraObjectHandlerFactory that creates handlers by looking up a
+ * prototype-scoped bean from the Spring context in which it is defined.
+ */
+public class PrototypeStreamingFedoraObjectHandlerFactory
+        extends AbstractPrototypeHandlerFactory<StreamingFedoraObjectHandler>
+        implements StreamingFedoraObjectHandlerFactory {
+
+    /**
+     * @param beanName the name of a prototype-scoped bean that implements
+     *                 StreamingFedoraObjectHandler.
+     */
+    public PrototypeStreamingFedoraObjectHandlerFactory(final String beanName) {
+        super(beanName, StreamingFedoraObjectHandler.class);
+    }
+
+    @Override
+    public StreamingFedoraObjectHandler createHandler() {
+        return createPrototype();
+    }
+}
@@ -0,0 +1,36 @@
+package org.fcrepo.migration.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events or of bytes processed during a migration.  Counters are
+ * obtained from {@link Metrics#counter} and are safe to use from any number
+ * of threads.
+ */
+public class Counter implements CounterMXBean {
+
+    private final String name;
+
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(final long amount) {
+        count.addAndGet(amount);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,9 @@
+package org.fcrepo.migration.metrics;
+
+/**
+ * The JMX view of a Counter.
+ */
+public interface CounterMXBean {
+
+    public long getCount();
+}
@@ -0,0 +1,96 @@
+package org.fcrepo.migration.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values with log-linear buckets:
+ * each power of two is divided into sixteen buckets, so any value recorded
+ * is reported to within about 6%.  Recording is a single atomic increment,
+ * so a histogram may be updated from any number of threads.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a value.  Negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    /**
+     * Gets a copy of the current count in each bucket, which may be passed
+     * to {@link #percentile} directly or after subtracting an earlier copy
+     * to describe only the values recorded in between.
+     */
+    public long[] snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i ++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the value at the given percentile of the values recorded so far.
+     */
+    public long percentile(final double percentile) {
+        return percentile(snapshot(), percentile);
+    }
+
+    /**
+     * Gets the value at the given percentile (between 0 and 1) of the values
+     * described by a snapshot, or zero if the snapshot is empty.
+     */
+    public static long percentile(final long[] snapshot, final double percentile) {
+        long total = 0;
+        for (final long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i ++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return midpointOf(i);
+            }
+        }
+        return midpointOf(snapshot.length - 1);
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long midpointOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return lowerBoundOf(bucket) + ((1L << (exponent - SUB_BUCKET_BITS)) >>> 1);
+    }
+}
@@ -0,0 +1,25 @@
+package org.fcrepo.migration.metrics;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream that adds the number of bytes read through it to a Counter.
+ */
+public class MeteredInputStream extends ProxyInputStream {
+
+    private final Counter counter;
+
+    public MeteredInputStream(final InputStream in, final Counter counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    protected void afterRead(final int n) {
+        if (n > 0) {
+            counter.add(n);
+        }
+    }
+}
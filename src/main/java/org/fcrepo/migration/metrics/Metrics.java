@@ -0,0 +1,109 @@
+package org.fcrepo.migration.metrics;
+
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The registry of the timers and counters that describe the stages of a
+ * migration.  Each metric is created the first time it is requested by name
+ * and is published over JMX under the domain "org.fcrepo.migration", so it
+ * may be watched in a running migration with any JMX console.  The
+ * MetricsReporter periodically logs a summary of every metric.
+ *
+ * Classes typically hold the metrics they update in static fields, so
+ * updating a metric costs no more than a few atomic operations.
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = getLogger(Metrics.class);
+
+    private static final String DOMAIN = "org.fcrepo.migration";
+
+    private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentHashMap<String, Timer>();
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the timer with the given name, creating it if necessary.
+     */
+    public static Timer timer(final String name) {
+        Timer timer = TIMERS.get(name);
+        if (timer == null) {
+            final Timer created = new Timer(name);
+            timer = TIMERS.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+                register("Timer", name, created);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Gets the counter with the given name, creating it if necessary.
+     */
+    public static Counter counter(final String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter == null) {
+            final Counter created = new Counter(name);
+            counter = COUNTERS.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+                register("Counter", name, created);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Gets every timer, sorted by name.
+     */
+    public static List<Timer> getTimers() {
+        final List<String> names = new ArrayList<String>(TIMERS.keySet());
+        Collections.sort(names);
+        final List<Timer> timers = new ArrayList<Timer>();
+        for (final String name : names) {
+            timers.add(TIMERS.get(name));
+        }
+        return timers;
+    }
+
+    /**
+     * Gets every counter, sorted by name.
+     */
+    public static List<Counter> getCounters() {
+        final List<String> names = new ArrayList<String>(COUNTERS.keySet());
+        Collections.sort(names);
+        final List<Counter> counters = new ArrayList<Counter>();
+        for (final String name : names) {
+            counters.add(COUNTERS.get(name));
+        }
+        return counters;
+    }
+
+    private static void register(final String type, final String name, final Object mbean) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Unable to publish metric \"" + name + "\" over JMX.", e);
+        }
+    }
+}
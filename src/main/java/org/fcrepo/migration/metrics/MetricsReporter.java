@@ -0,0 +1,220 @@
+package org.fcrepo.migration.metrics;
+
+import org.fcrepo.migration.catalog.CatalogEntry;
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Periodically logs a summary of every metric in the Metrics registry.  For
+ * each timer that was used during the interval, the summary gives the number
+ * of executions, their rate, the share of the interval's thread time spent
+ * in them and their median and 99th percentile duration, all for that
+ * interval alone.  For each counter it gives the increase and its rate;
+ * counters whose names end in ".bytes" are reported in MB/s.
+ *
+ * Because the stages overlap (a Fedora 4 request, for instance, happens
+ * within the handling of an object), the stage with the highest share of
+ * time that isn't simply enclosing another is the likely bottleneck.
+ *
+ * When given a FoxmlCatalog of the objects being migrated, and told of each
+ * object completed, the summary ends with the share of the catalog's weight
+ * migrated and an estimate of the time remaining, at the rate achieved since
+ * the reporter started.  Objects migrated by an earlier run should be left
+ * out of that catalog, as they won't be migrated again.
+ */
+public class MetricsReporter {
+
+    private static final Logger LOGGER = getLogger(MetricsReporter.class);
+
+    private int intervalSeconds = 60;
+
+    private ScheduledExecutorService executor;
+
+    private final Map<String, long[]> lastHistograms = new HashMap<String, long[]>();
+
+    private final Map<String, Long> lastCounts = new HashMap<String, Long>();
+
+    private final Map<String, Long> lastNanos = new HashMap<String, Long>();
+
+    private long lastReport;
+
+    private long startTime = System.nanoTime();
+
+    private volatile FoxmlCatalog catalog;
+
+    private final AtomicLong completedWeight = new AtomicLong();
+
+    public void setIntervalSeconds(final int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Sets the catalog of the objects being migrated, from which the time
+     * remaining is estimated.
+     */
+    public void setCatalog(final FoxmlCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public FoxmlCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Reads the catalog of the objects being migrated from a file written by
+     * a FoxmlCatalogScanner.
+     */
+    public void setCatalogFile(final File catalogFile) throws IOException {
+        setCatalog(FoxmlCatalog.read(catalogFile));
+    }
+
+    /**
+     * Records that an object has been migrated, toward the estimate of the
+     * time remaining.  Objects not in the catalog are ignored.
+     */
+    public void recordCompleted(final String pid) {
+        final FoxmlCatalog c = catalog;
+        final CatalogEntry entry = c == null ? null : c.getEntry(pid);
+        if (entry != null) {
+            completedWeight.addAndGet(entry.getWeight());
+        }
+    }
+
+    /**
+     * Begins logging a summary every intervalSeconds.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        lastReport = System.nanoTime();
+        startTime = lastReport;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "metrics-reporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic summaries and logs a final one.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            report();
+        }
+    }
+
+    /**
+     * Logs a summary of the metrics recorded since the previous summary.
+     */
+    public synchronized void report() {
+        final String summary = summarize();
+        if (summary.length() > 0) {
+            LOGGER.info("Metrics: " + summary);
+        }
+    }
+
+    /**
+     * Builds a summary of the metrics recorded since the previous summary.
+     */
+    synchronized String summarize() {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1, now - lastReport) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastReport = now;
+
+        final StringBuilder sb = new StringBuilder();
+        for (final Timer timer : Metrics.getTimers()) {
+            final long count = timer.getCount();
+            final long nanos = timer.getTotalNanos();
+            final long[] histogram = timer.getHistogram().snapshot();
+            final long intervalCount = count - previous(lastCounts, timer.getName());
+            final long intervalNanos = nanos - previous(lastNanos, timer.getName());
+            final long[] last = lastHistograms.get(timer.getName());
+            lastCounts.put(timer.getName(), count);
+            lastNanos.put(timer.getName(), nanos);
+            lastHistograms.put(timer.getName(), histogram);
+            if (intervalCount == 0) {
+                continue;
+            }
+            final long[] interval = histogram.clone();
+            if (last != null) {
+                for (int i = 0; i < interval.length; i ++) {
+                    interval[i] -= last[i];
+                }
+            }
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(String.format("%s %d (%.1f/s, %.0f%% busy, p50 %.2fms, p99 %.2fms)",
+                    timer.getName(), intervalCount, intervalCount / seconds,
+                    100 * Timer.toMillis(intervalNanos) / 1000 / seconds,
+                    Timer.toMillis(Histogram.percentile(interval, 0.5)),
+                    Timer.toMillis(Histogram.percentile(interval, 0.99))));
+        }
+        for (final Counter counter : Metrics.getCounters()) {
+            final long count = counter.getCount();
+            final long delta = count - previous(lastCounts, "counter:" + counter.getName());
+            lastCounts.put("counter:" + counter.getName(), count);
+            if (delta == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            if (counter.getName().endsWith(".bytes")) {
+                sb.append(String.format("%s %d (%.2f MB/s)", counter.getName(), delta,
+                        delta / seconds / (1024 * 1024)));
+            } else {
+                sb.append(String.format("%s %d (%.1f/s)", counter.getName(), delta, delta / seconds));
+            }
+        }
+        final FoxmlCatalog c = catalog;
+        final long weight = completedWeight.get();
+        if (c != null && weight > 0) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            final long remaining = c.estimateRemainingMillis(weight, TimeUnit.NANOSECONDS.toMillis(now - startTime));
+            sb.append(String.format("catalog %.1f%% done (%s remaining)",
+                    100.0 * Math.min(weight, c.getWeight()) / Math.max(1, c.getWeight()), formatMillis(remaining)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a duration as hours, minutes and seconds, such as "2h05m30s".
+     */
+    static String formatMillis(final long millis) {
+        final long seconds = millis / 1000;
+        return String.format("%dh%02dm%02ds", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static long previous(final Map<String, Long> values, final String name) {
+        final Long value = values.get(name);
+        return value == null ? 0 : value;
+    }
+}
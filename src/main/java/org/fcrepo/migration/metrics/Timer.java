@@ -0,0 +1,99 @@
+package org.fcrepo.migration.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the number and duration of the executions of one stage of a
+ * migration.  Typical use is:
+ * <pre>
+ *     final long start = TIMER.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         TIMER.stop(start);
+ *     }
+ * </pre>
+ * Timers are obtained from {@link Metrics#timer} and are safe to use from any
+ * number of threads.
+ */
+public class Timer implements TimerMXBean {
+
+    private final String name;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final Histogram histogram = new Histogram();
+
+    Timer(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the time to later pass to {@link #stop}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records an execution that began at the given time.
+     * @param start the value returned by {@link #start}
+     */
+    public void stop(final long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records an execution of the given duration.
+     */
+    public void record(final long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        histogram.record(nanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return toMillis(totalNanos.get());
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long c = count.get();
+        return c == 0 ? 0 : toMillis(totalNanos.get()) / c;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return toMillis(histogram.percentile(0.5));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return toMillis(histogram.percentile(0.99));
+    }
+
+    static double toMillis(final long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,17 @@
+package org.fcrepo.migration.metrics;
+
+/**
+ * The JMX view of a Timer.
+ */
+public interface TimerMXBean {
+
+    public long getCount();
+
+    public double getTotalMillis();
+
+    public double getMeanMillis();
+
+    public double getP50Millis();
+
+    public double getP99Millis();
+}
@@ -0,0 +1,259 @@
+package org.fcrepo.migration.partition;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A file on a shared filesystem through which any number of migration
+ * processes, possibly on different hosts, divide a set of named units of
+ * work (typically directories) between themselves.  Each process claims one
+ * unit at a time, so a fast process simply claims more units than a slow one.
+ *
+ * The file is an append-only log of "CLAIM", "RENEW" and "DONE" records, each
+ * naming a unit, the owner and the time.  Every operation reads the log and
+ * appends to it while holding an exclusive lock on the file, obtained with
+ * FileChannel.lock, which is honored across hosts by NFS (version 4, or
+ * version 3 with a lock manager) as well as by local filesystems.  Because
+ * such locks are held on behalf of the whole JVM, operations are additionally
+ * serialized between the instances within one JVM.
+ *
+ * When a lease timeout is set, a claimed unit that is neither renewed nor
+ * done within the timeout is considered abandoned by a failed process and
+ * may be claimed again.  The clocks of the participating hosts must then be
+ * roughly synchronized.
+ */
+public class DirectoryLeaseFile {
+
+    private static final Logger LOGGER = getLogger(DirectoryLeaseFile.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String CLAIM = "CLAIM";
+
+    private static final String RENEW = "RENEW";
+
+    private static final String DONE = "DONE";
+
+    private static final Map<String, Object> JVM_LOCKS = new HashMap<String, Object>();
+
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+    private final File file;
+
+    private final Object jvmLock;
+
+    private String owner;
+
+    private long leaseTimeoutMillis;
+
+    /**
+     * @param file the lease file, which is created if it doesn't exist
+     */
+    public DirectoryLeaseFile(final File file) throws IOException {
+        this.file = file;
+        final String key = file.getCanonicalPath();
+        synchronized (JVM_LOCKS) {
+            Object lock = JVM_LOCKS.get(key);
+            if (lock == null) {
+                lock = new Object();
+                JVM_LOCKS.put(key, lock);
+            }
+            this.jvmLock = lock;
+        }
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "#" + INSTANCE_COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Sets the name recorded as the owner of the leases claimed through this
+     * instance.  It defaults to a name that is unique to this instance,
+     * formed from the process id and host name.
+     */
+    public void setOwner(final String owner) {
+        this.owner = owner;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Sets the time after which a claimed unit that has been neither renewed
+     * nor completed may be claimed by another owner.  A value of zero (the
+     * default) means claims never expire.
+     */
+    public void setLeaseTimeoutMillis(final long leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+    }
+
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * Claims the first of the given units that is neither done nor held by
+     * an unexpired claim.
+     * @return the claimed unit or null if no unit is available
+     */
+    public String claim(final List<String> units) throws IOException {
+        synchronized (jvmLock) {
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                final FileLock lock = raf.getChannel().lock();
+                try {
+                    final Map<String, Lease> leases = read(raf);
+                    final long now = System.currentTimeMillis();
+                    for (final String unit : units) {
+                        final Lease lease = leases.get(unit);
+                        if (lease == null || (!lease.done && leaseTimeoutMillis > 0
+                                && now - lease.time > leaseTimeoutMillis)) {
+                            if (lease != null) {
+                                LOGGER.warn("Claiming \"" + unit + "\" whose lease held by " + lease.owner
+                                        + " expired.");
+                            }
+                            append(raf, CLAIM, unit, now);
+                            return unit;
+                        }
+                    }
+                    return null;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renews the claim on the given unit.
+     * @return false if the unit is no longer held by this owner, in which
+     *         case work on it should stop
+     */
+    public boolean renew(final String unit) throws IOException {
+        return update(RENEW, unit);
+    }
+
+    /**
+     * Records that the given unit is done, so that it is never claimed again.
+     * @return false if the unit was no longer held by this owner
+     */
+    public boolean complete(final String unit) throws IOException {
+        return update(DONE, unit);
+    }
+
+    private boolean update(final String type, final String unit) throws IOException {
+        synchronized (jvmLock) {
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                final FileLock lock = raf.getChannel().lock();
+                try {
+                    final Lease lease = read(raf).get(unit);
+                    if (lease == null || lease.done || !lease.owner.equals(owner)) {
+                        return false;
+                    }
+                    append(raf, type, unit, System.currentTimeMillis());
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the current state of every unit from the log.  Records that are
+     * malformed, such as one left incomplete by a crash, are ignored.
+     */
+    private Map<String, Lease> read(final RandomAccessFile raf) throws IOException {
+        final byte[] bytes = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(bytes);
+        final Map<String, Lease> leases = new HashMap<String, Lease>();
+        for (final String line : new String(bytes, UTF8).split("\n")) {
+            final String[] fields = line.split(" ");
+            if (fields.length != 4) {
+                continue;
+            }
+            final String unit;
+            final String leaseOwner;
+            final long time;
+            try {
+                unit = decode(fields[1]);
+                leaseOwner = decode(fields[2]);
+                time = Long.parseLong(fields[3]);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (fields[0].equals(CLAIM)) {
+                leases.put(unit, new Lease(leaseOwner, time));
+            } else if (fields[0].equals(RENEW) || fields[0].equals(DONE)) {
+                final Lease lease = leases.get(unit);
+                if (lease != null && lease.owner.equals(leaseOwner)) {
+                    lease.time = time;
+                    lease.done = fields[0].equals(DONE);
+                }
+            }
+        }
+        return leases;
+    }
+
+    private void append(final RandomAccessFile raf, final String type, final String unit, final long time)
+            throws IOException {
+        final StringBuilder record = new StringBuilder();
+        final long length = raf.length();
+        if (length > 0) {
+            raf.seek(length - 1);
+            if (raf.read() != '\n') {
+                record.append('\n');
+            }
+        }
+        record.append(type).append(' ').append(encode(unit)).append(' ').append(encode(owner))
+                .append(' ').append(time).append('\n');
+        raf.seek(length);
+        raf.write(record.toString().getBytes(UTF8));
+        final FileChannel channel = raf.getChannel();
+        channel.force(false);
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Lease {
+
+        private final String owner;
+
+        private long time;
+
+        private boolean done;
+
+        public Lease(final String owner, final long time) {
+            this.owner = owner;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.fcrepo.migration.partition;
+
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One of a fixed number of disjoint partitions of the objects in a
+ * repository.  Objects are assigned to shards by a hash of their PID, so
+ * several migration processes, each configured with a different shard index
+ * and the same shard count, together process every object exactly once
+ * without needing to communicate.
+ *
+ * The hash is derived from String.hashCode, whose value is defined by the
+ * Java language specification, so the assignment is the same on every host
+ * and JVM.
+ *
+ * When a FoxmlCatalog of the objects is available, a balanced shard instead
+ * assigns each cataloged object by FoxmlCatalog.balance, so that the shards
+ * carry nearly equal weights of content rather than nearly equal numbers of
+ * objects.  The assignment depends only on the catalog, so every process
+ * must be given the same catalog.  Objects missing from it are assigned by
+ * hash.
+ */
+public class Shard {
+
+    private final int index;
+
+    private final int count;
+
+    private final Map<String, Integer> assignment;
+
+    /**
+     * @param index the zero-based index of this shard
+     * @param count the total number of shards
+     */
+    public Shard(final int index, final int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count
+                    + ": the index must be at least 0 and less than the count.");
+        }
+        this.index = index;
+        this.count = count;
+        this.assignment = Collections.emptyMap();
+    }
+
+    private Shard(final Shard shard, final Map<String, Integer> assignment) {
+        this.index = shard.index;
+        this.count = shard.count;
+        this.assignment = assignment;
+    }
+
+    /**
+     * Gets a shard whose objects are assigned by balancing the weights of
+     * those in the given catalog.
+     */
+    public Shard balance(final FoxmlCatalog catalog) {
+        return new Shard(this, catalog.balance(count));
+    }
+
+    /**
+     * Parses a shard of the form "i/N", for example "0/4".
+     */
+    public static Shard parse(final String value) {
+        final int slash = value.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Invalid shard \"" + value + "\": expected the form \"i/N\".");
+        }
+        try {
+            return new Shard(Integer.parseInt(value.substring(0, slash).trim()),
+                    Integer.parseInt(value.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shard \"" + value + "\": expected the form \"i/N\".", e);
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Determines whether the object with the given PID belongs to this shard.
+     */
+    public boolean contains(final String pid) {
+        final Integer assigned = assignment.get(pid);
+        return (assigned != null ? assigned : shardOf(pid, count)) == index;
+    }
+
+    /**
+     * Gets the index of the shard, out of the given number of shards, to
+     * which the object with the given PID belongs.
+     */
+    public static int shardOf(final String pid, final int count) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,42 @@
+package org.fcrepo.migration.partition;
+
+import org.fcrepo.migration.foxml11.NativeFoxmlDirectoryObjectSource;
+
+import java.io.File;
+import java.io.FileFilter;
+
+/**
+ * A FileFilter that rejects FOXML files whose names identify an object that
+ * belongs to a shard other than the given one, so that those files are never
+ * opened.  Files whose names don't encode a PID (such as those in an export
+ * directory) are always accepted and are left to a ShardedObjectSource to
+ * assign once their PID has been read.  Another filter may be given, which
+ * files must also be accepted by.
+ */
+public class ShardFileFilter implements FileFilter {
+
+    private final Shard shard;
+
+    private final FileFilter filter;
+
+    public ShardFileFilter(final Shard shard) {
+        this(shard, null);
+    }
+
+    /**
+     * @param filter a filter that files must also pass, or null
+     */
+    public ShardFileFilter(final Shard shard, final FileFilter filter) {
+        this.shard = shard;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean accept(final File file) {
+        if (filter != null && !filter.accept(file)) {
+            return false;
+        }
+        final String pid = NativeFoxmlDirectoryObjectSource.getPidFromFileName(file.getName());
+        return pid == null || shard.contains(pid);
+    }
+}
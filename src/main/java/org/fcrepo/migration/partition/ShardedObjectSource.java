@@ -0,0 +1,71 @@
+package org.fcrepo.migration.partition;
+
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.ObjectSource;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An ObjectSource that exposes only those objects from another source that
+ * belong to a given Shard.  Running one Migrator per shard, each over the
+ * same underlying objects, partitions the work between them with no overlap.
+ *
+ * Each object must be opened before its PID is known, and objects of other
+ * shards are then closed unprocessed, so when the wrapped source is a
+ * NativeFoxmlDirectoryObjectSource, configuring it with a ShardFileFilter for
+ * the same shard (as Migrator does) additionally avoids opening the FOXML of
+ * objects that belong to other shards.
+ */
+public class ShardedObjectSource implements ObjectSource {
+
+    private final ObjectSource source;
+
+    private final Shard shard;
+
+    public ShardedObjectSource(final ObjectSource source, final Shard shard) {
+        this.source = source;
+        this.shard = shard;
+    }
+
+    public Shard getShard() {
+        return shard;
+    }
+
+    @Override
+    public Iterator<FedoraObjectProcessor> iterator() {
+        final Iterator<FedoraObjectProcessor> i = source.iterator();
+        return new Iterator<FedoraObjectProcessor>() {
+
+            private FedoraObjectProcessor next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && i.hasNext()) {
+                    final FedoraObjectProcessor o = i.next();
+                    if (shard.contains(o.getObjectInfo().getPid())) {
+                        next = o;
+                    } else {
+                        o.close();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public FedoraObjectProcessor next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final FedoraObjectProcessor o = next;
+                next = null;
+                return o;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
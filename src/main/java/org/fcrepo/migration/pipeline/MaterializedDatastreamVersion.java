@@ -0,0 +1,194 @@
+package org.fcrepo.migration.pipeline;
+
+import org.fcrepo.migration.ContentDigest;
+import org.fcrepo.migration.DatastreamInfo;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.foxml11.CachedContent;
+import org.fcrepo.migration.foxml11.FileCachedContent;
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor.Foxml11DatastreamVersion;
+import org.fcrepo.migration.foxml11.InlineBase64Content;
+import org.fcrepo.migration.foxml11.MemoryCachedContent;
+import org.fcrepo.migration.foxml11.SpoolMemoryPool;
+import org.fcrepo.migration.foxml11.SpooledContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A DatastreamVersion implementation that holds a copy of everything exposed
+ * by another DatastreamVersion so that it remains usable after the object from
+ * which it was read has been completely processed.
+ *
+ * Only content whose source is discarded once parsing moves on is copied, to
+ * memory when it is small and otherwise to a temporary file: that of inline
+ * (X) and managed (M) datastreams that the parser spooled.  Memory is drawn
+ * from the default SpoolMemoryPool, so that the budget for it applies across
+ * every object waiting in the pipeline.  Managed content resolved to a file
+ * in the datastreamStore, or held in memory, is kept by reference, and base64
+ * content inline in a FOXML file is retained so that it is still decoded only
+ * when read.  The content of external (E) and redirect (R) datastreams lives
+ * outside of the FOXML and is read from the original DatastreamVersion when
+ * requested.
+ */
+public class MaterializedDatastreamVersion implements DatastreamVersion {
+
+    private DatastreamInfo dsInfo;
+    private String id;
+    private String label;
+    private String created;
+    private String mimeType;
+    private String altIds;
+    private String formatUri;
+    private long size;
+    private ContentDigest contentDigest;
+
+    private DatastreamVersion original;
+    private CachedContent reference;
+    private InlineBase64Content inlineContent;
+    private SpooledContent content;
+    private boolean released;
+
+    /**
+     * @param v the DatastreamVersion to copy; its content must be available.
+     * @param memoryThreshold the number of bytes of content beyond which
+     *                        content is copied to a temporary file rather
+     *                        than held in memory.
+     */
+    public MaterializedDatastreamVersion(final DatastreamVersion v, final int memoryThreshold) throws IOException {
+        dsInfo = v.getDatastreamInfo();
+        id = v.getVersionId();
+        label = v.getLabel();
+        created = v.getCreated();
+        mimeType = v.getMimeType();
+        altIds = v.getAltIds();
+        formatUri = v.getFormatUri();
+        size = v.getSize();
+        contentDigest = v.getContentDigest();
+
+        final String controlGroup = dsInfo.getControlGroup();
+        if ("E".equals(controlGroup) || "R".equals(controlGroup)) {
+            original = v;
+        } else if (!keepReference(v)) {
+            copyContent(v, memoryThreshold);
+        }
+    }
+
+    /**
+     * Keeps the content of a version read from FOXML by reference if its
+     * source outlives the parse.
+     * @return true if the content was kept
+     */
+    private boolean keepReference(final DatastreamVersion v) {
+        if (!(v instanceof Foxml11DatastreamVersion)) {
+            return false;
+        }
+        final CachedContent cachedContent = ((Foxml11DatastreamVersion) v).getCachedContent();
+        if (cachedContent instanceof InlineBase64Content) {
+            inlineContent = (InlineBase64Content) cachedContent;
+            inlineContent.retain();
+            reference = inlineContent;
+            return true;
+        } else if (cachedContent instanceof FileCachedContent || cachedContent instanceof MemoryCachedContent) {
+            reference = cachedContent;
+            return true;
+        }
+        return false;
+    }
+
+    private void copyContent(final DatastreamVersion v, final int memoryThreshold) throws IOException {
+        final InputStream is = v.getContent();
+        if (is == null) {
+            return;
+        }
+        content = new SpooledContent(SpoolMemoryPool.getDefault(), memoryThreshold);
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+            content.close();
+        }
+    }
+
+    /**
+     * Discards any copy of the content held by this version, and lets go of
+     * any inline content it retained.  Once invoked, the content is no longer
+     * accessible.
+     */
+    public void release() {
+        released = true;
+        reference = null;
+        if (inlineContent != null) {
+            inlineContent.release();
+            inlineContent = null;
+        }
+        if (content != null) {
+            content.release();
+            content = null;
+        }
+    }
+
+    @Override
+    public DatastreamInfo getDatastreamInfo() {
+        return dsInfo;
+    }
+
+    @Override
+    public String getVersionId() {
+        return id;
+    }
+
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String getCreated() {
+        return created;
+    }
+
+    @Override
+    public String getAltIds() {
+        return altIds;
+    }
+
+    @Override
+    public String getFormatUri() {
+        return formatUri;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public ContentDigest getContentDigest() {
+        return contentDigest;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (released) {
+            throw new IllegalStateException("Materialized content has been released.");
+        }
+        if (original != null) {
+            return original.getContent();
+        } else if (reference != null) {
+            return reference.getInputStream();
+        } else if (content != null) {
+            return content.getInputStream();
+        } else {
+            return null;
+        }
+    }
+}
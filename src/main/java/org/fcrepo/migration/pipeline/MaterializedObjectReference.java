@@ -0,0 +1,96 @@
+package org.fcrepo.migration.pipeline;
+
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.ObjectReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ObjectReference whose datastream versions are all materialized, so that
+ * it may be handed from the thread that parsed it to another thread for
+ * processing.  The resources it holds must be freed by calling
+ * {@link #release} once processing is complete.
+ */
+public class MaterializedObjectReference implements ObjectReference {
+
+    private ObjectInfo objectInfo;
+
+    private ObjectProperties objectProperties;
+
+    private List<String> dsIds;
+
+    private Map<String, List<DatastreamVersion>> dsIdToVersionListMap;
+
+    private FedoraObjectProcessor processor;
+
+    public MaterializedObjectReference(final ObjectInfo objectInfo) {
+        this.objectInfo = objectInfo;
+        this.dsIds = new ArrayList<String>();
+        this.dsIdToVersionListMap = new HashMap<String, List<DatastreamVersion>>();
+    }
+
+    void setObjectProperties(final ObjectProperties objectProperties) {
+        this.objectProperties = objectProperties;
+    }
+
+    /**
+     * Sets the processor from which the object was parsed, to be told whether
+     * it was migrated.
+     */
+    void setProcessor(final FedoraObjectProcessor processor) {
+        this.processor = processor;
+    }
+
+    FedoraObjectProcessor getProcessor() {
+        return processor;
+    }
+
+    void addDatastreamVersion(final MaterializedDatastreamVersion dsVersion) {
+        final String dsId = dsVersion.getDatastreamInfo().getDatastreamId();
+        List<DatastreamVersion> versions = dsIdToVersionListMap.get(dsId);
+        if (versions == null) {
+            dsIds.add(dsId);
+            versions = new ArrayList<DatastreamVersion>();
+            dsIdToVersionListMap.put(dsId, versions);
+        }
+        versions.add(dsVersion);
+    }
+
+    /**
+     * Releases the content held by every datastream version of this object.
+     */
+    public void release() {
+        for (final List<DatastreamVersion> versions : dsIdToVersionListMap.values()) {
+            for (final DatastreamVersion v : versions) {
+                ((MaterializedDatastreamVersion) v).release();
+            }
+        }
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo() {
+        return objectInfo;
+    }
+
+    @Override
+    public ObjectProperties getObjectProperties() {
+        return objectProperties;
+    }
+
+    @Override
+    public List<String> listDatastreamIds() {
+        return Collections.unmodifiableList(dsIds);
+    }
+
+    @Override
+    public List<DatastreamVersion> getDatastreamVersions(final String datastreamId) {
+        return dsIdToVersionListMap.get(datastreamId);
+    }
+}
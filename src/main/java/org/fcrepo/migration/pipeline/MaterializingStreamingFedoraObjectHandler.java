@@ -0,0 +1,74 @@
+package org.fcrepo.migration.pipeline;
+
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.FedoraObjectHandler;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+
+import java.io.IOException;
+
+/**
+ * A StreamingFedoraObjectHandler implementation that, like
+ * ObjectAbstractionStreamingFedoraObjectHandler, gathers the streamed object
+ * into an ObjectReference for a wrapped FedoraObjectHandler.  Unlike that
+ * handler, every datastream version is materialized as it is streamed so
+ * that the resulting MaterializedObjectReference remains valid after the
+ * object has been completely processed and may be handed off to another
+ * thread.  The wrapped handler takes ownership of that reference and is
+ * responsible for calling {@link MaterializedObjectReference#release} once
+ * it is no longer needed.
+ */
+public class MaterializingStreamingFedoraObjectHandler implements StreamingFedoraObjectHandler {
+
+    private FedoraObjectHandler handler;
+
+    private int memoryThreshold;
+
+    private MaterializedObjectReference object;
+
+    /**
+     * @param handler the handler to which each materialized object is passed.
+     * @param memoryThreshold the size in bytes beyond which datastream content
+     *                        is copied to a temporary file rather than memory.
+     */
+    public MaterializingStreamingFedoraObjectHandler(final FedoraObjectHandler handler, final int memoryThreshold) {
+        this.handler = handler;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    @Override
+    public void beginObject(final ObjectInfo objectInfo) {
+        object = new MaterializedObjectReference(objectInfo);
+    }
+
+    @Override
+    public void processObjectProperties(final ObjectProperties properties) {
+        object.setObjectProperties(properties);
+    }
+
+    @Override
+    public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+        try {
+            object.addDatastreamVersion(new MaterializedDatastreamVersion(dsVersion, memoryThreshold));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to materialize datastream version " + dsVersion.getVersionId()
+                    + " of " + object.getObjectInfo().getPid() + ".", e);
+        }
+    }
+
+    @Override
+    public void completeObject(final ObjectInfo objectInfo) {
+        final MaterializedObjectReference completed = object;
+        object = null;
+        handler.processObject(completed);
+    }
+
+    @Override
+    public void abortObject(final ObjectInfo objectInfo) {
+        if (object != null) {
+            object.release();
+            object = null;
+        }
+    }
+}
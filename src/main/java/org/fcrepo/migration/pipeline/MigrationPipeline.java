@@ -0,0 +1,550 @@
+package org.fcrepo.migration.pipeline;
+
+import org.fcrepo.migration.FedoraObjectHandler;
+import org.fcrepo.migration.FedoraObjectHandlerFactory;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.MigrationTrackingFedoraObjectProcessor;
+import org.fcrepo.migration.ObjectReference;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.checkpoint.CompletedObjectJournal;
+import org.fcrepo.migration.metrics.MetricsReporter;
+import org.slf4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A two-stage migration pipeline in which the parsing of FOXML and the
+ * ingest of the parsed objects happen in separate thread pools.
+ *
+ * Parse threads read objects from the source and stream each one through a
+ * MaterializingStreamingFedoraObjectHandler.  The resulting fully materialized
+ * ObjectReferences are placed on a bounded queue from which ingest threads
+ * take them and pass them to a FedoraObjectHandler obtained from the
+ * configured factory (typically a VersionAbstractionFedoraObjectHandler
+ * chained to a BasicObjectVersionHandler).  When the queue is full, parse
+ * threads block until an ingest thread catches up, so at most
+ * queueCapacity + parseThreadCount objects are held at any time.
+ *
+ * The time parse threads spend blocked on a full queue and the time ingest
+ * threads spend waiting on an empty one are recorded along with the queue
+ * depth, and are reported periodically so that each stage may be sized: a
+ * large parse stall indicates that more ingest threads are needed, a large
+ * ingest stall indicates that more parse threads are needed.
+ *
+ * When a CompletedObjectJournal is provided, objects it records as completed
+ * are skipped, and each object is recorded once it has been ingested (or once
+ * its parsing or ingest has failed).  Objects that are
+ * MigrationTrackingFedoraObjectProcessors are told once they have been
+ * ingested or skipped, or that their ingest failed.
+ */
+public class MigrationPipeline {
+
+    private static final Logger LOGGER = getLogger(MigrationPipeline.class);
+
+    /**
+     * A sentinel placed on the queue to tell an ingest thread that no more
+     * objects will be made available.
+     */
+    private static final MaterializedObjectReference END_OF_QUEUE = new MaterializedObjectReference(null);
+
+    private int parseThreadCount;
+
+    private int ingestThreadCount;
+
+    private int queueCapacity;
+
+    private int memoryThreshold;
+
+    private int reportIntervalSeconds;
+
+    private FedoraObjectHandlerFactory ingestHandlerFactory;
+
+    private MetricsReporter metricsReporter;
+
+    private BlockingQueue<MaterializedObjectReference> queue;
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong ingested = new AtomicLong();
+    private final AtomicLong parseStallNanos = new AtomicLong();
+    private final AtomicLong ingestStallNanos = new AtomicLong();
+    private final AtomicLong queueDepthSamples = new AtomicLong();
+    private final AtomicLong queueDepthTotal = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private volatile long start;
+
+    public MigrationPipeline() {
+        parseThreadCount = 1;
+        ingestThreadCount = 1;
+        queueCapacity = 8;
+        memoryThreshold = 1024 * 1024;
+        reportIntervalSeconds = 60;
+    }
+
+    /**
+     * Sets the number of threads that parse FOXML.
+     */
+    public void setParseThreadCount(final int parseThreadCount) {
+        if (parseThreadCount < 1) {
+            throw new IllegalArgumentException("parseThreadCount must be at least 1.");
+        }
+        this.parseThreadCount = parseThreadCount;
+    }
+
+    /**
+     * Sets the number of threads that ingest parsed objects.
+     */
+    public void setIngestThreadCount(final int ingestThreadCount) {
+        if (ingestThreadCount < 1) {
+            throw new IllegalArgumentException("ingestThreadCount must be at least 1.");
+        }
+        this.ingestThreadCount = ingestThreadCount;
+    }
+
+    /**
+     * Sets the maximum number of parsed objects that may be waiting for an
+     * ingest thread.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the size in bytes beyond which the content of a parsed datastream
+     * version is held in a temporary file rather than in memory.
+     */
+    public void setMemoryThreshold(final int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Sets the number of seconds between the periodic reports of the pipeline
+     * statistics.  A value of zero or less disables periodic reports.
+     */
+    public void setReportIntervalSeconds(final int reportIntervalSeconds) {
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    /**
+     * Sets the factory from which each ingest thread obtains its handler.
+     */
+    public void setIngestHandlerFactory(final FedoraObjectHandlerFactory ingestHandlerFactory) {
+        this.ingestHandlerFactory = ingestHandlerFactory;
+    }
+
+    /**
+     * Sets a reporter to be told of each object ingested.
+     */
+    public void setMetricsReporter(final MetricsReporter metricsReporter) {
+        this.metricsReporter = metricsReporter;
+    }
+
+    /**
+     * Gets the number of objects that have been parsed.
+     */
+    public long getParsedCount() {
+        return parsed.get();
+    }
+
+    /**
+     * Gets the number of objects that have been ingested.
+     */
+    public long getIngestedCount() {
+        return ingested.get();
+    }
+
+    /**
+     * Gets the number of parsed objects currently waiting for an ingest thread.
+     */
+    public int getQueueDepth() {
+        final BlockingQueue<MaterializedObjectReference> q = queue;
+        return q == null ? 0 : q.size();
+    }
+
+    /**
+     * Gets the largest number of parsed objects that have waited for an ingest
+     * thread at once.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Gets the average number of parsed objects found waiting for an ingest
+     * thread each time a parse thread handed off an object.
+     */
+    public double getAverageQueueDepth() {
+        final long samples = queueDepthSamples.get();
+        return samples == 0 ? 0 : (double) queueDepthTotal.get() / samples;
+    }
+
+    /**
+     * Gets the total time, across all parse threads, spent waiting for room on
+     * the queue.
+     */
+    public long getParseStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(parseStallNanos.get());
+    }
+
+    /**
+     * Gets the total time, across all ingest threads, spent waiting for a
+     * parsed object.
+     */
+    public long getIngestStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ingestStallNanos.get());
+    }
+
+    /**
+     * Parses and ingests the objects exposed by the given source, returning
+     * once every object has been ingested.
+     * @param source the source of objects
+     * @param limit the maximum number of objects to process, or a negative
+     *              value to process every object
+     * @throws RuntimeException wrapping the first failure encountered by any
+     *         thread, after which no further objects are started
+     */
+    public void run(final ObjectSource source, final int limit) {
+        run(source, limit, null);
+    }
+
+    /**
+     * Parses and ingests the objects exposed by the given source, returning
+     * once every object has been ingested.
+     * @param source the source of objects
+     * @param limit the maximum number of objects to process, or a negative
+     *              value to process every object
+     * @param journal a journal in which to record processed objects and by
+     *                which to skip previously completed objects, or null
+     * @throws RuntimeException wrapping the first failure encountered by any
+     *         thread, after which no further objects are started
+     */
+    public void run(final ObjectSource source, final int limit, final CompletedObjectJournal journal) {
+        if (ingestHandlerFactory == null) {
+            throw new IllegalStateException("An ingestHandlerFactory must be configured.");
+        }
+        queue = new ArrayBlockingQueue<MaterializedObjectReference>(queueCapacity);
+        start = System.currentTimeMillis();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final SourceReader reader = new SourceReader(source.iterator(), limit, journal, failure);
+
+        final ExecutorService ingestExecutor
+                = Executors.newFixedThreadPool(ingestThreadCount, new StageThreadFactory("ingest"));
+        for (int i = 0; i < ingestThreadCount; i ++) {
+            ingestExecutor.execute(new IngestWorker(journal, failure));
+        }
+        final ExecutorService parseExecutor
+                = Executors.newFixedThreadPool(parseThreadCount, new StageThreadFactory("parse"));
+        for (int i = 0; i < parseThreadCount; i ++) {
+            parseExecutor.execute(new ParseWorker(reader, journal, failure));
+        }
+        final ScheduledExecutorService reporter = startReporter();
+
+        try {
+            awaitTermination(parseExecutor, "parse");
+            for (int i = 0; i < ingestThreadCount; i ++) {
+                queue.put(END_OF_QUEUE);
+            }
+            awaitTermination(ingestExecutor, "ingest");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            parseExecutor.shutdownNow();
+            ingestExecutor.shutdownNow();
+            failure.compareAndSet(null, e);
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+        }
+        LOGGER.info(describeProgress());
+
+        if (failure.get() != null) {
+            throw new RuntimeException("Migration stopped due to a failure processing an object.", failure.get());
+        }
+    }
+
+    private void awaitTermination(final ExecutorService executor, final String stage) throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.info("Waiting for the " + stage + " stage to finish...");
+        }
+    }
+
+    private ScheduledExecutorService startReporter() {
+        if (reportIntervalSeconds <= 0) {
+            return null;
+        }
+        final ScheduledExecutorService reporter
+                = Executors.newSingleThreadScheduledExecutor(new StageThreadFactory("report"));
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                LOGGER.info(describeProgress());
+            }
+        }, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    /**
+     * Gets a single line summary of the pipeline statistics.
+     */
+    public String describeProgress() {
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        return String.format("Pipeline: %d parsed (%.2f/s), %d ingested (%.2f/s), queue depth %d/%d "
+                        + "(average %.1f, max %d), parse threads stalled %dms, ingest threads waited %dms.",
+                getParsedCount(), getParsedCount() * 1000d / elapsed,
+                getIngestedCount(), getIngestedCount() * 1000d / elapsed,
+                getQueueDepth(), queueCapacity, getAverageQueueDepth(), getMaxQueueDepth(),
+                getParseStallMillis(), getIngestStallMillis());
+    }
+
+    /**
+     * Places a parsed object on the queue, blocking while the queue is full.
+     */
+    private void handOff(final MaterializedObjectReference object) throws InterruptedException {
+        final int depth = queue.size();
+        queueDepthSamples.incrementAndGet();
+        queueDepthTotal.addAndGet(depth);
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // retry...
+        }
+        final long before = System.nanoTime();
+        queue.put(object);
+        parseStallNanos.addAndGet(System.nanoTime() - before);
+    }
+
+    /**
+     * A thread-safe wrapper around the source iterator that skips previously
+     * completed objects, enforces the limit and stops providing objects once
+     * a failure has occurred.
+     */
+    private static class SourceReader {
+
+        private final Iterator<FedoraObjectProcessor> iterator;
+
+        private final int limit;
+
+        private final CompletedObjectJournal journal;
+
+        private final AtomicReference<Throwable> failure;
+
+        private int index;
+
+        public SourceReader(final Iterator<FedoraObjectProcessor> iterator, final int limit,
+                            final CompletedObjectJournal journal, final AtomicReference<Throwable> failure) {
+            this.iterator = iterator;
+            this.limit = limit;
+            this.journal = journal;
+            this.failure = failure;
+        }
+
+        /**
+         * Gets the next object to process or null if there are no more.
+         */
+        public synchronized FedoraObjectProcessor next() {
+            while (failure.get() == null && iterator.hasNext()) {
+                final FedoraObjectProcessor o = iterator.next();
+                if (journal != null && journal.isCompleted(o.getObjectInfo().getPid())) {
+                    if (o instanceof MigrationTrackingFedoraObjectProcessor) {
+                        ((MigrationTrackingFedoraObjectProcessor) o).migrated();
+                    }
+                    o.close();
+                    continue;
+                }
+                if (limit >= 0 && index ++ >= limit) {
+                    o.close();
+                    return null;
+                }
+                return o;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A Runnable that parses objects from the source and hands the
+     * materialized results to the ingest stage.
+     */
+    private class ParseWorker implements Runnable {
+
+        private final SourceReader reader;
+
+        private final CompletedObjectJournal journal;
+
+        private final AtomicReference<Throwable> failure;
+
+        /**
+         * The object being parsed, with which its materialized result is
+         * tagged.
+         */
+        private FedoraObjectProcessor current;
+
+        public ParseWorker(final SourceReader reader, final CompletedObjectJournal journal,
+                           final AtomicReference<Throwable> failure) {
+            this.reader = reader;
+            this.journal = journal;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            final FedoraObjectHandler handOff = new FedoraObjectHandler() {
+                @Override
+                public void processObject(final ObjectReference object) {
+                    final MaterializedObjectReference materialized = (MaterializedObjectReference) object;
+                    materialized.setProcessor(current);
+                    parsed.incrementAndGet();
+                    try {
+                        handOff(materialized);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        materialized.release();
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            try {
+                FedoraObjectProcessor o;
+                while ((o = reader.next()) != null) {
+                    current = o;
+                    LOGGER.info("Parsing \"" + o.getObjectInfo().getPid() + "\"...");
+                    final MaterializingStreamingFedoraObjectHandler handler
+                            = new MaterializingStreamingFedoraObjectHandler(handOff, memoryThreshold);
+                    try {
+                        o.processObject(handler);
+                    } catch (XMLStreamException | RuntimeException | Error e) {
+                        handler.abortObject(o.getObjectInfo());
+                        if (journal != null) {
+                            journal.recordAborted(o.getObjectInfo().getPid());
+                        }
+                        throw e;
+                    }
+                }
+            } catch (Throwable e) {
+                LOGGER.error("Failed to parse an object.", e);
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * A Runnable that ingests objects from the queue until it encounters the
+     * END_OF_QUEUE sentinel.  Once any thread has failed, the remaining objects
+     * are released without being ingested so that no parse thread is left
+     * blocked.
+     */
+    private class IngestWorker implements Runnable {
+
+        private final CompletedObjectJournal journal;
+
+        private final AtomicReference<Throwable> failure;
+
+        public IngestWorker(final CompletedObjectJournal journal, final AtomicReference<Throwable> failure) {
+            this.journal = journal;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            FedoraObjectHandler handler = null;
+            try {
+                handler = ingestHandlerFactory.createHandler();
+            } catch (Throwable e) {
+                LOGGER.error("Unable to create an ingest handler.", e);
+                failure.compareAndSet(null, e);
+            }
+            try {
+                while (true) {
+                    final long before = System.nanoTime();
+                    final MaterializedObjectReference o = queue.take();
+                    ingestStallNanos.addAndGet(System.nanoTime() - before);
+                    if (o == END_OF_QUEUE) {
+                        return;
+                    }
+                    boolean migrated = false;
+                    try {
+                        if (failure.get() == null) {
+                            LOGGER.info("Ingesting \"" + o.getObjectInfo().getPid() + "\"...");
+                            handler.processObject(o);
+                            migrated = true;
+                            ingested.incrementAndGet();
+                            if (journal != null) {
+                                journal.recordCompleted(o.getObjectInfo().getPid());
+                            }
+                            if (metricsReporter != null) {
+                                metricsReporter.recordCompleted(o.getObjectInfo().getPid());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        // an Error too is recorded rather than ending the thread, which
+                        // would leave parse threads blocked on a full queue
+                        LOGGER.error("Failed to ingest \"" + o.getObjectInfo().getPid() + "\".", e);
+                        failure.compareAndSet(null, e);
+                        if (journal != null) {
+                            journal.recordAborted(o.getObjectInfo().getPid());
+                        }
+                    } finally {
+                        o.release();
+                        recordOutcome(o, migrated);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Tells the processor from which an object was parsed, if it tracks it,
+     * whether the object was migrated.
+     */
+    private static void recordOutcome(final MaterializedObjectReference object, final boolean migrated) {
+        if (object.getProcessor() instanceof MigrationTrackingFedoraObjectProcessor) {
+            final MigrationTrackingFedoraObjectProcessor processor
+                    = (MigrationTrackingFedoraObjectProcessor) object.getProcessor();
+            if (migrated) {
+                processor.migrated();
+            } else {
+                processor.notMigrated();
+            }
+        }
+    }
+
+    /**
+     * A ThreadFactory that names threads after the stage they belong to.
+     */
+    private static class StageThreadFactory implements ThreadFactory {
+
+        private final String stage;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public StageThreadFactory(final String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "migration-" + stage + "-" + count.getAndIncrement());
+            t.setDaemon("report".equals(stage));
+            return t;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package org.fcrepo.migration.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A minimal in-process stand-in for a Fedora 4 repository, answering the
+ * requests that the fcrepo client makes on behalf of the
+ * BasicObjectVersionHandler, so that the throughput of a migration can be
+ * measured reproducibly without a real repository.
+ *
+ * It keeps only the set of resources that have been created and the version
+ * labels of each, and discards any content it receives after counting it.
+ * The following requests are understood:
+ * <ul>
+ *     <li>PUT without content creates a container (201), or fails if the
+ *     resource exists (409);</li>
+ *     <li>PUT with content creates a binary (201) or replaces its content
+ *     (204);</li>
+ *     <li>GET, of a container or of the fcr:metadata of a binary, returns a
+ *     trivial RDF/XML description (200);</li>
+ *     <li>HEAD returns 200 or 404;</li>
+ *     <li>PATCH accepts any SPARQL update (204);</li>
+ *     <li>POST to fcr:versions records the version label given as the Slug
+ *     (204), or fails if it is already in use (409).</li>
+ * </ul>
+ *
+ * To model a loaded repository, each request may be delayed by latencyMillis
+ * plus a random amount up to latencyJitterMillis, the number of requests
+ * handled at once may be capped at maxConcurrentRequests (further requests
+ * queue), the rate at which requests are answered may be capped at
+ * maxRequestsPerSecond, and a random errorRate fraction of requests may be
+ * answered with errorStatus without taking effect.
+ */
+public class StubFedora4Server {
+
+    private static final Logger LOGGER = getLogger(StubFedora4Server.class);
+
+    private static final String METADATA = "/fcr:metadata";
+
+    private static final String VERSIONS = "/fcr:versions";
+
+    private int port = 0;
+
+    private String contextPath = "/rest";
+
+    private long latencyMillis;
+
+    private long latencyJitterMillis;
+
+    private int maxConcurrentRequests;
+
+    private double maxRequestsPerSecond;
+
+    private double errorRate;
+
+    private int errorStatus = 503;
+
+    private long seed = 1;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private Semaphore concurrency;
+
+    private Random random;
+
+    private long nextSlotNanos;
+
+    private final ConcurrentHashMap<String, Set<String>> resources = new ConcurrentHashMap<String, Set<String>>();
+
+    private final Set<String> binaries = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Sets the port on which to listen.  The default, 0, picks a free port;
+     * see {@link #getRepositoryURL}.
+     */
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    public void setContextPath(final String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    /**
+     * Sets the time for which every request is delayed before it is answered.
+     */
+    public void setLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the largest random amount added to the latency of each request.
+     */
+    public void setLatencyJitterMillis(final long latencyJitterMillis) {
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * Sets the number of requests handled at once, or 0 (the default) for no
+     * limit.
+     */
+    public void setMaxConcurrentRequests(final int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the greatest rate at which requests are answered, or 0 (the
+     * default) for no limit.
+     */
+    public void setMaxRequestsPerSecond(final double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * Sets the fraction of requests that fail.
+     */
+    public void setErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the status with which failed requests are answered.
+     */
+    public void setErrorStatus(final int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Sets the seed from which latency jitter and failures are drawn.
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() throws IOException {
+        random = new Random(seed);
+        concurrency = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests, true) : null;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext(contextPath, new StubHandler());
+        server.start();
+        LOGGER.info("Stub Fedora 4 repository listening at " + getRepositoryURL());
+    }
+
+    /**
+     * Stops answering requests.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            LOGGER.info("Stub Fedora 4 repository stopped after " + requestCount.get() + " requests ("
+                    + errorCount.get() + " failed).");
+        }
+    }
+
+    /**
+     * Gets the URL to give to the fcrepo client.
+     */
+    public String getRepositoryURL() {
+        return "http://localhost:" + server.getAddress().getPort() + contextPath + "/";
+    }
+
+    /**
+     * Gets the number of requests received.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of requests answered with the error status.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Gets the number of bytes of binary content received.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Gets the number of containers created.
+     */
+    public int getContainerCount() {
+        return resources.size() - binaries.size();
+    }
+
+    /**
+     * Gets the number of binaries created.
+     */
+    public int getBinaryCount() {
+        return binaries.size();
+    }
+
+    /**
+     * Gets the number of version snapshots recorded for a resource, identified
+     * by its path relative to the repository URL.
+     */
+    public int getVersionCount(final String path) {
+        final Set<String> versions = resources.get(normalize("/" + path));
+        return versions == null ? 0 : versions.size();
+    }
+
+    /**
+     * Runs a stub repository until the process is killed.  The arguments are
+     * "--name value" pairs that set the property of that name, for example
+     * "--port 8080 --latencyMillis 20 --maxRequestsPerSecond 500".
+     */
+    public static void main(final String[] args) throws Exception {
+        final StubFedora4Server server = new StubFedora4Server();
+        server.setPort(8080);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String name = args[i].replaceFirst("^--", "");
+            final String value = args[i + 1];
+            if (name.equals("port")) {
+                server.setPort(Integer.parseInt(value));
+            } else if (name.equals("contextPath")) {
+                server.setContextPath(value);
+            } else if (name.equals("latencyMillis")) {
+                server.setLatencyMillis(Long.parseLong(value));
+            } else if (name.equals("latencyJitterMillis")) {
+                server.setLatencyJitterMillis(Long.parseLong(value));
+            } else if (name.equals("maxConcurrentRequests")) {
+                server.setMaxConcurrentRequests(Integer.parseInt(value));
+            } else if (name.equals("maxRequestsPerSecond")) {
+                server.setMaxRequestsPerSecond(Double.parseDouble(value));
+            } else if (name.equals("errorRate")) {
+                server.setErrorRate(Double.parseDouble(value));
+            } else if (name.equals("errorStatus")) {
+                server.setErrorStatus(Integer.parseInt(value));
+            } else if (name.equals("seed")) {
+                server.setSeed(Long.parseLong(value));
+            } else {
+                throw new IllegalArgumentException("Unknown property \"" + name + "\".");
+            }
+        }
+        server.start();
+    }
+
+    /**
+     * Waits until this request may be answered under the rate limit, then
+     * for the configured latency.
+     */
+    private void delay() throws InterruptedException {
+        long waitNanos = 0;
+        final long jitter;
+        synchronized (this) {
+            if (maxRequestsPerSecond > 0) {
+                final long now = System.nanoTime();
+                final long slot = Math.max(now, nextSlotNanos);
+                nextSlotNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond);
+                waitNanos = slot - now;
+            }
+            jitter = latencyJitterMillis > 0 ? (long) (random.nextDouble() * latencyJitterMillis) : 0;
+        }
+        final long sleepMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos) + latencyMillis + jitter;
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    private synchronized boolean shouldFail() {
+        return errorRate > 0 && random.nextDouble() < errorRate;
+    }
+
+    private static String normalize(final String path) {
+        String p = path.replaceAll("/{2,}", "/");
+        while (p.length() > 1 && p.endsWith("/")) {
+            p = p.substring(0, p.length() - 1);
+        }
+        return p;
+    }
+
+    private class StubHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                if (concurrency != null) {
+                    concurrency.acquire();
+                }
+                try {
+                    final long length = consume(exchange.getRequestBody());
+                    delay();
+                    if (shouldFail()) {
+                        errorCount.incrementAndGet();
+                        respond(exchange, errorStatus);
+                    } else {
+                        answer(exchange, length);
+                    }
+                } finally {
+                    if (concurrency != null) {
+                        concurrency.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void answer(final HttpExchange exchange, final long length) throws IOException {
+            final String method = exchange.getRequestMethod();
+            final String path = normalize(exchange.getRequestURI().getPath().substring(contextPath.length()));
+            if (method.equals("PUT")) {
+                final boolean hasContent = length > 0
+                        || exchange.getRequestHeaders().getFirst("Content-Type") != null;
+                if (hasContent) {
+                    bytesReceived.addAndGet(length);
+                }
+                if (create(path)) {
+                    if (hasContent) {
+                        binaries.add(path);
+                    }
+                    respond(exchange, 201);
+                } else {
+                    respond(exchange, hasContent && binaries.contains(path) ? 204 : 409);
+                }
+            } else if (method.equals("GET")) {
+                final String resource = path.endsWith(METADATA)
+                        ? path.substring(0, path.length() - METADATA.length()) : path;
+                if (!resources.containsKey(resource)) {
+                    respond(exchange, 404);
+                } else {
+                    final String uri = "http://" + exchange.getRequestHeaders().getFirst("Host") + contextPath
+                            + resource;
+                    final byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                            + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n"
+                            + "  <rdf:Description rdf:about=\"" + uri + "\">\n"
+                            + "    <rdf:type rdf:resource=\"http://fedora.info/definitions/v4/repository#"
+                            + (binaries.contains(resource) ? "Binary" : "Container") + "\"/>\n"
+                            + "  </rdf:Description>\n</rdf:RDF>\n").getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", "application/rdf+xml");
+                    exchange.getResponseHeaders().set("ETag", "\"" + resources.get(resource).size() + "\"");
+                    exchange.sendResponseHeaders(200, body.length);
+                    final OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+            } else if (method.equals("HEAD")) {
+                respond(exchange, resources.containsKey(path) ? 200 : 404);
+            } else if (method.equals("PATCH")) {
+                respond(exchange, resources.containsKey(path) ? 204 : 404);
+            } else if (method.equals("POST") && path.endsWith(VERSIONS)) {
+                final Set<String> versions = resources.get(path.substring(0, path.length() - VERSIONS.length()));
+                if (versions == null) {
+                    respond(exchange, 404);
+                } else {
+                    synchronized (versions) {
+                        respond(exchange, versions.add(String.valueOf(exchange.getRequestHeaders()
+                                .getFirst("Slug"))) ? 204 : 409);
+                    }
+                }
+            } else {
+                respond(exchange, 405);
+            }
+        }
+
+        /**
+         * Creates the resource at the path unless it already exists.
+         * @return true if it was created
+         */
+        private boolean create(final String path) {
+            return resources.putIfAbsent(path, new HashSet<String>()) == null;
+        }
+
+        private void respond(final HttpExchange exchange, final int status) throws IOException {
+            exchange.sendResponseHeaders(status, -1);
+        }
+
+        private long consume(final InputStream in) throws IOException {
+            final byte[] buffer = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.fcrepo.migration;
+
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the Migrator when configured to process objects with
+ * a pool of worker threads.
+ */
+public class ConcurrentMigratorTest {
+
+    @Test
+    public void testAllObjectsProcessed() throws XMLStreamException {
+        final CountingHandler handler = new CountingHandler();
+        final Migrator m = new Migrator(new RepeatingObjectSource(20), handler);
+        m.setWorkerCount(4);
+        m.run();
+        Assert.assertEquals(20, handler.completed.get());
+        Assert.assertEquals(20 * 7, handler.datastreamVersions.get());
+        Assert.assertEquals(0, handler.aborted.get());
+    }
+
+    @Test
+    public void testLimitIsRespected() throws XMLStreamException {
+        final CountingHandler handler = new CountingHandler();
+        final Migrator m = new Migrator(new RepeatingObjectSource(20), handler);
+        m.setWorkerCount(3);
+        m.setLimit(5);
+        m.run();
+        Assert.assertEquals(5, handler.completed.get());
+    }
+
+    @Test
+    public void testSeveralWorkersUsed() throws XMLStreamException {
+        final CountingHandler handler = new CountingHandler() {
+            @Override
+            public void completeObject(final ObjectInfo object) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.completeObject(object);
+            }
+        };
+        final Migrator m = new Migrator(new RepeatingObjectSource(20), handler);
+        m.setWorkerCount(4);
+        m.run();
+        Assert.assertTrue("Objects should have been processed on more than one thread.",
+                handler.threadNames.size() > 1);
+    }
+
+    @Test (expected = RuntimeException.class)
+    public void testFailureIsRethrown() throws XMLStreamException {
+        final CountingHandler handler = new CountingHandler() {
+            @Override
+            public void beginObject(final ObjectInfo object) {
+                throw new IllegalStateException("Expected failure.");
+            }
+        };
+        final Migrator m = new Migrator(new RepeatingObjectSource(10), handler);
+        m.setWorkerCount(2);
+        m.run();
+    }
+
+    @Test (timeout = 60000)
+    public void testErrorIsRethrown() throws XMLStreamException {
+        final CountingHandler handler = new CountingHandler() {
+            @Override
+            public void beginObject(final ObjectInfo object) {
+                throw new AssertionError("Expected failure.");
+            }
+        };
+        final Migrator m = new Migrator(new RepeatingObjectSource(20), handler);
+        m.setWorkerCount(2);
+        try {
+            m.run();
+            Assert.fail("The error should have been rethrown.");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    /**
+     * An ObjectSource that exposes the same example object a fixed number of times.
+     */
+    public static class RepeatingObjectSource implements ObjectSource {
+
+        private final int count;
+
+        public RepeatingObjectSource(final int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Iterator<FedoraObjectProcessor> iterator() {
+            return new Iterator<FedoraObjectProcessor>() {
+
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < count;
+                }
+
+                @Override
+                public FedoraObjectProcessor next() {
+                    index ++;
+                    try {
+                        return new Foxml11InputStreamFedoraObjectProcessor(getClass().getClassLoader()
+                                .getResourceAsStream("exported/example1-foxml.xml"),
+                                new Example1TestSuite.DummyURLFetcher(), new Example1TestSuite.DummyIDResolver());
+                    } catch (XMLStreamException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * A thread-safe StreamingFedoraObjectHandler that counts the calls made to it.
+     */
+    public static class CountingHandler implements StreamingFedoraObjectHandler {
+
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger aborted = new AtomicInteger();
+        final AtomicInteger datastreamVersions = new AtomicInteger();
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+
+        public int getCompletedCount() {
+            return completed.get();
+        }
+
+        @Override
+        public void beginObject(final ObjectInfo object) {
+            threadNames.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void processObjectProperties(final ObjectProperties properties) {
+        }
+
+        @Override
+        public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+            datastreamVersions.incrementAndGet();
+        }
+
+        @Override
+        public void completeObject(final ObjectInfo object) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void abortObject(final ObjectInfo object) {
+            aborted.incrementAndGet();
+        }
+    }
+}
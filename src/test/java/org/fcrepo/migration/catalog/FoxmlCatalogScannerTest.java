@@ -0,0 +1,77 @@
+package org.fcrepo.migration.catalog;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.migration.corpus.FoxmlCorpusGenerator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+public class FoxmlCatalogScannerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdirs();
+        final FoxmlCorpusGenerator generator = new FoxmlCorpusGenerator();
+        generator.setNativeDir(new File(dir, "native"));
+        generator.setExportDir(new File(dir, "export"));
+        generator.setObjectCount(20);
+        generator.setDatastreamCount(3);
+        generator.setVersionsPerDatastream(2);
+        generator.setManagedContentBytes(10000);
+        generator.generate();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testNativeAndExportCatalogsAgree() throws IOException {
+        Assert.assertEquals(20, new FoxmlCatalogScanner(new File(dir, "native/objectStore"))
+                .scan(new File(dir, "native.catalog")));
+        Assert.assertEquals(20, new FoxmlCatalogScanner(new File(dir, "export")).scan(new File(dir, "export.catalog")));
+        final FoxmlCatalog nativeCatalog = FoxmlCatalog.read(new File(dir, "native.catalog"));
+        final FoxmlCatalog exportCatalog = FoxmlCatalog.read(new File(dir, "export.catalog"));
+
+        Assert.assertEquals(20, nativeCatalog.getObjectCount());
+        Assert.assertEquals(20 * 8, nativeCatalog.getVersionCount());
+        Assert.assertEquals(20 * 5, nativeCatalog.getDatastreamCount('X') + nativeCatalog.getDatastreamCount('M'));
+        Assert.assertTrue(nativeCatalog.getDatastreamCount('M') > 0);
+        for (final CatalogEntry n : nativeCatalog.getEntries()) {
+            final CatalogEntry e = exportCatalog.getEntry(n.getPid());
+            Assert.assertEquals(n.getVersionCount(), e.getVersionCount());
+            Assert.assertEquals(n.getDatastreamCount('M'), e.getDatastreamCount('M'));
+            Assert.assertTrue("Exported FOXML holds the managed content.", e.getFileBytes() >= n.getFileBytes());
+            // the sizes of inline XML are estimates
+            Assert.assertEquals(n.getContentBytes(), e.getContentBytes(), n.getContentBytes() / 100.0);
+        }
+
+    }
+
+    @Test
+    public void testBalance() throws IOException {
+        new FoxmlCatalogScanner(new File(dir, "export")).scan(new File(dir, "catalog"));
+        final FoxmlCatalog catalog = FoxmlCatalog.read(new File(dir, "catalog"));
+        final Map<String, Integer> shards = catalog.balance(3);
+        Assert.assertEquals(catalog.getObjectCount(), shards.size());
+        final long[] weights = new long[3];
+        for (final CatalogEntry e : catalog.getEntries()) {
+            weights[shards.get(e.getPid())] += e.getWeight();
+        }
+        final long heaviest = catalog.getLargest(1).get(0).getWeight();
+        for (final long w : weights) {
+            Assert.assertTrue("Shards should differ by no more than the heaviest object.",
+                    Math.abs(w - catalog.getWeight() / 3) <= heaviest);
+        }
+    }
+}
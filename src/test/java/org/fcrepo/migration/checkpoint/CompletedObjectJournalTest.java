@@ -0,0 +1,183 @@
+package org.fcrepo.migration.checkpoint;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.migration.ConcurrentMigratorTest;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.Migrator;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.catalog.CatalogEntry;
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.fcrepo.migration.metrics.MetricsReporter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the CompletedObjectJournal and the classes that use it to skip
+ * previously completed objects.
+ */
+public class CompletedObjectJournalTest {
+
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = File.createTempFile("journal", ".txt");
+        journalFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    @Test
+    public void testCompletedObjectsSkippedAfterReopening() throws IOException {
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        journal.recordCompleted("example:1");
+        journal.recordAborted("example:2");
+        journal.recordCompleted("example:3");
+        Assert.assertFalse("Only objects completed in earlier runs should be skipped.",
+                journal.isCompleted("example:1"));
+        journal.close();
+
+        final CompletedObjectJournal reopened = new CompletedObjectJournal(journalFile);
+        Assert.assertEquals(2, reopened.getPreviouslyCompletedCount());
+        Assert.assertTrue(reopened.isCompleted("example:1"));
+        Assert.assertFalse(reopened.isCompleted("example:2"));
+        Assert.assertTrue(reopened.isCompleted("example:3"));
+        Assert.assertFalse(reopened.isCompleted("example:4"));
+        Assert.assertEquals(2, reopened.getSkippedCount());
+        reopened.close();
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws IOException {
+        FileUtils.writeStringToFile(journalFile, "C example:1\nC example:2", "UTF-8");
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        Assert.assertTrue(journal.isCompleted("example:1"));
+        Assert.assertFalse(journal.isCompleted("example:2"));
+        journal.recordCompleted("example:3");
+        journal.close();
+        Assert.assertEquals("C example:1\nC example:3\n", FileUtils.readFileToString(journalFile, "UTF-8"));
+    }
+
+    @Test
+    public void testCompactStringSet() {
+        final CompactStringSet set = new CompactStringSet();
+        for (int i = 0; i < 10000; i ++) {
+            Assert.assertTrue(set.add("example:" + i));
+        }
+        Assert.assertFalse(set.add("example:42"));
+        Assert.assertEquals(10000, set.size());
+        for (int i = 0; i < 10000; i ++) {
+            Assert.assertTrue(set.contains("example:" + i));
+        }
+        Assert.assertFalse(set.contains("example:10000"));
+        Assert.assertFalse(set.contains("example:"));
+    }
+
+    @Test
+    public void testFileFilter() throws IOException {
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        journal.recordCompleted("example:1");
+        journal.close();
+
+        final CompletedObjectFileFilter filter = new CompletedObjectFileFilter(new CompletedObjectJournal(journalFile));
+        Assert.assertFalse(filter.accept(new File("info%3Afedora%2Fexample%3A1")));
+        Assert.assertTrue(filter.accept(new File("info%3Afedora%2Fexample%3A2")));
+        Assert.assertTrue(filter.accept(new File("example1-foxml.xml")));
+    }
+
+    @Test
+    public void testMigratorSkipsCompletedObjects() throws IOException, XMLStreamException {
+        final ConcurrentMigratorTest.CountingHandler handler = new ConcurrentMigratorTest.CountingHandler();
+        final Migrator first = new Migrator(new ConcurrentMigratorTest.RepeatingObjectSource(1), handler);
+        first.setJournal(new CompletedObjectJournal(journalFile));
+        first.run();
+        Assert.assertEquals(1, handler.getCompletedCount());
+
+        final Migrator second = new Migrator(new ConcurrentMigratorTest.RepeatingObjectSource(3), handler);
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        second.setJournal(journal);
+        second.run();
+        Assert.assertEquals("The already completed object should have been skipped.",
+                1, handler.getCompletedCount());
+        Assert.assertEquals(3, journal.getSkippedCount());
+        journal.close();
+    }
+
+    /**
+     * Tests that objects completed by an earlier run are left out of the
+     * catalog from which the time remaining is estimated.
+     */
+    @Test
+    public void testPreviouslyCompletedObjectsLeftOutOfEstimate() throws IOException, XMLStreamException {
+        final CompletedObjectJournal first = new CompletedObjectJournal(journalFile);
+        first.recordCompleted("example:1");
+        first.close();
+
+        final MetricsReporter reporter = new MetricsReporter();
+        reporter.setCatalog(new FoxmlCatalog(Arrays.asList(
+                new CatalogEntry("example:1", "a.xml", 100, new int[4], 1, 1000),
+                new CatalogEntry("example:2", "b.xml", 100, new int[4], 1, 500))));
+        final Migrator m = new Migrator(new ConcurrentMigratorTest.RepeatingObjectSource(1),
+                new ConcurrentMigratorTest.CountingHandler());
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        m.setJournal(journal);
+        m.setMetricsReporter(reporter);
+        m.run();
+        Assert.assertEquals(1, reporter.getCatalog().getObjectCount());
+        Assert.assertEquals(500, reporter.getCatalog().getWeight());
+        Assert.assertEquals("Checking the catalog should not count objects as skipped.",
+                1, journal.getSkippedCount());
+        journal.close();
+    }
+
+    /**
+     * Tests that the objects skipped because they were already completed are
+     * closed rather than left open.
+     */
+    @Test
+    public void testSkippedObjectsClosed() throws IOException, XMLStreamException {
+        final CompletedObjectJournal journal = new CompletedObjectJournal(journalFile);
+        journal.recordCompleted("example:1");
+        journal.close();
+
+        final AtomicInteger closed = new AtomicInteger();
+        final List<FedoraObjectProcessor> objects = new ArrayList<FedoraObjectProcessor>();
+        for (int i = 0; i < 3; i ++) {
+            objects.add(new Foxml11InputStreamFedoraObjectProcessor(new FilterInputStream(
+                    getClass().getClassLoader().getResourceAsStream("exported/example1-foxml.xml")) {
+                @Override
+                public void close() throws IOException {
+                    closed.incrementAndGet();
+                    super.close();
+                }
+            }, null, null));
+        }
+        final Migrator m = new Migrator(new ObjectSource() {
+            @Override
+            public Iterator<FedoraObjectProcessor> iterator() {
+                return objects.iterator();
+            }
+        }, new ConcurrentMigratorTest.CountingHandler());
+        final CompletedObjectJournal reopened = new CompletedObjectJournal(journalFile);
+        m.setJournal(reopened);
+        m.run();
+        reopened.close();
+        Assert.assertEquals(3, closed.get());
+    }
+}
@@ -0,0 +1,130 @@
+package org.fcrepo.migration.corpus;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.Migrator;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.fcrepo.migration.foxml11.ArchiveExportedFoxmlDirectoryObjectSource;
+import org.fcrepo.migration.foxml11.DirectoryScanningIDResolver;
+import org.fcrepo.migration.foxml11.NativeFoxmlDirectoryObjectSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests that a generated corpus can be read in both of the layouts it is
+ * written in, and that the two layouts describe the same objects.
+ */
+public class FoxmlCorpusGeneratorTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("corpus", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testNativeAndExportLayoutsMatch() throws IOException, XMLStreamException {
+        final FoxmlCorpusGenerator generator = new FoxmlCorpusGenerator();
+        generator.setNativeDir(new File(dir, "native"));
+        generator.setExportDir(new File(dir, "export"));
+        generator.setObjectCount(20);
+        generator.setDatastreamCount(3);
+        generator.setVersionsPerDatastream(2);
+        generator.setManagedContentBytes(10000);
+        generator.setNamespaces("a,b,c");
+        generator.setNamespaceSkew(1.5);
+        generator.generate();
+
+        final NativeFoxmlDirectoryObjectSource nativeSource = new NativeFoxmlDirectoryObjectSource(
+                new File(dir, "native/objectStore"),
+                new DirectoryScanningIDResolver(new File(dir, "index"), new File(dir, "native/datastreamStore")));
+        final Map<String, String> nativeVersions = readVersions(nativeSource);
+        final Map<String, String> exportVersions
+                = readVersions(new ArchiveExportedFoxmlDirectoryObjectSource(new File(dir, "export")));
+
+        Assert.assertEquals("Each object should have DC, RELS-EXT and two versions of three datastreams.",
+                20 * 8, nativeVersions.size());
+        Assert.assertEquals(nativeVersions, exportVersions);
+
+        int first = 0;
+        int last = 0;
+        for (final String key : nativeVersions.keySet()) {
+            first += key.startsWith("a:") ? 1 : 0;
+            last += key.startsWith("c:") ? 1 : 0;
+        }
+        Assert.assertTrue("The first namespace should be the most common.", first > last);
+    }
+
+    @Test
+    public void testSameSeedProducesSameCorpus() throws IOException {
+        for (final String name : new String[] { "first", "second" }) {
+            final FoxmlCorpusGenerator generator = new FoxmlCorpusGenerator();
+            generator.setExportDir(new File(dir, name));
+            generator.setObjectCount(5);
+            generator.setSeed(42);
+            generator.generate();
+        }
+        final File first = new File(dir, "first");
+        for (final File f : FileUtils.listFiles(first, null, true)) {
+            final File other = new File(dir, "second" + f.getPath().substring(first.getPath().length()));
+            Assert.assertTrue(FileUtils.contentEquals(f, other));
+        }
+    }
+
+    /**
+     * Reads every datastream version from the source.
+     * @return a map from "pid/versionId" to the MD5 of the version's content
+     */
+    private static Map<String, String> readVersions(final ObjectSource source) throws XMLStreamException {
+        final Map<String, String> versions = new TreeMap<String, String>();
+        new Migrator(source, new StreamingFedoraObjectHandler() {
+            @Override
+            public void beginObject(final ObjectInfo object) {
+            }
+
+            @Override
+            public void processObjectProperties(final ObjectProperties properties) {
+            }
+
+            @Override
+            public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+                try (final InputStream content = dsVersion.getContent()) {
+                    versions.put(dsVersion.getDatastreamInfo().getObjectInfo().getPid() + "/"
+                            + dsVersion.getVersionId(), DigestUtils.md5Hex(content));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void completeObject(final ObjectInfo object) {
+            }
+
+            @Override
+            public void abortObject(final ObjectInfo object) {
+            }
+        }).run();
+        return versions;
+    }
+}
@@ -0,0 +1,76 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class AkubraHashPathIDResolverTest {
+
+    private File dsRoot;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws URISyntaxException, IOException {
+        dsRoot = new File(getClass().getClassLoader().getResource("datastreamStore").toURI());
+        dir = File.createTempFile("akubra", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testIdIsResolvedFromItsHashPath() {
+        final CachedContent content = new AkubraHashPathIDResolver(dsRoot).resolveInternalID("example:1+DS2+DS2.0");
+        Assert.assertEquals(new File(dsRoot, "e5/info%3Afedora%2Fexample%3A1%2FDS2%2FDS2.0"),
+                ((FileCachedContent) content).getFile());
+        Assert.assertNull(new AkubraHashPathIDResolver(dsRoot).resolveInternalID("example:1+DS2+DS2.1"));
+    }
+
+    @Test
+    public void testPathPattern() {
+        final AkubraHashPathIDResolver resolver = new AkubraHashPathIDResolver(dsRoot, "#/##");
+        Assert.assertEquals(new File(dsRoot, "e/51"), resolver.hashDirectory("info:fedora/example:1/DS2/DS2.0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPathPattern() {
+        new AkubraHashPathIDResolver(dsRoot, "##/x");
+    }
+
+    @Test
+    public void testEncoding() {
+        Assert.assertEquals("info%3Afedora%2Fa%3Ab%2B%5Fc%2FDS.1%2FDS%2E",
+                AkubraHashPathIDResolver.encode("info:fedora/a:b+_c/DS.1/DS."));
+    }
+
+    /**
+     * Tests that an id not at its hash path is found through the index,
+     * which is only built when first needed.
+     */
+    @Test
+    public void testMissesFallBackToIndex() throws IOException {
+        final File store = new File(dir, "store");
+        FileUtils.copyFile(new File(dsRoot, "e5/info%3Afedora%2Fexample%3A1%2FDS2%2FDS2.0"),
+                new File(store, "00/info%3Afedora%2Fexample%3A1%2FDS2%2FDS2.0"));
+        final File index = new File(dir, "index.bin");
+        final AkubraHashPathIDResolver resolver = new AkubraHashPathIDResolver(store);
+        resolver.setIndexFile(index);
+        Assert.assertFalse(index.exists());
+
+        final CachedContent content = resolver.resolveInternalID("example:1+DS2+DS2.0");
+        Assert.assertEquals(new File(store, "00/info%3Afedora%2Fexample%3A1%2FDS2%2FDS2.0"),
+                ((FileCachedContent) content).getFile());
+        Assert.assertTrue(index.exists());
+    }
+}
@@ -0,0 +1,184 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveFoxmlObjectSourceTest {
+
+    private File dir;
+
+    private String foxml;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("archives", "");
+        dir.delete();
+        dir.mkdir();
+        try (final InputStream in = getClass().getClassLoader().getResourceAsStream("exported/example1-foxml.xml")) {
+            foxml = IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Tests that the objects in every kind of archive in a directory are
+     * exposed in order.
+     */
+    @Test
+    public void testObjectsAreReadFromArchives() throws IOException, XMLStreamException {
+        try (final OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(dir, "a.tar.gz")))) {
+            writeTarEntry(out, "objects/", new byte[0], '5');
+            writeTarEntry(out, "objects/1.xml", object("example:1"), '0');
+            writeTarEntry(out, "objects/2.xml", object("example:2"), '0');
+            out.write(new byte[1024]);
+        }
+        try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(new File(dir, "b.zip")))) {
+            out.putNextEntry(new ZipEntry("objects/"));
+            out.putNextEntry(new ZipEntry("objects/3.xml"));
+            out.write(object("example:3"));
+            out.closeEntry();
+        }
+        try (final OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(dir, "c.xml.gz")))) {
+            out.write(object("example:4"));
+        }
+
+        final List<String> pids = new ArrayList<String>();
+        for (final FedoraObjectProcessor p : new ArchiveFoxmlObjectSource(dir)) {
+            final CollectingHandler handler = new CollectingHandler();
+            p.processObject(handler);
+            pids.add(handler.pid);
+            Assert.assertEquals(7, handler.versionCount);
+        }
+        Assert.assertEquals(Arrays.asList("example:1", "example:2", "example:3", "example:4"), pids);
+    }
+
+    /**
+     * Tests that an object not processed before the next is requested is
+     * still read in full.
+     */
+    @Test
+    public void testObjectsMayBeProcessedOutOfOrder() throws IOException, XMLStreamException {
+        final File archive = new File(dir, "a.tar");
+        try (final OutputStream out = new FileOutputStream(archive)) {
+            writeTarEntry(out, "1.xml", object("example:1"), '0');
+            writeTarEntry(out, "2.xml", object("example:2"), '0');
+            out.write(new byte[1024]);
+        }
+
+        final Iterator<FedoraObjectProcessor> i = new ArchiveFoxmlObjectSource(archive).iterator();
+        final FedoraObjectProcessor first = i.next();
+        final FedoraObjectProcessor second = i.next();
+        Assert.assertFalse(i.hasNext());
+
+        final CollectingHandler secondHandler = new CollectingHandler();
+        second.processObject(secondHandler);
+        final CollectingHandler firstHandler = new CollectingHandler();
+        first.processObject(firstHandler);
+        Assert.assertEquals("example:1", firstHandler.pid);
+        Assert.assertEquals("example:2", secondHandler.pid);
+        Assert.assertEquals(7, firstHandler.versionCount);
+        Assert.assertNotNull(firstHandler.dc);
+        Assert.assertEquals(secondHandler.dc, firstHandler.dc);
+    }
+
+    private byte[] object(final String pid) throws IOException {
+        return foxml.replace("PID=\"example:1\"", "PID=\"" + pid + "\"").getBytes("UTF-8");
+    }
+
+    /**
+     * Writes a ustar entry.
+     */
+    private static void writeTarEntry(final OutputStream out, final String name, final byte[] data, final char type)
+            throws IOException {
+        final byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", data.length));
+        put(header, 136, "00000000000");
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        int checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        header[154] = 0;
+        out.write(header);
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(final byte[] header, final int offset, final String value) throws IOException {
+        final byte[] b = value.getBytes("US-ASCII");
+        System.arraycopy(b, 0, header, offset, b.length);
+    }
+
+    private static class CollectingHandler implements StreamingFedoraObjectHandler {
+
+        private String pid;
+
+        private int versionCount;
+
+        private String dc;
+
+        @Override
+        public void beginObject(final ObjectInfo object) {
+            pid = object.getPid();
+        }
+
+        @Override
+        public void processObjectProperties(final ObjectProperties properties) {
+        }
+
+        @Override
+        public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+            versionCount ++;
+            if ("DC".equals(dsVersion.getDatastreamInfo().getDatastreamId())) {
+                try {
+                    dc = IOUtils.toString(dsVersion.getContent(), "UTF-8");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        @Override
+        public void completeObject(final ObjectInfo object) {
+        }
+
+        @Override
+        public void abortObject(final ObjectInfo object) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+public class Base64ChannelDecoderTest {
+
+    @Test
+    public void testDecodingInWindows() throws IOException {
+        final Random random = new Random(1);
+        final Base64ChannelDecoder decoder = new Base64ChannelDecoder(16);
+        for (int size = 0; size < 200; size ++) {
+            final byte[] data = new byte[size];
+            random.nextBytes(data);
+            // line breaks every 20 characters, as in FOXML exports
+            final char[] text = new String(new Base64(20).encode(data), "US-ASCII").toCharArray();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            decoder.begin(Channels.newChannel(out));
+            int offset = 0;
+            while (offset < text.length) {
+                final int length = Math.min(text.length - offset, 1 + random.nextInt(7));
+                decoder.decode(text, offset, length);
+                offset += length;
+            }
+            decoder.end();
+            Assert.assertArrayEquals("Decoding " + size + " bytes", data, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testUnpaddedAndUrlSafe() throws IOException {
+        final byte[] data = new byte[] { (byte) 0xfb, (byte) 0xff, 0x01, 0x02 };
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Base64ChannelDecoder decoder = new Base64ChannelDecoder();
+        decoder.begin(Channels.newChannel(out));
+        final char[] text = Base64.encodeBase64URLSafeString(data).toCharArray();
+        decoder.decode(text, 0, text.length);
+        decoder.end();
+        Assert.assertArrayEquals(data, out.toByteArray());
+    }
+}
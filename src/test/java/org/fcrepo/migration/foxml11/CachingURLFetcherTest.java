@@ -0,0 +1,165 @@
+package org.fcrepo.migration.foxml11;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingURLFetcherTest {
+
+    private HttpServer server;
+
+    private HttpClientURLFetcher httpFetcher;
+
+    private File directory;
+
+    /**
+     * The number of responses with content.
+     */
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /**
+     * The version of the content served, used as its ETag.
+     */
+    private volatile int version = 1;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String etag = "\"" + version + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                downloads.incrementAndGet();
+                final byte[] body = (exchange.getRequestURI().getPath() + " version " + version).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        httpFetcher = new HttpClientURLFetcher();
+        directory = File.createTempFile("url-cache", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpFetcher.close();
+        server.stop(0);
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private String fetch(final URLFetcher fetcher, final String path) throws IOException {
+        try (final InputStream in = fetcher.getContentAtUrl(
+                new URL("http://localhost:" + server.getAddress().getPort() + path))) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    @Test
+    public void testContentIsRevalidated() throws IOException {
+        final CachingURLFetcher fetcher = new CachingURLFetcher(httpFetcher, directory, 1024);
+        Assert.assertEquals("/a version 1", fetch(fetcher, "/a"));
+        Assert.assertEquals("/a version 1", fetch(fetcher, "/a"));
+        Assert.assertEquals(1, downloads.get());
+        Assert.assertEquals(1, notModified.get());
+
+        version = 2;
+        Assert.assertEquals("/a version 2", fetch(fetcher, "/a"));
+        Assert.assertEquals("/a version 2", fetch(fetcher, "/a"));
+        Assert.assertEquals(2, downloads.get());
+        Assert.assertEquals(1, directory.list().length);
+        fetcher.close();
+        Assert.assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testFreshContentIsNotRevalidated() throws IOException {
+        final CachingURLFetcher fetcher = new CachingURLFetcher(httpFetcher, directory, 1024);
+        fetcher.setRevalidateAfterMillis(60000);
+        version = 3;
+        fetch(fetcher, "/a");
+        version = 4;
+        Assert.assertEquals("/a version 3", fetch(fetcher, "/a"));
+        Assert.assertEquals(1, downloads.get());
+        Assert.assertEquals(0, notModified.get());
+        fetcher.close();
+    }
+
+    /**
+     * Tests that the least recently read content is evicted, but not deleted
+     * while it is being read.
+     */
+    @Test
+    public void testLeastRecentlyReadContentIsEvicted() throws IOException {
+        // room for two of the 12 byte contents
+        final CachingURLFetcher fetcher = new CachingURLFetcher(httpFetcher, directory, 30);
+        fetcher.setRevalidateAfterMillis(60000);
+        fetch(fetcher, "/a");
+        fetch(fetcher, "/b");
+        final InputStream open = fetcher.getContentAtUrl(
+                new URL("http://localhost:" + server.getAddress().getPort() + "/a"));
+        fetch(fetcher, "/b");
+        fetch(fetcher, "/c");
+        Assert.assertEquals(24, fetcher.getCachedBytes());
+        Assert.assertEquals(3, directory.list().length);
+        Assert.assertEquals("/a version 1", IOUtils.toString(open, "UTF-8"));
+        open.close();
+        Assert.assertEquals(2, directory.list().length);
+
+        fetch(fetcher, "/c");
+        fetch(fetcher, "/b");
+        Assert.assertEquals(3, downloads.get());
+        fetch(fetcher, "/a");
+        Assert.assertEquals(4, downloads.get());
+        fetcher.close();
+    }
+
+    /**
+     * Tests that content larger than the cache, or not read to its end, is
+     * passed through without being kept.
+     */
+    @Test
+    public void testContentNotReadCompletelyIsNotKept() throws IOException {
+        final CachingURLFetcher small = new CachingURLFetcher(httpFetcher, directory, 5);
+        Assert.assertEquals("/a version 1", fetch(small, "/a"));
+        Assert.assertEquals(0, small.getCachedBytes());
+        Assert.assertEquals(0, directory.list().length);
+        small.close();
+
+        final CachingURLFetcher fetcher = new CachingURLFetcher(httpFetcher, directory, 1024);
+        final InputStream open = fetcher.getContentAtUrl(
+                new URL("http://localhost:" + server.getAddress().getPort() + "/b"));
+        Assert.assertEquals('/', open.read());
+        open.close();
+        Assert.assertEquals(0, directory.list().length);
+        Assert.assertEquals("/b version 1", fetch(fetcher, "/b"));
+        Assert.assertEquals(12, fetcher.getCachedBytes());
+        Assert.assertEquals(3, downloads.get());
+        fetcher.close();
+    }
+}
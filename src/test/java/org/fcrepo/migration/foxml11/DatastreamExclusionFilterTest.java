@@ -0,0 +1,77 @@
+package org.fcrepo.migration.foxml11;
+
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DatastreamExclusionFilterTest {
+
+    @Test
+    public void testExcludedDatastreamsAreNotResolved() throws Exception {
+        final DatastreamExclusionFilter filter = new DatastreamExclusionFilter();
+        filter.setDatastreamIds("AUDIT");
+        filter.setControlGroups("E");
+        filter.setMimeTypes("image/*");
+        Assert.assertEquals(Arrays.asList("DC1.0", "DS1.0", "DS1.1", "DS3.0"), process(filter));
+    }
+
+    @Test
+    public void testVersionsExcludedBySize() throws Exception {
+        final DatastreamExclusionFilter filter = new DatastreamExclusionFilter();
+        filter.setLargerThan(40);
+        Assert.assertEquals(Arrays.asList("AUDIT.0", "DS1.0", "DS3.0", "DS4.0"), process(filter));
+    }
+
+    /**
+     * Processes the example object with the given filter.
+     * @return the IDs of the versions given to the handler
+     */
+    private List<String> process(final DatastreamFilter filter)
+            throws XMLStreamException, FileNotFoundException, URISyntaxException {
+        final File foxml = new File(getClass().getClassLoader()
+                .getResource("objectStore/info%3Afedora%2Fexample%3A1").toURI());
+        final Foxml11InputStreamFedoraObjectProcessor processor = new Foxml11InputStreamFedoraObjectProcessor(foxml,
+                null, new InternalIDResolver() {
+                    @Override
+                    public CachedContent resolveInternalID(final String id) {
+                        throw new AssertionError("Excluded content should not be resolved.");
+                    }
+                });
+        processor.setDatastreamFilter(filter);
+        final List<String> versionIds = new ArrayList<String>();
+        processor.processObject(new StreamingFedoraObjectHandler() {
+            @Override
+            public void beginObject(final ObjectInfo object) {
+            }
+
+            @Override
+            public void processObjectProperties(final ObjectProperties properties) {
+            }
+
+            @Override
+            public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+                versionIds.add(dsVersion.getVersionId());
+            }
+
+            @Override
+            public void completeObject(final ObjectInfo object) {
+            }
+
+            @Override
+            public void abortObject(final ObjectInfo object) {
+            }
+        });
+        return versionIds;
+    }
+}
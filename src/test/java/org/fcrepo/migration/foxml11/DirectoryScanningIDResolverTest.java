@@ -0,0 +1,84 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class DirectoryScanningIDResolverTest {
+
+    private File dir;
+
+    private File store;
+
+    private File index;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("scanning", "");
+        dir.delete();
+        dir.mkdir();
+        store = new File(dir, "store");
+        index = new File(dir, "index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private void addFile(final String directory, final String pid) throws IOException {
+        FileUtils.writeStringToFile(new File(store, directory + "/info%3Afedora%2F" + pid.replace(":", "%3A")
+                + "%2FDS%2FDS.0"), pid, "UTF-8");
+    }
+
+    private void setModified(final String directory, final long modified) {
+        Assert.assertTrue(new File(store, directory).setLastModified(modified));
+    }
+
+    private static boolean resolves(final DirectoryScanningIDResolver resolver, final String pid) {
+        return resolver.resolveInternalID(pid + "+DS+DS.0") != null;
+    }
+
+    /**
+     * Tests that an incremental update re-indexes only the directories that
+     * have changed, and drops those that have been removed.
+     */
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        final long past = System.currentTimeMillis() - 60000;
+        for (int i = 0; i < 30; i ++) {
+            addFile("ab/" + "abc".charAt(i % 3), "a:" + i);
+        }
+        for (final String d : new String[] { "ab/a", "ab/b", "ab/c", "ab", "" }) {
+            setModified(d, past);
+        }
+        DirectoryScanningIDResolver resolver = new DirectoryScanningIDResolver(index, store, true, 4);
+        for (int i = 0; i < 30; i ++) {
+            Assert.assertTrue(resolves(resolver, "a:" + i));
+        }
+
+        addFile("ab/a", "a:30");
+        setModified("ab/a", past + 1000);
+        FileUtils.deleteDirectory(new File(store, "ab/c"));
+        setModified("ab", past + 1000);
+        // a file added without changing its directory's time is not seen
+        addFile("ab/b", "a:31");
+        setModified("ab/b", past);
+
+        resolver = new DirectoryScanningIDResolver(index, store, true, 4);
+        Assert.assertTrue(resolves(resolver, "a:30"));
+        Assert.assertFalse(resolves(resolver, "a:31"));
+        Assert.assertTrue(resolves(resolver, "a:0"));
+        Assert.assertTrue(resolves(resolver, "a:1"));
+        Assert.assertFalse(resolves(resolver, "a:2"));
+
+        // without incremental, the index is used as it is
+        addFile("ab/a", "a:32");
+        Assert.assertFalse(resolves(new DirectoryScanningIDResolver(index, store), "a:32"));
+    }
+}
@@ -0,0 +1,136 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class FingerprintIndexIDResolverTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("fingerprint", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testIdsAreResolved() throws IOException, URISyntaxException {
+        final File dsRoot = new File(getClass().getClassLoader().getResource("datastreamStore").toURI());
+        final FingerprintIndexIDResolver resolver = new FingerprintIndexIDResolver(new File(dir, "index"), dsRoot);
+        Assert.assertEquals(1, resolver.getEntryCount());
+        Assert.assertEquals(new File(dsRoot, "e5/info%3Afedora%2Fexample%3A1%2FDS2%2FDS2.0"),
+                ((FileCachedContent) resolver.resolveInternalID("example:1+DS2+DS2.0")).getFile());
+        Assert.assertNull(resolver.resolveInternalID("example:1+DS2+DS2.1"));
+    }
+
+    /**
+     * Tests that every file of a larger store is found, both through the
+     * index as built and as reopened.
+     */
+    @Test
+    public void testIndexIsReopened() throws IOException {
+        final File dsRoot = new File(dir, "store");
+        for (int i = 0; i < 1000; i ++) {
+            FileUtils.writeStringToFile(new File(dsRoot, (i % 16) + "/" + (i % 7) + "/info%3Afedora%2Fa%3A" + i
+                    + "%2FDS%2FDS.0"), String.valueOf(i), "UTF-8");
+        }
+        final File index = new File(dir, "index");
+        new FingerprintIndexIDResolver(index, dsRoot);
+        final FingerprintIndexIDResolver resolver = new FingerprintIndexIDResolver(index, dsRoot);
+        Assert.assertEquals(1000, resolver.getEntryCount());
+        for (int i = 0; i < 1000; i ++) {
+            final CachedContent content = resolver.resolveInternalID("a:" + i + "+DS+DS.0");
+            Assert.assertEquals(String.valueOf(i),
+                    FileUtils.readFileToString(((FileCachedContent) content).getFile(), "UTF-8"));
+        }
+        Assert.assertNull(resolver.resolveInternalID("a:1000+DS+DS.0"));
+    }
+
+    /**
+     * Tests that an index is used as it is until a directory of the store
+     * changes, and is then rebuilt.
+     */
+    @Test
+    public void testStaleIndexIsRebuilt() throws IOException {
+        final File dsRoot = new File(dir, "store");
+        final File a = new File(dsRoot, "a");
+        FileUtils.writeStringToFile(new File(a, "info%3Afedora%2Fa%3A1%2FDS%2FDS.0"), "1", "UTF-8");
+        FileUtils.writeStringToFile(new File(a, "info%3Afedora%2Fa%3A2%2FDS%2FDS.0"), "2", "UTF-8");
+        final long past = System.currentTimeMillis() - 60000;
+        a.setLastModified(past);
+        dsRoot.setLastModified(past);
+        final File index = new File(dir, "index");
+        Assert.assertEquals(2, new FingerprintIndexIDResolver(index, dsRoot).getEntryCount());
+
+        // a removal that leaves the directory's modification time as it was goes unnoticed
+        new File(a, "info%3Afedora%2Fa%3A2%2FDS%2FDS.0").delete();
+        a.setLastModified(past);
+        Assert.assertEquals(2, new FingerprintIndexIDResolver(index, dsRoot).getEntryCount());
+
+        FileUtils.writeStringToFile(new File(a, "info%3Afedora%2Fa%3A3%2FDS%2FDS.0"), "3", "UTF-8");
+        final FingerprintIndexIDResolver resolver = new FingerprintIndexIDResolver(index, dsRoot);
+        Assert.assertEquals(2, resolver.getEntryCount());
+        Assert.assertNotNull(resolver.resolveInternalID("a:3+DS+DS.0"));
+        Assert.assertNull(resolver.resolveInternalID("a:2+DS+DS.0"));
+    }
+
+    /**
+     * Tests that, in a store of several levels of directories, a file added
+     * to a directory that held none, or a directory added beneath one that
+     * held only directories, causes the index to be rebuilt.
+     */
+    @Test
+    public void testChangesBeneathDirectoriesWithoutFilesAreNoticed() throws IOException {
+        final File dsRoot = new File(dir, "store");
+        FileUtils.writeStringToFile(new File(dsRoot, "aa/bb/info%3Afedora%2Fa%3A1%2FDS%2FDS.0"), "1", "UTF-8");
+        final File empty = new File(dsRoot, "aa/cc");
+        empty.mkdirs();
+        final File index = new File(dir, "index");
+        age(dsRoot);
+        Assert.assertEquals(1, new FingerprintIndexIDResolver(index, dsRoot).getEntryCount());
+
+        FileUtils.writeStringToFile(new File(empty, "info%3Afedora%2Fa%3A2%2FDS%2FDS.0"), "2", "UTF-8");
+        Assert.assertEquals(2, new FingerprintIndexIDResolver(index, dsRoot).getEntryCount());
+
+        age(dsRoot);
+        Assert.assertEquals(2, new FingerprintIndexIDResolver(index, dsRoot).getEntryCount());
+        FileUtils.writeStringToFile(new File(dsRoot, "aa/dd/info%3Afedora%2Fa%3A3%2FDS%2FDS.0"), "3", "UTF-8");
+        final FingerprintIndexIDResolver resolver = new FingerprintIndexIDResolver(index, dsRoot);
+        Assert.assertEquals(3, resolver.getEntryCount());
+        Assert.assertNotNull(resolver.resolveInternalID("a:3+DS+DS.0"));
+    }
+
+    /**
+     * Sets the modification time of every directory beneath the given one,
+     * and of it, to a minute ago, as though the store hadn't changed since.
+     */
+    private static void age(final File directory) {
+        for (final File f : directory.listFiles()) {
+            if (f.isDirectory()) {
+                age(f);
+            }
+        }
+        directory.setLastModified(System.currentTimeMillis() - 60000);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateFilesAreAnError() throws IOException {
+        final File dsRoot = new File(dir, "store");
+        FileUtils.writeStringToFile(new File(dsRoot, "a/info%3Afedora%2Fa%3A1%2FDS%2FDS.0"), "1", "UTF-8");
+        FileUtils.writeStringToFile(new File(dsRoot, "b/info%3Afedora%2Fa%3A1%2FDS%2FDS.0"), "1", "UTF-8");
+        new FingerprintIndexIDResolver(new File(dir, "index"), dsRoot).resolveInternalID("a:1+DS+DS.0");
+    }
+}
@@ -0,0 +1,212 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.ObjectInfo;
+import org.fcrepo.migration.ObjectProperties;
+import org.fcrepo.migration.StreamingFedoraObjectHandler;
+import org.fcrepo.migration.metrics.Metrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Foxml11InputStreamFedoraObjectProcessorTest {
+
+    private static final String PROPERTIES = "<foxml:objectProperties>\r\n"
+            + "<foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"Active\"/>\r\n"
+            + "</foxml:objectProperties>\r\n";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("foxml", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Tests that inline XML read from a file is copied byte for byte, with
+     * declarations added for prefixes declared outside of it.
+     */
+    @Test
+    public void testXmlContentIsSlicedFromFile() throws IOException, XMLStreamException {
+        // padding moves the content across the reader's internal buffer boundaries
+        final StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 1000; i ++) {
+            padding.append("                    \r\n");
+        }
+        final String first = "\r\n<dc:title xml:lang=\"fr\">Café 𝄞</dc:title>\r\n";
+        final String second = "<x:a xmlns:x=\"urn:x\"><x:b dc:c='\"&gt;'/></x:a>";
+        FileUtils.writeStringToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<foxml:digitalObject VERSION=\"1.1\" PID=\"example:1\" "
+                + "xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                + "\r\n" + PROPERTIES
+                + "<foxml:datastream ID=\"DS1\" STATE=\"A\" CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">\r\n"
+                + version("DS1.0") + "<foxml:xmlContent>" + first + "</foxml:xmlContent>\r\n"
+                + "</foxml:datastreamVersion>\r\n" + padding
+                + version("DS1.1") + "<foxml:xmlContent >" + second + "</foxml:xmlContent >\r\n"
+                + "</foxml:datastreamVersion>\r\n"
+                + version("DS1.2") + "<foxml:xmlContent/>\r\n</foxml:datastreamVersion>\r\n"
+                + "</foxml:datastream>\r\n</foxml:digitalObject>\r\n", "UTF-8");
+
+        final List<String> contents = process().contents;
+
+        Assert.assertEquals(3, contents.size());
+        Assert.assertEquals(first.replace("<dc:title", "<dc:title xmlns:dc=\"http://purl.org/dc/elements/1.1/\""),
+                contents.get(0));
+        Assert.assertEquals(second.replace("<x:a", "<x:a xmlns:dc=\"http://purl.org/dc/elements/1.1/\""),
+                contents.get(1));
+        Assert.assertEquals("", contents.get(2));
+    }
+
+    /**
+     * Tests that inline XML is found by the position of its element in the
+     * document, whatever markup that looks like it lies nearby.
+     */
+    @Test
+    public void testXmlContentIsFoundAmongSimilarMarkup() throws IOException, XMLStreamException {
+        final String content = "<a b='1'><![CDATA[</foxml:xmlContent><b>]]><!-- </foxml:xmlContent> -->"
+                + "<?pi <foxml:xmlContent>?></a>";
+        FileUtils.writeStringToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<foxml:digitalObject VERSION=\"1.1\" PID=\"example:1\" "
+                + "xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\r\n" + PROPERTIES
+                + "<foxml:datastream ID=\"DS1\" STATE=\"A\" CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">\r\n"
+                + version("DS1.0") + "<foxml:xmlContent>" + content
+                + "</foxml:xmlContent>\r\n</foxml:datastreamVersion>\r\n"
+                + version("DS1.1") + "<foxml:xmlContent><d e=''/></foxml:xmlContent>\r\n</foxml:datastreamVersion>\r\n"
+                + "</foxml:datastream>\r\n</foxml:digitalObject>\r\n", "UTF-8");
+
+        Assert.assertEquals(Arrays.asList(content, "<d e=''/>"), process().contents);
+    }
+
+    /**
+     * Tests that base64 encoded content read from a file is decoded, and its
+     * decoding timed, when read, and is unavailable once the object is
+     * complete.
+     */
+    @Test
+    public void testBinaryContentIsDecodedWhenRead() throws IOException, XMLStreamException {
+        final String encoded = "SGVsbG8s\r\nIHdvcmxk\r\nIQ==";
+        FileUtils.writeStringToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<foxml:digitalObject VERSION=\"1.1\" PID=\"example:1\" "
+                + "xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\r\n" + PROPERTIES
+                + "<foxml:datastream ID=\"DS1\" STATE=\"A\" CONTROL_GROUP=\"M\" VERSIONABLE=\"true\">\r\n"
+                + version("DS1.0") + "<foxml:binaryContent>" + encoded + "</foxml:binaryContent>\r\n"
+                + "</foxml:datastreamVersion>\r\n"
+                + version("DS1.1") + "<foxml:binaryContent>&#83;" + encoded.substring(1)
+                + "</foxml:binaryContent>\r\n</foxml:datastreamVersion>\r\n"
+                + version("DS1.2") + "<foxml:binaryContent/>\r\n</foxml:datastreamVersion>\r\n"
+                + "</foxml:datastream>\r\n</foxml:digitalObject>\r\n", "UTF-8");
+
+        final long decoded = Metrics.timer("foxml.base64").getCount();
+        final CollectingHandler handler = process();
+        Assert.assertEquals(Arrays.asList("Hello, world!", "Hello, world!", ""), handler.contents);
+        Assert.assertEquals(decoded + 3, Metrics.timer("foxml.base64").getCount());
+        try {
+            handler.versions.get(0).getContent();
+            Assert.fail("Content should not be available once the object is complete.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that when the handler fails, the object is aborted and the
+     * content spooled for it is released.
+     */
+    @Test
+    public void testContentIsReleasedWhenHandlerFails() throws IOException, XMLStreamException {
+        FileUtils.writeStringToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<foxml:digitalObject VERSION=\"1.1\" PID=\"example:1\" "
+                + "xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\r\n" + PROPERTIES
+                + "<foxml:datastream ID=\"DS1\" STATE=\"A\" CONTROL_GROUP=\"M\" VERSIONABLE=\"true\">\r\n"
+                + version("DS1.0") + "<foxml:binaryContent>SGVsbG8sIHdvcmxkIQ==</foxml:binaryContent>\r\n"
+                + "</foxml:datastreamVersion>\r\n"
+                + "</foxml:datastream>\r\n</foxml:digitalObject>\r\n", "UTF-8");
+        final long allocated = SpoolMemoryPool.getDefault().getAllocatedBytes();
+        final List<String> calls = new ArrayList<String>();
+        final StreamingFedoraObjectHandler handler = new CollectingHandler() {
+            @Override
+            public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+                throw new IllegalStateException("handler failure");
+            }
+
+            @Override
+            public void completeObject(final ObjectInfo object) {
+                calls.add("complete");
+            }
+
+            @Override
+            public void abortObject(final ObjectInfo object) {
+                calls.add("abort");
+            }
+        };
+        // read from a stream, so the content is decoded into a spool
+        try (final InputStream in = FileUtils.openInputStream(file)) {
+            new Foxml11InputStreamFedoraObjectProcessor(in, null, null).processObject(handler);
+            Assert.fail("The handler's failure should have been thrown.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("handler failure", e.getMessage());
+        }
+        Assert.assertEquals(Arrays.asList("abort"), calls);
+        Assert.assertEquals(allocated, SpoolMemoryPool.getDefault().getAllocatedBytes());
+    }
+
+    private CollectingHandler process() throws XMLStreamException, IOException {
+        final CollectingHandler handler = new CollectingHandler();
+        new Foxml11InputStreamFedoraObjectProcessor(file, null, null).processObject(handler);
+        return handler;
+    }
+
+    private static class CollectingHandler implements StreamingFedoraObjectHandler {
+
+        private final List<DatastreamVersion> versions = new ArrayList<DatastreamVersion>();
+
+        private final List<String> contents = new ArrayList<String>();
+
+        @Override
+        public void beginObject(final ObjectInfo object) {
+        }
+
+        @Override
+        public void processObjectProperties(final ObjectProperties properties) {
+        }
+
+        @Override
+        public void processDatastreamVersion(final DatastreamVersion dsVersion) {
+            versions.add(dsVersion);
+            try (final InputStream content = dsVersion.getContent()) {
+                contents.add(IOUtils.toString(content, "UTF-8"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void completeObject(final ObjectInfo object) {
+        }
+
+        @Override
+        public void abortObject(final ObjectInfo object) {
+        }
+    }
+
+    private static String version(final String id) {
+        return "<foxml:datastreamVersion ID=\"" + id + "\" LABEL=\"\" CREATED=\"2015-01-27T19:08:43.701Z\" "
+                + "MIMETYPE=\"text/xml\">\r\n";
+    }
+}
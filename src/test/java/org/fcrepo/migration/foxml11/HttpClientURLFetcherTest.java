@@ -0,0 +1,116 @@
+package org.fcrepo.migration.foxml11;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpClientURLFetcherTest {
+
+    private HttpServer server;
+
+    private HttpClientURLFetcher fetcher;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * The number of requests to answer with 503 before answering normally.
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                final String path = exchange.getRequestURI().getPath();
+                final int status = failures.getAndDecrement() > 0 ? 503 : path.startsWith("/missing") ? 404 : 200;
+                final byte[] body = ("content of " + path).getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        fetcher = new HttpClientURLFetcher();
+        fetcher.setRetryDelayMillis(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fetcher.close();
+        server.stop(0);
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private String fetch(final String path) throws IOException {
+        try (final InputStream in = fetcher.getContentAtUrl(url(path))) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    @Test
+    public void testServerErrorsAreRetried() throws IOException {
+        failures.set(2);
+        Assert.assertEquals("content of /a", fetch("/a"));
+        Assert.assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testRetriesAreBounded() throws IOException {
+        fetcher.setMaxRetries(1);
+        failures.set(5);
+        try {
+            fetch("/a");
+            Assert.fail("Expected the fetch to fail.");
+        } catch (IOException e) {
+            Assert.assertEquals(2, requests.get());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testClientErrorsFail() throws IOException {
+        fetch("/missing");
+    }
+
+    /**
+     * Tests that more responses than there are pooled connections may be
+     * read, so connections are returned to the pool when streams are closed.
+     */
+    @Test
+    public void testConnectionsAreReused() throws IOException {
+        fetcher.setMaxTotal(1);
+        fetcher.setMaxPerHost(1);
+        for (int i = 0; i < 5; i ++) {
+            Assert.assertEquals("content of /" + i, fetch("/" + i));
+        }
+    }
+
+    @Test
+    public void testPrefetchedContentIsFetchedOnce() throws Exception {
+        fetcher.setPrefetchThreads(2);
+        fetcher.prefetch(url("/a"));
+        fetcher.prefetch(url("/a"));
+        Assert.assertEquals("content of /a", fetch("/a"));
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals("content of /a", fetch("/a"));
+        Assert.assertEquals(2, requests.get());
+    }
+}
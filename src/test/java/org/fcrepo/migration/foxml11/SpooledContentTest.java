@@ -0,0 +1,75 @@
+package org.fcrepo.migration.foxml11;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class SpooledContentTest {
+
+    @Test
+    public void testSmallContentStaysInMemory() throws IOException {
+        final SpoolMemoryPool pool = new SpoolMemoryPool(16);
+        final SpooledContent content = new SpooledContent(pool, 100);
+        final byte[] data = bytes(50);
+        content.write(data, 0, data.length);
+        content.close();
+        Assert.assertTrue(content.isInMemory());
+        Assert.assertEquals(64, pool.getAllocatedBytes());
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(content.getInputStream()));
+        Assert.assertArrayEquals(data, content.toByteArray());
+        content.release();
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testOverflowPastThreshold() throws IOException {
+        final SpoolMemoryPool pool = new SpoolMemoryPool(16);
+        final SpooledContent content = new SpooledContent(pool, 100);
+        final byte[] data = bytes(250);
+        for (int i = 0; i < data.length; i += 25) {
+            content.write(data, i, 25);
+        }
+        content.close();
+        Assert.assertFalse(content.isInMemory());
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+        Assert.assertEquals(250, content.getSize());
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(content.getInputStream()));
+        content.release();
+    }
+
+    @Test
+    public void testOverflowWhenBudgetExhausted() throws IOException {
+        final SpoolMemoryPool pool = new SpoolMemoryPool(16);
+        pool.setMemoryBudget(64);
+        final SpooledContent first = new SpooledContent(pool, 1000);
+        final SpooledContent second = new SpooledContent(pool, 1000);
+        final byte[] data = bytes(40);
+        first.write(data, 0, data.length);
+        second.write(data, 0, data.length);
+        first.close();
+        second.close();
+        Assert.assertTrue(first.isInMemory());
+        Assert.assertFalse("The second content should have exceeded the budget.", second.isInMemory());
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(second.getInputStream()));
+        first.release();
+        second.release();
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleasedContentUnavailable() throws IOException {
+        final SpooledContent content = new SpooledContent(new SpoolMemoryPool());
+        content.close();
+        content.release();
+        content.getInputStream();
+    }
+
+    private static byte[] bytes(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
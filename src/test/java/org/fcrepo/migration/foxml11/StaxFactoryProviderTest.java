@@ -0,0 +1,30 @@
+package org.fcrepo.migration.foxml11;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.util.Collections;
+
+public class StaxFactoryProviderTest {
+
+    @Test
+    public void testFactoryIsSharedUntilReconfigured() {
+        final StaxFactoryProvider provider = new StaxFactoryProvider();
+        provider.setProperties(Collections.<String, Object>singletonMap("no.such.property", true));
+        final XMLInputFactory factory = provider.getInputFactory();
+        Assert.assertSame(factory, provider.getInputFactory());
+        Assert.assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.IS_COALESCING));
+
+        provider.setCoalescing(true);
+        Assert.assertNotSame(factory, provider.getInputFactory());
+        Assert.assertEquals(Boolean.TRUE, provider.getInputFactory().getProperty(XMLInputFactory.IS_COALESCING));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingImplementation() {
+        final StaxFactoryProvider provider = new StaxFactoryProvider();
+        provider.setInputFactoryClass("org.example.NoSuchInputFactory");
+        provider.getInputFactory();
+    }
+}
@@ -0,0 +1,124 @@
+package org.fcrepo.migration.handlers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of the AdaptiveConcurrencyLimiter.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void testLimitIncreasesWhileSaturated() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter(2);
+        runRequests(limiter, 4, 40, 1);
+        Assert.assertTrue("The limit should have grown, but is " + limiter.getLimit(), limiter.getLimit() > 2);
+    }
+
+    @Test
+    public void testLimitDecreasesOnErrors() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter(8);
+        for (int i = 0; i < 10; i ++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        Assert.assertEquals(6, limiter.getLimit());
+        Assert.assertEquals(1.0, limiter.getErrorRate(), 0.0);
+    }
+
+    @Test
+    public void testLimitDecreasesWhenLatencyRises() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter(8);
+        for (int i = 0; i < 10; i ++) {
+            final long token = limiter.acquire();
+            Thread.sleep(1);
+            limiter.release(token, true);
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+        for (int i = 0; i < 10; i ++) {
+            final long token = limiter.acquire();
+            Thread.sleep(20);
+            limiter.release(token, true);
+        }
+        Assert.assertEquals(6, limiter.getLimit());
+        Assert.assertTrue(limiter.getP50Millis() >= 20);
+        Assert.assertTrue(limiter.getP99Millis() >= limiter.getP50Millis());
+    }
+
+    @Test
+    public void testUnsampledLatencyIgnored() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter(8);
+        for (int i = 0; i < 10; i ++) {
+            final long token = limiter.acquire();
+            Thread.sleep(1);
+            limiter.release(token, true);
+        }
+        for (int i = 0; i < 20; i ++) {
+            final long token = limiter.acquire();
+            if (i % 2 == 0) {
+                // a large upload
+                Thread.sleep(20);
+                limiter.release(token, true, false);
+            } else {
+                Thread.sleep(1);
+                limiter.release(token, true);
+            }
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitIsEnforced() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter(1);
+        final long token = limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.release(limiter.acquire(), true);
+                acquired.countDown();
+            }
+        });
+        t.start();
+        Assert.assertFalse("A second request should wait for the first.", acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(token, true);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    private AdaptiveConcurrencyLimiter newLimiter(final int initialLimit) {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        limiter.setInitialLimit(initialLimit);
+        limiter.setMaxLimit(16);
+        limiter.setWindowSize(10);
+        limiter.setLatencyTolerance(5.0);
+        return limiter;
+    }
+
+    private void runRequests(final AdaptiveConcurrencyLimiter limiter, final int threads, final int requests,
+                             final long latencyMillis) throws InterruptedException {
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i ++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int r = 0; r < requests; r ++) {
+                        final long token = limiter.acquire();
+                        try {
+                            Thread.sleep(latencyMillis);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            limiter.release(token, true);
+                        }
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (final Thread t : workers) {
+            t.join();
+        }
+    }
+}
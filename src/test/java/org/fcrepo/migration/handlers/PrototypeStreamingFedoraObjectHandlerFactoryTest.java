@@ -0,0 +1,73 @@
+package org.fcrepo.migration.handlers;
+
+import org.fcrepo.migration.FedoraObjectVersionHandler;
+import org.fcrepo.migration.Migrator;
+import org.fcrepo.migration.ObjectVersionReference;
+import org.fcrepo.migration.StreamingFedoraObjectHandlerFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PrototypeStreamingFedoraObjectHandlerFactoryTest {
+
+    private ConfigurableApplicationContext context;
+
+    @Before
+    public void setUp() {
+        context = new ClassPathXmlApplicationContext("spring/handler-factory.xml");
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void testEachHandlerIsIsolated() {
+        final StreamingFedoraObjectHandlerFactory factory
+                = context.getBean("handlerFactory", StreamingFedoraObjectHandlerFactory.class);
+        Assert.assertNotSame(factory.createHandler(), factory.createHandler());
+    }
+
+    @Test
+    public void testConcurrentMigrationWithIsolatedHandlers() throws XMLStreamException {
+        final CountingVersionHandler vh = context.getBean("versionHandler", CountingVersionHandler.class);
+        context.getBean("migrator", Migrator.class).run();
+        Assert.assertEquals(12, vh.objects.get());
+        Assert.assertEquals("Six versions should have been gleaned from each object.", 12 * 6, vh.versions.get());
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testSingletonBeanIsRejected() {
+        final GenericApplicationContext c = new GenericApplicationContext();
+        c.registerBeanDefinition("handler", new RootBeanDefinition(ObjectAbstractionStreamingFedoraObjectHandler.class));
+        new PrototypeStreamingFedoraObjectHandlerFactory("handler").setBeanFactory(c.getBeanFactory());
+    }
+
+    /**
+     * A thread-safe FedoraObjectVersionHandler that may be shared by every
+     * handler chain and simply counts the objects and versions it sees.
+     */
+    public static class CountingVersionHandler implements FedoraObjectVersionHandler {
+
+        final AtomicInteger objects = new AtomicInteger();
+
+        final AtomicInteger versions = new AtomicInteger();
+
+        @Override
+        public void processObjectVersions(final Iterable<ObjectVersionReference> versions) {
+            objects.incrementAndGet();
+            for (ObjectVersionReference v : versions) {
+                this.versions.incrementAndGet();
+            }
+        }
+    }
+}
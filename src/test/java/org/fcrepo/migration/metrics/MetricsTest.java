@@ -0,0 +1,82 @@
+package org.fcrepo.migration.metrics;
+
+import org.fcrepo.migration.catalog.CatalogEntry;
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Tests of the metrics registry, its histograms and its reporter.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long v = 0; v < 100000; v += 7) {
+            final long lower = Histogram.lowerBoundOf(Histogram.bucketOf(v));
+            Assert.assertTrue(lower <= v);
+            Assert.assertTrue("Value " + v + " in a bucket starting at " + lower, v - lower <= Math.max(1, v / 16));
+        }
+        Assert.assertEquals(Long.MAX_VALUE >>> 58 << 58, Histogram.lowerBoundOf(Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        final Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i ++) {
+            h.record(i * 1000L);
+        }
+        Assert.assertEquals(500000, h.percentile(0.5), 500000 / 16);
+        Assert.assertEquals(990000, h.percentile(0.99), 990000 / 16);
+        Assert.assertEquals(0, new Histogram().percentile(0.5));
+    }
+
+    @Test
+    public void testTimerPublishedOverJmx() throws Exception {
+        final Timer timer = Metrics.timer("test.jmx");
+        Assert.assertSame(timer, Metrics.timer("test.jmx"));
+        timer.record(2000000);
+        final Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("org.fcrepo.migration:type=Timer,name=" + ObjectName.quote("test.jmx")), "Count");
+        Assert.assertEquals(1L, count);
+        Assert.assertEquals(2.0, timer.getMeanMillis(), 0.001);
+    }
+
+    @Test
+    public void testReporterSummarizesInterval() throws IOException {
+        final MetricsReporter reporter = new MetricsReporter();
+        reporter.summarize();
+        Metrics.timer("test.report").record(1000000);
+        final Counter bytes = Metrics.counter("test.report.bytes");
+        final MeteredInputStream in = new MeteredInputStream(new ByteArrayInputStream(new byte[1024]), bytes);
+        while (in.read(new byte[100]) != -1) {
+        }
+        in.close();
+        Assert.assertEquals(1024, bytes.getCount());
+
+        final String summary = reporter.summarize();
+        Assert.assertTrue(summary, summary.contains("test.report 1 "));
+        Assert.assertTrue(summary, summary.contains("test.report.bytes 1024 "));
+        Assert.assertFalse("Idle metrics should be omitted.", reporter.summarize().contains("test.report"));
+    }
+
+    @Test
+    public void testReporterEstimatesTimeRemaining() {
+        final MetricsReporter reporter = new MetricsReporter();
+        reporter.setCatalog(new FoxmlCatalog(Arrays.asList(
+                new CatalogEntry("example:1", "1.xml", 100, new int[4], 1, 300),
+                new CatalogEntry("example:2", "2.xml", 100, new int[4], 1, 100))));
+        Assert.assertFalse(reporter.summarize().contains("catalog"));
+        reporter.recordCompleted("example:2");
+        reporter.recordCompleted("example:3");
+        final String summary = reporter.summarize();
+        Assert.assertTrue(summary, summary.contains("catalog 25.0% done ("));
+        Assert.assertEquals("2h05m30s", MetricsReporter.formatMillis(7530999));
+    }
+}
@@ -0,0 +1,345 @@
+package org.fcrepo.migration.partition;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.migration.Example1TestSuite;
+import org.fcrepo.migration.FedoraObjectHandler;
+import org.fcrepo.migration.FedoraObjectHandlerFactory;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.MigrationTrackingFedoraObjectProcessor;
+import org.fcrepo.migration.ObjectReference;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.catalog.FoxmlCatalog;
+import org.fcrepo.migration.catalog.FoxmlCatalogScanner;
+import org.fcrepo.migration.foxml11.ArchiveExportedFoxmlDirectoryObjectSource;
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.fcrepo.migration.foxml11.LeasedFoxmlDirectoryObjectSource;
+import org.fcrepo.migration.pipeline.MigrationPipeline;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the static (shard) and dynamic (lease) partitioning of objects
+ * between several migration processes.
+ */
+public class PartitionTest {
+
+    private static final int DIRECTORIES = 6;
+
+    private static final int OBJECTS_PER_DIRECTORY = 4;
+
+    private File root;
+
+    private Set<String> allPids;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("partition", "");
+        root.delete();
+        allPids = new HashSet<String>();
+        final String foxml;
+        try (final InputStream is = getClass().getClassLoader().getResourceAsStream("exported/example1-foxml.xml")) {
+            foxml = IOUtils.toString(is, "UTF-8");
+        }
+        for (int d = 0; d < DIRECTORIES; d ++) {
+            for (int o = 0; o < OBJECTS_PER_DIRECTORY; o ++) {
+                final String pid = "example:" + d + "-" + o;
+                FileUtils.writeStringToFile(new File(root, "dir" + d + "/object" + o + ".xml"),
+                        foxml.replace("example:1", pid), "UTF-8");
+                allPids.add(pid);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testParseShard() {
+        final Shard shard = Shard.parse("2/5");
+        Assert.assertEquals(2, shard.getIndex());
+        Assert.assertEquals(5, shard.getCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testInvalidShard() {
+        Shard.parse("5/5");
+    }
+
+    @Test
+    public void testShardsPartitionObjects() {
+        final Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < 3; i ++) {
+            final ArchiveExportedFoxmlDirectoryObjectSource source = new ArchiveExportedFoxmlDirectoryObjectSource(root);
+            source.setFetcher(new Example1TestSuite.DummyURLFetcher());
+            for (final FedoraObjectProcessor o : new ShardedObjectSource(source, new Shard(i, 3))) {
+                Assert.assertTrue("Each object should be in exactly one shard.", seen.add(o.getObjectInfo().getPid()));
+                o.close();
+            }
+        }
+        Assert.assertEquals(allPids, seen);
+    }
+
+    @Test
+    public void testBalancedShardsPartitionObjects() throws IOException {
+        final File catalogFile = File.createTempFile("catalog", ".txt");
+        try {
+            new FoxmlCatalogScanner(root).scan(catalogFile);
+            final FoxmlCatalog catalog = FoxmlCatalog.read(catalogFile);
+            final Map<String, Integer> balanced = catalog.balance(3);
+            final Set<String> seen = new HashSet<String>();
+            for (int i = 0; i < 3; i ++) {
+                final Shard shard = new Shard(i, 3).balance(catalog);
+                final ArchiveExportedFoxmlDirectoryObjectSource source
+                        = new ArchiveExportedFoxmlDirectoryObjectSource(root);
+                source.setFetcher(new Example1TestSuite.DummyURLFetcher());
+                for (final FedoraObjectProcessor o : new ShardedObjectSource(source, shard)) {
+                    final String pid = o.getObjectInfo().getPid();
+                    Assert.assertEquals(i, balanced.get(pid).intValue());
+                    Assert.assertTrue("Each object should be in exactly one shard.", seen.add(pid));
+                    o.close();
+                }
+                Assert.assertEquals("Objects not in the catalog should be assigned by hash.",
+                        Shard.shardOf("example:x", 3) == i, shard.contains("example:x"));
+            }
+            Assert.assertEquals(allPids, seen);
+        } finally {
+            catalogFile.delete();
+        }
+    }
+
+    @Test
+    public void testObjectsOfOtherShardsClosed() throws IOException, XMLStreamException {
+        final String foxml;
+        try (final InputStream is = getClass().getClassLoader().getResourceAsStream("exported/example1-foxml.xml")) {
+            foxml = IOUtils.toString(is, "UTF-8");
+        }
+        final AtomicInteger closed = new AtomicInteger();
+        final List<FedoraObjectProcessor> objects = new ArrayList<FedoraObjectProcessor>();
+        for (int i = 0; i < 10; i ++) {
+            objects.add(new Foxml11InputStreamFedoraObjectProcessor(
+                    new ByteArrayInputStream(foxml.replace("example:1", "example:" + i).getBytes("UTF-8")) {
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                }
+            }, null, null));
+        }
+        int inShard = 0;
+        for (final FedoraObjectProcessor o : new ShardedObjectSource(new ObjectSource() {
+            @Override
+            public Iterator<FedoraObjectProcessor> iterator() {
+                return objects.iterator();
+            }
+        }, new Shard(0, 2))) {
+            inShard ++;
+        }
+        Assert.assertEquals(10 - inShard, closed.get());
+    }
+
+    @Test
+    public void testShardFileFilter() {
+        final ShardFileFilter filter = new ShardFileFilter(new Shard(Shard.shardOf("example:1", 2), 2));
+        final ShardFileFilter other = new ShardFileFilter(new Shard(1 - Shard.shardOf("example:1", 2), 2));
+        Assert.assertTrue(filter.accept(new File("info%3Afedora%2Fexample%3A1")));
+        Assert.assertFalse(other.accept(new File("info%3Afedora%2Fexample%3A1")));
+        Assert.assertTrue("Files not named by PID are left to the ShardedObjectSource.",
+                other.accept(new File("example1-foxml.xml")));
+    }
+
+    @Test
+    public void testExpiredLeaseReclaimed() throws IOException, InterruptedException {
+        final File file = new File(root, "leases.txt");
+        final DirectoryLeaseFile first = new DirectoryLeaseFile(file);
+        final DirectoryLeaseFile second = new DirectoryLeaseFile(file);
+        first.setLeaseTimeoutMillis(50);
+        second.setLeaseTimeoutMillis(50);
+        final List<String> units = Arrays.asList("a", "b");
+        Assert.assertEquals("a", first.claim(units));
+        Assert.assertEquals("b", second.claim(units));
+        Assert.assertTrue(second.complete("b"));
+        Thread.sleep(100);
+        Assert.assertEquals("An expired lease should be claimable.", "a", second.claim(units));
+        Assert.assertFalse("A lost lease should not be renewable.", first.renew("a"));
+        Assert.assertTrue(second.complete("a"));
+        Assert.assertNull(first.claim(units));
+    }
+
+    /**
+     * Tests that a unit is recorded as done only once all of its objects have
+     * been migrated, and is left leased while one of them has been processed
+     * but not yet migrated, or once one is closed without being migrated.
+     */
+    @Test
+    public void testUnitDoneOnceItsObjectsAreMigrated() throws IOException, XMLStreamException,
+            InterruptedException {
+        final File file = new File(root, "leases.txt");
+        final DirectoryLeaseFile other = new DirectoryLeaseFile(file);
+        other.setLeaseTimeoutMillis(1);
+        final LeasedFoxmlDirectoryObjectSource source
+                = new LeasedFoxmlDirectoryObjectSource(root, new DirectoryLeaseFile(file));
+        source.setFetcher(new Example1TestSuite.DummyURLFetcher());
+        final Iterator<FedoraObjectProcessor> objects = source.iterator();
+
+        final List<MigrationTrackingFedoraObjectProcessor> first = nextUnit(objects);
+        for (final MigrationTrackingFedoraObjectProcessor o : first) {
+            o.processObject(new Example1TestSuite.DummyHandler());
+        }
+        for (final MigrationTrackingFedoraObjectProcessor o : first.subList(1, OBJECTS_PER_DIRECTORY)) {
+            o.migrated();
+        }
+        Thread.sleep(10);
+        Assert.assertEquals("A unit with an object processed but not yet migrated should be left leased.",
+                "dir0", other.claim(Arrays.asList("dir0")));
+
+        final List<MigrationTrackingFedoraObjectProcessor> second = nextUnit(objects);
+        second.get(0).close();
+        for (final MigrationTrackingFedoraObjectProcessor o : second.subList(1, OBJECTS_PER_DIRECTORY)) {
+            o.processObject(new Example1TestSuite.DummyHandler());
+            o.migrated();
+        }
+        Thread.sleep(10);
+        Assert.assertEquals("A unit with an object closed without being migrated should be left leased.",
+                "dir1", other.claim(Arrays.asList("dir1")));
+
+        final List<MigrationTrackingFedoraObjectProcessor> third = nextUnit(objects);
+        for (int i = 0; i < OBJECTS_PER_DIRECTORY; i ++) {
+            final MigrationTrackingFedoraObjectProcessor o = third.get(i);
+            if (i % 2 == 0) {
+                o.processObject(new Example1TestSuite.DummyHandler());
+                o.migrated();
+            } else {
+                // skipped as migrated by an earlier run
+                o.migrated();
+                o.close();
+            }
+        }
+        Thread.sleep(10);
+        Assert.assertNull("A unit whose objects were all migrated should be done.",
+                other.claim(Arrays.asList("dir2")));
+        objects.next().close();
+    }
+
+    /**
+     * Tests that, under a MigrationPipeline, a unit whose objects have all
+     * been parsed isn't recorded as done when one of them fails to be
+     * ingested.
+     */
+    @Test
+    public void testUnitLeftLeasedWhenIngestFails() throws IOException, InterruptedException {
+        final File file = new File(root, "leases.txt");
+        final DirectoryLeaseFile other = new DirectoryLeaseFile(file);
+        other.setLeaseTimeoutMillis(1);
+        final LeasedFoxmlDirectoryObjectSource source
+                = new LeasedFoxmlDirectoryObjectSource(root, new DirectoryLeaseFile(file));
+        source.setFetcher(new Example1TestSuite.DummyURLFetcher());
+        final MigrationPipeline pipeline = new MigrationPipeline();
+        pipeline.setQueueCapacity(DIRECTORIES * OBJECTS_PER_DIRECTORY);
+        pipeline.setIngestHandlerFactory(new FedoraObjectHandlerFactory() {
+            @Override
+            public FedoraObjectHandler createHandler() {
+                return new FedoraObjectHandler() {
+                    @Override
+                    public void processObject(final ObjectReference object) {
+                        // fail only once the whole of the first unit has been parsed and handed off
+                        for (int i = 0; i < 500 && pipeline.getParsedCount() <= OBJECTS_PER_DIRECTORY; i ++) {
+                            try {
+                                Thread.sleep(10);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                        throw new IllegalStateException("ingest failure");
+                    }
+                };
+            }
+        });
+        try {
+            pipeline.run(source, -1);
+            Assert.fail("The ingest failure should have been thrown.");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("ingest failure", e.getCause().getMessage());
+        }
+        Thread.sleep(10);
+        Assert.assertEquals("A unit with an object that failed to be ingested should be left leased.",
+                "dir0", other.claim(Arrays.asList("dir0")));
+    }
+
+    private static List<MigrationTrackingFedoraObjectProcessor> nextUnit(
+            final Iterator<FedoraObjectProcessor> objects) {
+        final List<MigrationTrackingFedoraObjectProcessor> unit
+                = new ArrayList<MigrationTrackingFedoraObjectProcessor>();
+        for (int i = 0; i < OBJECTS_PER_DIRECTORY; i ++) {
+            unit.add((MigrationTrackingFedoraObjectProcessor) objects.next());
+        }
+        // moves on to the next unit, noting that every object of this one has been handed out
+        Assert.assertTrue(objects.hasNext());
+        return unit;
+    }
+
+    @Test
+    public void testLeasesSplitWorkBetweenProcesses() throws IOException, InterruptedException {
+        final File leaseFile = File.createTempFile("leases", ".txt");
+        leaseFile.delete();
+        try {
+            final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            final List<Process> processes = new ArrayList<Process>();
+            for (int i = 0; i < 3; i ++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        LeaseWorker.class.getName(), root.getPath(), leaseFile.getPath())
+                        .redirectErrorStream(true).start());
+            }
+            final Set<String> seen = new HashSet<String>();
+            for (final Process p : processes) {
+                final List<String> lines = IOUtils.readLines(p.getInputStream(), "UTF-8");
+                Assert.assertEquals(lines.toString(), 0, p.waitFor());
+                for (final String line : lines) {
+                    if (line.startsWith("PID ")) {
+                        Assert.assertTrue("Each object should be processed by exactly one process.",
+                                seen.add(line.substring(4)));
+                    }
+                }
+            }
+            Assert.assertEquals(allPids, seen);
+        } finally {
+            leaseFile.delete();
+        }
+    }
+
+    /**
+     * The main class of the processes started by
+     * {@link #testLeasesSplitWorkBetweenProcesses}, which prints the PID of
+     * every object it is given by a LeasedFoxmlDirectoryObjectSource.
+     */
+    public static class LeaseWorker {
+
+        public static void main(final String[] args) throws IOException, InterruptedException {
+            final LeasedFoxmlDirectoryObjectSource source
+                    = new LeasedFoxmlDirectoryObjectSource(new File(args[0]), new DirectoryLeaseFile(new File(args[1])));
+            source.setFetcher(new Example1TestSuite.DummyURLFetcher());
+            for (final FedoraObjectProcessor o : source) {
+                System.out.println("PID " + o.getObjectInfo().getPid());
+                o.close();
+                Thread.sleep(20);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.fcrepo.migration.pipeline;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.migration.ConcurrentMigratorTest;
+import org.fcrepo.migration.DatastreamVersion;
+import org.fcrepo.migration.Example1TestSuite;
+import org.fcrepo.migration.FedoraObjectProcessor;
+import org.fcrepo.migration.FedoraObjectHandler;
+import org.fcrepo.migration.FedoraObjectHandlerFactory;
+import org.fcrepo.migration.Migrator;
+import org.fcrepo.migration.ObjectReference;
+import org.fcrepo.migration.ObjectSource;
+import org.fcrepo.migration.foxml11.Foxml11InputStreamFedoraObjectProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class MigrationPipelineTest {
+
+    @Test
+    public void testAllObjectsIngested() throws XMLStreamException {
+        final RecordingHandlerFactory factory = new RecordingHandlerFactory();
+        final MigrationPipeline pipeline = createPipeline(factory);
+        final Migrator m = new Migrator();
+        m.setSource(new ConcurrentMigratorTest.RepeatingObjectSource(15));
+        m.setPipeline(pipeline);
+        m.run();
+        Assert.assertEquals(15, factory.objects.size());
+        Assert.assertEquals(15, pipeline.getParsedCount());
+        Assert.assertEquals(15, pipeline.getIngestedCount());
+        Assert.assertTrue(pipeline.getMaxQueueDepth() <= 2);
+    }
+
+    @Test
+    public void testContentOutlivesParsing() {
+        final RecordingHandlerFactory factory = new RecordingHandlerFactory();
+        createPipeline(factory).run(new ConcurrentMigratorTest.RepeatingObjectSource(3), -1);
+        Assert.assertEquals(Collections.nCopies(3, 46168L), factory.managedContentLengths);
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testContentReleasedAfterIngest() throws IOException {
+        final RecordingHandlerFactory factory = new RecordingHandlerFactory();
+        createPipeline(factory).run(new ConcurrentMigratorTest.RepeatingObjectSource(1), -1);
+        factory.objects.get(0).getDatastreamVersions("DS2").get(0).getContent();
+    }
+
+    /**
+     * Tests that base64 content inline in a FOXML file is kept available,
+     * rather than copied, until the object has been ingested.
+     */
+    @Test
+    public void testInlineContentOutlivesParsing() throws Exception {
+        final File foxml = new File(getClass().getClassLoader().getResource("exported/example1-foxml.xml").toURI());
+        final RecordingHandlerFactory factory = new RecordingHandlerFactory();
+        createPipeline(factory).run(new ObjectSource() {
+            @Override
+            public Iterator<FedoraObjectProcessor> iterator() {
+                try {
+                    return Collections.<FedoraObjectProcessor>singletonList(
+                            new Foxml11InputStreamFedoraObjectProcessor(foxml,
+                                    new Example1TestSuite.DummyURLFetcher(),
+                                    new Example1TestSuite.DummyIDResolver())).iterator();
+                } catch (XMLStreamException | FileNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, -1);
+        Assert.assertEquals(Collections.singletonList(46168L), factory.managedContentLengths);
+        try {
+            factory.objects.get(0).getDatastreamVersions("DS2").get(0).getContent();
+            Assert.fail("Content should not be available once the object has been ingested.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLimitIsRespected() {
+        final RecordingHandlerFactory factory = new RecordingHandlerFactory();
+        createPipeline(factory).run(new ConcurrentMigratorTest.RepeatingObjectSource(10), 4);
+        Assert.assertEquals(4, factory.objects.size());
+    }
+
+    private MigrationPipeline createPipeline(final FedoraObjectHandlerFactory factory) {
+        final MigrationPipeline pipeline = new MigrationPipeline();
+        pipeline.setParseThreadCount(2);
+        pipeline.setIngestThreadCount(3);
+        pipeline.setQueueCapacity(2);
+        pipeline.setMemoryThreshold(1024);
+        pipeline.setIngestHandlerFactory(factory);
+        return pipeline;
+    }
+
+    /**
+     * A FedoraObjectHandlerFactory whose handlers record every object and
+     * the length of the managed datastream content they were able to read.
+     */
+    private static class RecordingHandlerFactory implements FedoraObjectHandlerFactory {
+
+        final List<ObjectReference> objects = new CopyOnWriteArrayList<ObjectReference>();
+
+        final List<Long> managedContentLengths = new CopyOnWriteArrayList<Long>();
+
+        @Override
+        public FedoraObjectHandler createHandler() {
+            return new FedoraObjectHandler() {
+                @Override
+                public void processObject(final ObjectReference object) {
+                    objects.add(object);
+                    for (final DatastreamVersion v : object.getDatastreamVersions("DS2")) {
+                        try {
+                            managedContentLengths.add((long) IOUtils.toByteArray(v.getContent()).length);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.fcrepo.migration.stub;
+
+import org.fcrepo.client.FedoraContent;
+import org.fcrepo.client.FedoraDatastream;
+import org.fcrepo.client.FedoraException;
+import org.fcrepo.client.FedoraObject;
+import org.fcrepo.client.FedoraRepository;
+import org.fcrepo.client.impl.FedoraRepositoryImpl;
+import org.fcrepo.migration.Migrator;
+import org.fcrepo.migration.foxml11.ArchiveExportedFoxmlDirectoryObjectSource;
+import org.fcrepo.migration.handlers.BasicObjectVersionHandler;
+import org.fcrepo.migration.handlers.ObjectAbstractionStreamingFedoraObjectHandler;
+import org.fcrepo.migration.handlers.VersionAbstractionFedoraObjectHandler;
+import org.fcrepo.migration.idmapers.SimpleIDMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests that the StubFedora4Server answers the fcrepo client as a Fedora 4
+ * repository would, and that its load modelling takes effect.
+ */
+public class StubFedora4ServerTest {
+
+    private StubFedora4Server server;
+
+    @Before
+    public void setUp() {
+        server = new StubFedora4Server();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testClientRequests() throws IOException, FedoraException {
+        server.start();
+        final FedoraRepository repo = new FedoraRepositoryImpl(server.getRepositoryURL());
+        final FedoraObject object = repo.createObject("/a/b");
+        object.updateProperties("INSERT DATA { <> <http://purl.org/dc/elements/1.1/title> \"t\" . }");
+        object.createVersionSnapshot("v0");
+        final FedoraDatastream ds = repo.createDatastream("/a/b/DS", content("first"));
+        ds.updateContent(content("second"));
+        object.createVersionSnapshot("v1");
+
+        Assert.assertEquals(1, server.getContainerCount());
+        Assert.assertEquals(1, server.getBinaryCount());
+        Assert.assertEquals(2, server.getVersionCount("a/b"));
+        Assert.assertEquals("first".length() + "second".length(), server.getBytesReceived());
+        Assert.assertTrue(repo.exists("/a/b/DS"));
+        Assert.assertFalse(repo.exists("/a/c"));
+
+        try {
+            repo.createObject("/a/b");
+            Assert.fail("Creating an existing resource should fail.");
+        } catch (FedoraException e) {
+            // expected
+        }
+        try {
+            object.createVersionSnapshot("v1");
+            Assert.fail("Reusing a version label should fail.");
+        } catch (FedoraException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMigration() throws IOException, XMLStreamException {
+        server.start();
+        final BasicObjectVersionHandler handler = new BasicObjectVersionHandler(
+                new FedoraRepositoryImpl(server.getRepositoryURL()), new SimpleIDMapper("migrated"));
+        new Migrator(new ArchiveExportedFoxmlDirectoryObjectSource(new File("src/test/resources/exported")),
+                new ObjectAbstractionStreamingFedoraObjectHandler(
+                        new VersionAbstractionFedoraObjectHandler(handler))).run();
+        Assert.assertEquals(1, server.getContainerCount());
+        Assert.assertTrue(server.getBinaryCount() > 0);
+        Assert.assertEquals(0, server.getErrorCount());
+    }
+
+    @Test
+    public void testErrorInjection() throws IOException {
+        server.setErrorRate(1);
+        server.start();
+        try {
+            new FedoraRepositoryImpl(server.getRepositoryURL()).createObject("/a");
+            Assert.fail("Every request should fail.");
+        } catch (FedoraException e) {
+            // expected
+        }
+        Assert.assertEquals(1, server.getErrorCount());
+        Assert.assertEquals(0, server.getContainerCount());
+    }
+
+    @Test
+    public void testRateLimit() throws IOException, FedoraException {
+        server.setMaxRequestsPerSecond(100);
+        server.setLatencyMillis(5);
+        server.start();
+        final FedoraRepository repo = new FedoraRepositoryImpl(server.getRepositoryURL());
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i ++) {
+            repo.exists("/" + i);
+        }
+        Assert.assertTrue("Twenty requests at 100 per second should take at least 190ms.",
+                System.currentTimeMillis() - start >= 190);
+    }
+
+    private static FedoraContent content(final String value) {
+        return new FedoraContent().setContent(new ByteArrayInputStream(value.getBytes()))
+                .setContentType("text/plain");
+    }
+}